@@ -32,10 +32,14 @@ import net.minecraftforge.fml.client.event.ConfigChangedEvent;
 import net.minecraftforge.fml.common.Mod;
 import net.minecraftforge.fml.common.Mod.EventHandler;
 import net.minecraftforge.fml.common.Mod.Instance;
+import net.minecraftforge.fml.common.FMLCommonHandler;
 import net.minecraftforge.fml.common.SidedProxy;
 import net.minecraftforge.fml.common.event.FMLInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLPreInitializationEvent;
 import net.minecraftforge.fml.common.event.FMLServerAboutToStartEvent;
+import net.minecraftforge.fml.common.event.FMLServerStartedEvent;
+import net.minecraftforge.fml.common.event.FMLServerStartingEvent;
+import net.minecraftforge.fml.common.event.FMLServerStoppingEvent;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
 
 import org.apache.logging.log4j.Logger;
@@ -48,6 +52,8 @@ import cubicchunks.debug.DebugTools;
 import cubicchunks.debug.DebugWorldType;
 import cubicchunks.network.PacketDispatcher;
 import cubicchunks.proxy.CommonProxy;
+import cubicchunks.server.CommandPregen;
+import cubicchunks.server.WorldPregenerator;
 import cubicchunks.server.chunkio.async.forge.AsyncWorldIOExecutor;
 import cubicchunks.util.AddressTools;
 import cubicchunks.world.type.CustomCubicWorldType;
@@ -77,6 +83,7 @@ public class CubicChunks {
 		config = new Config(new Configuration(e.getSuggestedConfigurationFile()));
 		MinecraftForge.EVENT_BUS.register(this); // Register our config reload hook
 		AsyncWorldIOExecutor.registerListeners();
+		WorldPregenerator.registerListeners();
 
 		if (DEBUG_ENABLED) {
 			DebugTools.init();
@@ -101,6 +108,22 @@ public class CubicChunks {
 		proxy.setBuildLimit(event.getServer());
 	}
 
+	@EventHandler
+	public void onServerStarting(FMLServerStartingEvent event) {
+		event.registerServerCommand(new CommandPregen());
+	}
+
+	@EventHandler
+	public void onServerStarted(FMLServerStartedEvent event) {
+		WorldPregenerator.startFromProperty(FMLCommonHandler.instance().getMinecraftServerInstance());
+	}
+
+	@EventHandler
+	public void onServerStopping(FMLServerStoppingEvent event) {
+		// the world being generated is about to be unloaded, and an integrated server may load another one
+		WorldPregenerator.stop();
+	}
+
 	@SubscribeEvent
 	public void onConfigChanged(ConfigChangedEvent.OnConfigChangedEvent eventArgs) {
 		if (eventArgs.getModID().equals(CubicChunks.MODID)) {
@@ -111,6 +134,10 @@ public class CubicChunks {
 		}
 	}
 
+	public static Config getConfig() {
+		return config;
+	}
+
 	public static void addConfigChangeListener(IConfigUpdateListener listener) {
 		configChangeListeners.add(listener);
 		//notify if the config is already there
@@ -125,11 +152,47 @@ public class CubicChunks {
 		public static final int DEFAULT_VERTICAL_CUBE_LOAD_DISTANCE = 8;
 		public static final int DEFAULT_MIN_WORLD_HEIGHT = -4096;
 		public static final int DEFAULT_MAX_WORLD_HEIGHT = 4096;
+		public static final String STORAGE_FORMAT_REGION = "region";
+		public static final String STORAGE_FORMAT_MAPDB = "mapdb";
+		public static final String DEFAULT_STORAGE_FORMAT = STORAGE_FORMAT_REGION;
+		public static final boolean DEFAULT_CONVERT_MAPDB_STORAGE = true;
+		public static final int DEFAULT_IO_QUEUE_MAX_SIZE = 20000;
+		public static final int DEFAULT_IO_COMMIT_SIZE_KB = 8*1024;
+		public static final int DEFAULT_IO_COMMIT_INTERVAL = 500;
+		public static final int DEFAULT_IO_COMPRESSION_THREADS = 2;
+		public static final String DEFAULT_IO_COMPRESSION = "lz4";
+		public static final int DEFAULT_IO_COMPRESSION_LEVEL = 6;
+		public static final String CUBE_SAVE_FORMAT_BINARY = "binary";
+		public static final String CUBE_SAVE_FORMAT_NBT = "nbt";
+		public static final String DEFAULT_CUBE_SAVE_FORMAT = CUBE_SAVE_FORMAT_BINARY;
+		public static final int DEFAULT_CUBE_CACHE_SIZE_MB = 64;
+		public static final boolean DEFAULT_IO_JOURNAL = true;
+		public static final int DEFAULT_GENERATION_THREADS = 0;
+		public static final int DEFAULT_UNLOAD_DELAY = 20*5;
+		public static final int DEFAULT_MAX_CUBE_MEMORY = 0;
+		public static final int DEFAULT_ROLLING_SAVE_WINDOW = 0;
+		public static final int DEFAULT_ROLLING_SAVE_TICK_BUDGET = 5;
 		private int maxGeneratedCubesPerTick;
 		private int lightingTickBudget;
 		private int verticalCubeLoadDistance;
 		private int worldHeightLowerBound;
 		private int worldHeightUpperBound;
+		private String storageFormat;
+		private boolean convertMapDBStorage;
+		private int ioQueueMaxSize;
+		private int ioCommitSizeKB;
+		private int ioCommitInterval;
+		private int ioCompressionThreads;
+		private String ioCompression;
+		private int ioCompressionLevel;
+		private String cubeSaveFormat;
+		private int cubeCacheSizeMB;
+		private boolean ioJournal;
+		private int generationThreads;
+		private int unloadDelay;
+		private int maxCubeMemory;
+		private int rollingSaveWindow;
+		private int rollingSaveTickBudget;
 		private Configuration configuration;
 
 		private Config(Configuration configuration) {
@@ -152,6 +215,41 @@ public class CubicChunks {
 				DEFAULT_MIN_WORLD_HEIGHT, AddressTools.MIN_BLOCK_Y, 0, "The lower boundary on the world. Blocks will not generate or load below this point.");
 			worldHeightUpperBound = configuration.getInt("worldHeightUpperBound", Configuration.CATEGORY_GENERAL,
 				DEFAULT_MAX_WORLD_HEIGHT, 256, AddressTools.MAX_BLOCK_Y, "The upper boundary on the world. Blocks will not generate or load above this point.");
+			storageFormat = configuration.getString("storageFormat", Configuration.CATEGORY_GENERAL,
+				DEFAULT_STORAGE_FORMAT, "The format used to store cubes of new worlds. Existing worlds keep their format unless they are converted.",
+				new String[]{STORAGE_FORMAT_REGION, STORAGE_FORMAT_MAPDB});
+			convertMapDBStorage = configuration.getBoolean("convertMapDBStorage", Configuration.CATEGORY_GENERAL,
+				DEFAULT_CONVERT_MAPDB_STORAGE, "Convert worlds using the old MapDB storage to region files when they are loaded and storageFormat is region. The old database is kept as a backup.");
+			ioQueueMaxSize = configuration.getInt("ioQueueMaxSize", Configuration.CATEGORY_GENERAL,
+				DEFAULT_IO_QUEUE_MAX_SIZE, 100, Integer.MAX_VALUE, "The maximum number of cubes and columns waiting to be written to disk. When there are more, the server waits for the writer to catch up.");
+			ioCommitSizeKB = configuration.getInt("ioCommitSizeKB", Configuration.CATEGORY_GENERAL,
+				DEFAULT_IO_COMMIT_SIZE_KB, 64, Integer.MAX_VALUE/1024, "The amount of data in kilobytes written to disk before it's committed.");
+			ioCommitInterval = configuration.getInt("ioCommitInterval", Configuration.CATEGORY_GENERAL,
+				DEFAULT_IO_COMMIT_INTERVAL, 10, 60000, "The maximum time in milliseconds spent writing data to disk before it's committed.");
+			ioCompressionThreads = configuration.getInt("ioCompressionThreads", Configuration.CATEGORY_GENERAL,
+				DEFAULT_IO_COMPRESSION_THREADS, 0, 64, "The number of threads compressing cubes and columns before they are written. With 0 the writer thread compresses them.");
+			ioCompression = configuration.getString("ioCompression", Configuration.CATEGORY_GENERAL,
+				DEFAULT_IO_COMPRESSION, "The compression used to store cubes of new worlds. Existing worlds keep the compression they were created with, it can be changed in data/cubicchunks_storage.dat.",
+				new String[]{"lz4", "deflate", "gzip", "none"});
+			ioCompressionLevel = configuration.getInt("ioCompressionLevel", Configuration.CATEGORY_GENERAL,
+				DEFAULT_IO_COMPRESSION_LEVEL, 0, 9, "The compression level for new worlds. Higher is smaller but slower. Used by deflate, lz4 uses the high compression mode above 6.");
+			cubeSaveFormat = configuration.getString("cubeSaveFormat", Configuration.CATEGORY_GENERAL,
+				DEFAULT_CUBE_SAVE_FORMAT, "The format cubes are saved in. Binary is faster to write and read, cubes in both formats can always be loaded.",
+				new String[]{CUBE_SAVE_FORMAT_BINARY, CUBE_SAVE_FORMAT_NBT});
+			cubeCacheSizeMB = configuration.getInt("cubeCacheSizeMB", Configuration.CATEGORY_GENERAL,
+				DEFAULT_CUBE_CACHE_SIZE_MB, 0, 16384, "The memory in megabytes each dimension uses to keep recently saved and loaded cubes uncompressed, so that cubes loaded again soon after unloading aren't read from disk. 0 disables it.");
+			ioJournal = configuration.getBoolean("ioJournal", Configuration.CATEGORY_GENERAL,
+				DEFAULT_IO_JOURNAL, "Record cubes and columns waiting to be saved in a journal, so that they are saved after a crash instead of being lost. Takes effect when the world is loaded.");
+			generationThreads = configuration.getInt("generationThreads", Configuration.CATEGORY_GENERAL,
+				DEFAULT_GENERATION_THREADS, 0, 256, "The number of threads generating terrain for generators that support it. 0 uses one less than the number of cores.");
+			unloadDelay = configuration.getInt("unloadDelay", Configuration.CATEGORY_GENERAL,
+				DEFAULT_UNLOAD_DELAY, 0, 20*60*60, "The number of ticks a cube stays loaded after it stops being used, so that cubes needed again soon don't have to be loaded again.");
+			maxCubeMemory = configuration.getInt("maxCubeMemory", Configuration.CATEGORY_GENERAL,
+				DEFAULT_MAX_CUBE_MEMORY, 0, 1024*1024, "Estimated memory in megabytes that loaded cubes may use in each dimension. Above it, unused cubes farthest from players are unloaded right away instead of after unloadDelay. 0 disables the limit.");
+			rollingSaveWindow = configuration.getInt("rollingSaveWindow", Configuration.CATEGORY_GENERAL,
+				DEFAULT_ROLLING_SAVE_WINDOW, 0, 20*60*60, "The number of ticks after which modified cubes and columns are saved, spread over time instead of all at once on each autosave. 0 saves everything on each autosave, like vanilla.");
+			rollingSaveTickBudget = configuration.getInt("rollingSaveTickBudget", Configuration.CATEGORY_GENERAL,
+				DEFAULT_ROLLING_SAVE_TICK_BUDGET, 1, 1000, "Maximum time in milliseconds spent on rolling saves each tick. Saves that don't fit are done in the next tick.");
 
 			if (configuration.hasChanged()) configuration.save();
 		}
@@ -176,6 +274,70 @@ public class CubicChunks {
 			return worldHeightUpperBound;
 		}
 
+		public String getStorageFormat() {
+			return storageFormat;
+		}
+
+		public boolean shouldConvertMapDBStorage() {
+			return convertMapDBStorage;
+		}
+
+		public int getIoQueueMaxSize() {
+			return ioQueueMaxSize;
+		}
+
+		public int getIoCommitSizeKB() {
+			return ioCommitSizeKB;
+		}
+
+		public int getIoCommitInterval() {
+			return ioCommitInterval;
+		}
+
+		public int getIoCompressionThreads() {
+			return ioCompressionThreads;
+		}
+
+		public String getIoCompression() {
+			return ioCompression;
+		}
+
+		public int getIoCompressionLevel() {
+			return ioCompressionLevel;
+		}
+
+		public String getCubeSaveFormat() {
+			return cubeSaveFormat;
+		}
+
+		public int getCubeCacheSizeMB() {
+			return cubeCacheSizeMB;
+		}
+
+		public boolean useIoJournal() {
+			return ioJournal;
+		}
+
+		public int getGenerationThreads() {
+			return generationThreads;
+		}
+
+		public int getUnloadDelay() {
+			return unloadDelay;
+		}
+
+		public int getMaxCubeMemory() {
+			return maxCubeMemory;
+		}
+
+		public int getRollingSaveWindow() {
+			return rollingSaveWindow;
+		}
+
+		public int getRollingSaveTickBudget() {
+			return rollingSaveTickBudget;
+		}
+
 		public static class GUI extends GuiConfig {
 			public GUI(GuiScreen parent) {
 				super(parent, new ConfigElement(config.configuration.getCategory(Configuration.CATEGORY_GENERAL)).getChildElements(), MODID, false, false, GuiConfig.getAbridgedConfigPath(config.configuration.toString()));
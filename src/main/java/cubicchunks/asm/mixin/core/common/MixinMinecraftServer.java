@@ -0,0 +1,68 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.asm.mixin.core.common;
+
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.WorldServer;
+
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Redirect;
+
+import cubicchunks.world.ICubicWorldServer;
+
+import static cubicchunks.asm.JvmNames.MINECRAFT_SERVER_SAVE_ALL_WORLDS;
+
+/**
+ * Lets cubic worlds tell the periodic autosave apart from other saves
+ */
+@Mixin(MinecraftServer.class)
+public abstract class MixinMinecraftServer {
+
+	@Shadow public WorldServer[] worldServers;
+
+	@Shadow protected abstract void saveAllWorlds(boolean isSilent);
+
+	/**
+	 * Redirect the autosave in {@code tick} here, to flag it as the autosave in cubic worlds while it runs.
+	 */
+	@Redirect(method = "tick", at = @At(value = "INVOKE", target = MINECRAFT_SERVER_SAVE_ALL_WORLDS), require = 1)
+	private void saveAllWorldsAutosave(MinecraftServer _this, boolean isSilent) {
+		setAutosave(true);
+		try {
+			this.saveAllWorlds(isSilent);
+		} finally {
+			setAutosave(false);
+		}
+	}
+
+	private void setAutosave(boolean autosave) {
+		for (WorldServer world : this.worldServers) {
+			if (world != null && ((ICubicWorldServer) world).isCubicWorld()) {
+				((ICubicWorldServer) world).getCubeCache().setAutosave(autosave);
+			}
+		}
+	}
+}
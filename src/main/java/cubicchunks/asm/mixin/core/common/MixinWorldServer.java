@@ -89,6 +89,7 @@ public abstract class MixinWorldServer extends MixinWorld implements ICubicWorld
 
 	@Override public void tickCubicWorld() {
 		this.lightingManager.tick();
+		getCubeCache().tick();
 		this.chunkGc.tick();
 	}
 
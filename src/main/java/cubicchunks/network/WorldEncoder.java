@@ -23,8 +23,11 @@
  */
 package cubicchunks.network;
 
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
 import net.minecraft.network.PacketBuffer;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+import net.minecraftforge.fml.common.network.ByteBufUtils;
 
 import cubicchunks.util.Coords;
 import cubicchunks.world.ClientHeightMap;
@@ -36,9 +39,28 @@ import io.netty.buffer.Unpooled;
 
 public class WorldEncoder {
 
+	private static final byte CUBE_EMPTY = 0;
+	private static final byte CUBE_FULL = 1;
+	private static final byte CUBE_UNIFORM = 2;
+
+	private static final int HEIGHTMAPS_SIZE = 256*2*4;
+
 	public static void encodeCube(PacketBuffer out, Cube cube) {
-		// 1. emptiness
-		out.writeBoolean(cube.isEmpty());
+		// 1. storage type
+		if (cube.isUniform()) {
+			out.writeByte(CUBE_UNIFORM);
+
+			// 2. block state and sky light
+			ByteBufUtils.writeVarInt(out, Block.BLOCK_STATE_IDS.get(cube.getUniformState()), 4);
+			if (!cube.getCubicWorld().getProvider().getHasNoSky()) {
+				out.writeByte(cube.getUniformSkylight());
+			}
+
+			// 3. heightmap and bottom-block-y
+			writeHeightMaps(out, cube);
+			return;
+		}
+		out.writeByte(cube.isEmpty() ? CUBE_EMPTY : CUBE_FULL);
 
 		if (!cube.isEmpty()) {
 			ExtendedBlockStorage storage = cube.getStorage();
@@ -56,12 +78,16 @@ public class WorldEncoder {
 
 			// 5. heightmap and bottom-block-y. Each non-empty cube has a chance to update this data.
 			// trying to keep track of when it changes would be complex, so send it wil all cubes
-			byte[] heightmaps = ((ServerHeightMap) cube.getColumn().getOpacityIndex()).getDataForClient();
-			assert heightmaps.length == 256*2*4;
-			out.writeBytes(heightmaps);
+			writeHeightMaps(out, cube);
 		}
 	}
 
+	private static void writeHeightMaps(PacketBuffer out, Cube cube) {
+		byte[] heightmaps = ((ServerHeightMap) cube.getColumn().getOpacityIndex()).getDataForClient();
+		assert heightmaps.length == HEIGHTMAPS_SIZE;
+		out.writeBytes(heightmaps);
+	}
+
 	public static void encodeColumn(PacketBuffer out, Column column) {
 		// 1. biomes
 		out.writeBytes(column.getBiomeArray());
@@ -76,10 +102,20 @@ public class WorldEncoder {
 		// if the cube came from the server, it must be live
 		cube.setClientCube();
 
-		// 1. emptiness
-		boolean isEmpty = in.readBoolean();
+		// 1. storage type
+		byte type = in.readByte();
+
+		if (type == CUBE_UNIFORM) {
+			// 2. block state and sky light
+			IBlockState state = Block.BLOCK_STATE_IDS.getByValue(ByteBufUtils.readVarInt(in, 4));
+			int skyLight = cube.getCubicWorld().getProvider().getHasNoSky() ? 0 : in.readUnsignedByte();
+			if (state != null) {
+				cube.setUniform(state, skyLight);
+			}
 
-		if (!isEmpty) {
+			// 3. heightmaps
+			readHeightMaps(in, cube);
+		} else if (type == CUBE_FULL) {
 			ExtendedBlockStorage storage = new ExtendedBlockStorage(
 				Coords.cubeToMinBlock(cube.getY()),
 				!cube.getCubicWorld().getProvider().getHasNoSky());
@@ -95,24 +131,35 @@ public class WorldEncoder {
 				in.readBytes(storage.getSkylightArray().getData());
 			}
 
-			// 5. heightmaps TODO: NO NO NO! Don't send this with Cubes!
-			byte[] heightmaps = new byte[256*2*4];
-			in.readBytes(heightmaps);
-			ClientHeightMap coi = ((ClientHeightMap) cube.getColumn().getOpacityIndex());
-			coi.setData(heightmaps);
+			// 5. heightmaps
+			readHeightMaps(in, cube);
 			//cube.initialClientSkylight();
 			storage.removeInvalidBlocks();
 		}
 	}
 
+	private static void readHeightMaps(PacketBuffer in, Cube cube) {
+		// TODO: NO NO NO! Don't send this with Cubes!
+		byte[] heightmaps = new byte[HEIGHTMAPS_SIZE];
+		in.readBytes(heightmaps);
+		ClientHeightMap coi = ((ClientHeightMap) cube.getColumn().getOpacityIndex());
+		coi.setData(heightmaps);
+	}
+
 	public static int getEncodedSize(Column column) {
 		return column.getBiomeArray().length;
 	}
 
 	public static int getEncodedSize(Cube cube) {
 		int size = 0;
-		size++;//isEmpty
-		if (!cube.isEmpty()) {
+		size++;//storage type
+		if (cube.isUniform()) {
+			size += ByteBufUtils.varIntByteCount(Block.BLOCK_STATE_IDS.get(cube.getUniformState()));
+			if (!cube.getCubicWorld().getProvider().getHasNoSky()) {
+				size++;
+			}
+			size += HEIGHTMAPS_SIZE;
+		} else if (!cube.isEmpty()) {
 			ExtendedBlockStorage storage = cube.getStorage();
 			size += storage.getData().getSerializedSize();
 			size += storage.getBlocklightArray().getData().length;
@@ -120,7 +167,7 @@ public class WorldEncoder {
 				size += storage.getSkylightArray().getData().length;
 			}
 			//heightmaps
-			size += 256*2*4;
+			size += HEIGHTMAPS_SIZE;
 		}
 		return size;
 	}
@@ -24,34 +24,67 @@
 package cubicchunks.server;
 
 import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
 
-import cubicchunks.world.column.Column;
+import cubicchunks.CubicChunks;
 import cubicchunks.world.cube.Cube;
 
 /**
  * Chunk Garbage Collector, automatically unloads unused chunks.
+ * <p>
+ * Cubes become unload candidates when their last ticket is removed. Each tick, the candidates that have been unused
+ * for longer than the configured unload delay are unloaded, until the time budget runs out. When loaded cubes are
+ * estimated to use more memory than the configured limit, unused cubes farthest from players are unloaded without
+ * waiting for the delay.
  */
 public class ChunkGc {
-	// GC every 10 seconds by default
-	private static final int GC_INTERVAL = 20*10;
+	// time per tick spent on unloading, the rest is left for the next tick
+	private static final long GC_TICK_BUDGET = TimeUnit.MILLISECONDS.toNanos(5);
+
+	// how often to sort the unload candidates by distance while loaded cubes use too much memory
+	private static final int SORT_INTERVAL = 20;
 
 	private final CubeProviderServer cubeCache;
 
-	private int tick = 0;
+	private int ticksSinceSort = SORT_INTERVAL;
+	private boolean warnedAboutMemory = false;
 
 	public ChunkGc(CubeProviderServer cubeCache) {
 		this.cubeCache = cubeCache;
 	}
 
 	public void tick() {
-		tick++;
-		if (tick > GC_INTERVAL) {
-			tick = 0;
-			chunkGc();
+		CubicChunks.Config config = CubicChunks.getConfig();
+		long stopTime = System.nanoTime() + GC_TICK_BUDGET;
+		cubeCache.unloadUnused(config.getUnloadDelay(), stopTime);
+
+		long maxMemory = config.getMaxCubeMemory()*1024L*1024L;
+		long bytesToFree = maxMemory <= 0 ? 0 : cubeCache.estimateCubeMemory() - maxMemory;
+		if (bytesToFree <= 0) {
+			// the limit may have just been removed, or enough has been unloaded
+			cubeCache.clearUnloadCandidatesByDistance();
+			ticksSinceSort = SORT_INTERVAL; // sort right away when the limit is exceeded again
+			warnedAboutMemory = false;
+			return;
+		}
+		if (++ticksSinceSort >= SORT_INTERVAL) {
+			// sorting is too slow to do every tick, unload in this order until the next sort
+			ticksSinceSort = 0;
+			cubeCache.sortUnloadCandidatesByDistance();
+		}
+		long freed = cubeCache.unloadUnusedFarthest(bytesToFree, stopTime);
+		if (freed == 0 && ticksSinceSort == 0 && System.nanoTime() < stopTime && !warnedAboutMemory) {
+			// nothing that can be unloaded right after sorting, everything is used by players or kept loaded by tickets
+			CubicChunks.LOGGER.warn("Loaded cubes use about {} MB more than the limit of {} MB, but all of them are in use",
+				bytesToFree/1024/1024, config.getMaxCubeMemory());
+			warnedAboutMemory = true;
 		}
 	}
 
-	private void chunkGc() {
+	/**
+	 * Unload all cubes and columns that are not used anymore, without waiting for the unload delay.
+	 */
+	public void chunkGc() {
 		Iterator<Cube> cubeIt = cubeCache.cubesIterator();
 		while (cubeIt.hasNext()) {
 			if (cubeCache.tryUnloadCube(cubeIt.next())) {
@@ -59,11 +92,6 @@ public class ChunkGc {
 			}
 		}
 
-		Iterator<Column> columnIt = cubeCache.columnsIterator();
-		while (columnIt.hasNext()) {
-			if (cubeCache.tryUnloadColumn(columnIt.next())) {
-				columnIt.remove();
-			}
-		}
+		cubeCache.unloadEmptyColumns();
 	}
 }
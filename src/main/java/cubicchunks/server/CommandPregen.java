@@ -0,0 +1,127 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server;
+
+import net.minecraft.command.CommandBase;
+import net.minecraft.command.CommandException;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.command.WrongUsageException;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.text.TextComponentString;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import cubicchunks.util.CubePos;
+import cubicchunks.world.ICubicWorld;
+import cubicchunks.world.ICubicWorldServer;
+import cubicchunks.world.IProviderExtras.Requirement;
+
+/**
+ * Starts, stops and reports the progress of {@link WorldPregenerator}.
+ * <p>
+ * Usage: {@code /pregen <x> <y> <z> <radius> [box|sphere] [generate|populate|light]}, {@code /pregen stop} or
+ * {@code /pregen status}. The center is in block coordinates, the radius is in cubes.
+ */
+public class CommandPregen extends CommandBase {
+
+	@Override
+	public String getCommandName() {
+		return "pregen";
+	}
+
+	@Override
+	public String getCommandUsage(ICommandSender sender) {
+		return "/pregen <x> <y> <z> <radius> [box|sphere] [generate|populate|light] OR /pregen stop OR /pregen status";
+	}
+
+	@Override
+	public int getRequiredPermissionLevel() {
+		return 3;
+	}
+
+	@Override
+	public void execute(MinecraftServer server, ICommandSender sender, String[] args) throws CommandException {
+		if (args.length == 1 && args[0].equals("stop")) {
+			if (!WorldPregenerator.stop()) {
+				sender.addChatMessage(new TextComponentString("No pregeneration is running"));
+			}
+			return;
+		}
+		if (args.length == 1 && args[0].equals("status")) {
+			String status = WorldPregenerator.getStatus();
+			sender.addChatMessage(new TextComponentString(status == null ? "No pregeneration is running" : status));
+			return;
+		}
+		if (args.length < 4 || args.length > 6) {
+			throw new WrongUsageException(getCommandUsage(sender));
+		}
+		ICubicWorld world = (ICubicWorld) sender.getEntityWorld();
+		if (!world.isCubicWorld()) {
+			throw new CommandException("This is not a cubic chunks world");
+		}
+		BlockPos center = parseBlockPos(sender, args, 0, false);
+		int radius = parseInt(args[3], 0);
+		WorldPregenerator.Shape shape = args.length > 4 ? parseEnum(WorldPregenerator.Shape.class, args[4], sender) : WorldPregenerator.Shape.BOX;
+		Requirement req = args.length > 5 ? parseEnum(Requirement.class, args[5], sender) : Requirement.LIGHT;
+		if (req.compareTo(Requirement.GENERATE) < 0) {
+			throw new WrongUsageException(getCommandUsage(sender));
+		}
+
+		if (!WorldPregenerator.start((ICubicWorldServer) world, sender, CubePos.fromBlockCoords(center), radius, shape, req)) {
+			throw new CommandException("Pregeneration is already running, use /pregen stop first");
+		}
+	}
+
+	@Override
+	public List<String> getTabCompletionOptions(MinecraftServer server, ICommandSender sender, String[] args, @Nullable BlockPos pos) {
+		if (args.length == 1) {
+			return getListOfStringsMatchingLastWord(args, "stop", "status");
+		}
+		if (args.length <= 3) {
+			return getTabCompletionCoordinate(args, 0, pos);
+		}
+		if (args.length == 5) {
+			return getListOfStringsMatchingLastWord(args, "box", "sphere");
+		}
+		if (args.length == 6) {
+			return getListOfStringsMatchingLastWord(args, "generate", "populate", "light");
+		}
+		return Collections.emptyList();
+	}
+
+	@Nonnull
+	private <T extends Enum<T>> T parseEnum(Class<T> type, String name, ICommandSender sender) throws CommandException {
+		try {
+			return Enum.valueOf(type, name.toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			throw new WrongUsageException(getCommandUsage(sender));
+		}
+	}
+}
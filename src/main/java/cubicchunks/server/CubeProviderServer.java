@@ -23,7 +23,12 @@
  */
 package cubicchunks.server;
 
+import com.carrotsearch.hppc.LongArrayDeque;
+import com.carrotsearch.hppc.LongHashSet;
+import com.carrotsearch.hppc.LongSet;
+
 import net.minecraft.entity.EnumCreatureType;
+import net.minecraft.entity.player.EntityPlayer;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.World;
@@ -34,8 +39,27 @@ import net.minecraft.world.gen.ChunkProviderServer;
 
 import org.apache.logging.log4j.Logger;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 import javax.annotation.Detainted;
@@ -43,15 +67,22 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import cubicchunks.CubicChunks;
+import cubicchunks.server.chunkio.CubeDataCache;
 import cubicchunks.server.chunkio.CubeIO;
 import cubicchunks.server.chunkio.async.forge.AsyncWorldIOExecutor;
+import cubicchunks.server.chunkio.async.forge.WrappedCallback;
+import cubicchunks.util.AddressTools;
+import cubicchunks.util.Box;
+import cubicchunks.util.Coords;
 import cubicchunks.util.CubePos;
 import cubicchunks.util.XYZMap;
+import cubicchunks.util.ticket.ITicket;
 import cubicchunks.world.ICubeProvider;
 import cubicchunks.world.ICubicWorldServer;
 import cubicchunks.world.IProviderExtras;
 import cubicchunks.world.column.Column;
 import cubicchunks.world.cube.Cube;
+import cubicchunks.worldgen.CubeGeneratorExecutor;
 import cubicchunks.worldgen.generator.ICubeGenerator;
 import cubicchunks.worldgen.generator.ICubePrimer;
 
@@ -76,6 +107,50 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 
 	private ICubeGenerator cubeGen;
 
+	// time per tick spent on population, lighting and other work of asynchronously requested cubes
+	private static final long SERVER_THREAD_TASK_BUDGET = TimeUnit.MILLISECONDS.toNanos(25);
+	// cubes requested with getCubeAsync that aren't done yet, for each requirement. Only accessed from the server thread
+	private final Map<Requirement, Map<CubePos, CompletableFuture<Cube>>> pendingCubes = new EnumMap<>(Requirement.class);
+	// populate() calls requested by getCubeAsync that aren't done yet. Only accessed from the server thread
+	private final Map<CubePos, CompletableFuture<Void>> pendingPopulation = new HashMap<>();
+	private final Queue<Runnable> serverThreadTasks = new ConcurrentLinkedQueue<>();
+	private final Executor serverThread = serverThreadTasks::add;
+
+	// rough memory used by a cube, for estimateCubeMemory: the cube with its maps, height map parts and ticket list,
+	// its block storage with a small palette and both light arrays, and each entity and tile entity in it
+	private static final int CUBE_MEMORY = 1024;
+	private static final int STORAGE_MEMORY = 8*1024;
+	private static final int ENTITY_MEMORY = 1024;
+	// estimated memory of the loaded cubes and their block storage, without entities. Updated as cubes are loaded
+	// and unloaded and as they allocate or drop block storage. Only accessed from the server thread
+	private long cubeMemory = 0;
+
+	// cubes and columns that may be unused, with the world time when they were last seen becoming unused.
+	// Insertion ordered, so the oldest candidates come first. Only accessed from the server thread
+	private final LinkedHashMap<Cube, Long> cubeUnloadCandidates = new LinkedHashMap<>();
+	private final LinkedHashMap<Column, Long> columnUnloadCandidates = new LinkedHashMap<>();
+	// unload candidates farthest from players first, as of the last sort while too much memory was in use
+	private final ArrayDeque<Cube> farthestUnloadCandidates = new ArrayDeque<>();
+	// true while MinecraftServer.tick does the periodic autosave, see MixinMinecraftServer
+	private boolean isAutosave = false;
+	// loaded cubes, by address, that may need saving. The queues hold them in the order they became modified, with
+	// the world time when that happened. Cubes unloaded or saved in the meantime are skipped when they come up.
+	// Only accessed from the server thread
+	private final LongSet modifiedCubes = new LongHashSet();
+	private final LongArrayDeque modifiedCubeQueue = new LongArrayDeque();
+	private final LongArrayDeque modifiedCubeTimes = new LongArrayDeque();
+	// loaded columns that may need saving, with the world time when they became modified, oldest first
+	private final LinkedHashMap<Column, Long> modifiedColumns = new LinkedHashMap<>();
+	private final Column.Listener columnListener = new Column.Listener() {
+		@Override public void onModified(Column column) {
+			modifiedColumns.putIfAbsent(column, worldServer.getTotalWorldTime());
+		}
+
+		@Override public void onEmpty(Column column) {
+			addUnloadCandidate(column);
+		}
+	};
+
 	public CubeProviderServer(ICubicWorldServer worldServer, ICubeGenerator cubeGen) {
 		super((WorldServer) worldServer,
 			worldServer.getSaveHandler().getChunkLoader(worldServer.getProvider()), // forge uses this in
@@ -156,20 +231,66 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 
 	@Override
 	public boolean saveChunks(boolean alwaysTrue) {
-		for (Cube cube : cubeMap) { // save cubes
+		if (isAutosave && CubicChunks.getConfig().getRollingSaveWindow() > 0) {
+			return true; // tick() saves everything gradually instead
+		}
+		saveModified(Long.MAX_VALUE, Long.MAX_VALUE);
+		return true;
+	}
+
+	/**
+	 * Set whether saves happening now are the periodic autosave of the server, as opposed to saves when stopping the
+	 * server or from commands, which have to save everything right away
+	 *
+	 * @param autosave {@code true} before the autosave, {@code false} after it
+	 */
+	public void setAutosave(boolean autosave) {
+		this.isAutosave = autosave;
+	}
+
+	/**
+	 * Save cubes and columns that became modified at or before {@code maxTime}, oldest first, until the time runs
+	 * out. Cubes with entities stay queued, because entities move without modifying the cube.
+	 *
+	 * @param maxTime world time of the most recent modification to save
+	 * @param stopTime {@link System#nanoTime()} at which to stop
+	 */
+	private void saveModified(long maxTime, long stopTime) {
+		// cubes with entities are queued again, don't save them twice
+		int cubesToCheck = modifiedCubeQueue.size();
+		while (cubesToCheck > 0 && modifiedCubeTimes.getFirst() <= maxTime && System.nanoTime() < stopTime) {
+			cubesToCheck--;
+			long address = modifiedCubeQueue.removeFirst();
+			modifiedCubeTimes.removeFirst();
+			if (!modifiedCubes.contains(address)) {
+				continue;
+			}
+			Cube cube = getLoadedCube(AddressTools.getX(address), AddressTools.getY(address), AddressTools.getZ(address));
+			if (cube == null) {
+				modifiedCubes.remove(address);
+				continue;
+			}
 			if (cube.needsSaving()) {
 				this.cubeIO.saveCube(cube);
 			}
+			if (cube.getEntityContainer().hasActiveEntities()) {
+				modifiedCubeQueue.addLast(address);
+				modifiedCubeTimes.addLast(worldServer.getTotalWorldTime());
+			} else {
+				modifiedCubes.remove(address);
+			}
 		}
-		for (Chunk chunk : id2ChunkMap.values()) { // save columns
-			Column column = (Column) chunk;
-			// save the column
-			if (column.needsSaving(alwaysTrue)) {
-				this.cubeIO.saveColumn(column);
+		while (!modifiedColumns.isEmpty() && System.nanoTime() < stopTime) {
+			Iterator<Map.Entry<Column, Long>> it = modifiedColumns.entrySet().iterator();
+			Map.Entry<Column, Long> entry = it.next();
+			if (entry.getValue() > maxTime) {
+				break;
+			}
+			it.remove();
+			if (entry.getKey().needsSaving(true)) {
+				this.cubeIO.saveColumn(entry.getKey());
 			}
 		}
-
-		return true;
 	}
 
 	@Override
@@ -182,7 +303,8 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 	@Override
 	public String makeString() {
 		return "CubeProviderServer: " + this.id2ChunkMap.size() + " columns, "
-			+ this.cubeMap.getSize() + " cubes";
+			+ this.cubeMap.getSize() + " cubes, " + this.serverThreadTasks.size() + " queued tasks, "
+			+ this.cubeIO.getCacheStats();
 	}
 
 	@Override
@@ -246,15 +368,234 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 			return;
 		}
 
+		Column column = getLoadedColumn(cubeX, cubeZ);
+		if (cube == null && column != null && cubeIO.isCubeInMemory(cubeX, cubeY, cubeZ)) {
+			// no disk access needed, loading it right away is cheaper than waiting for the next tick
+			cube = AsyncWorldIOExecutor.syncCubeLoad(worldServer, cubeIO, this, cubeX, cubeY, cubeZ);
+			onCubeLoaded(cube, column);
+			callback.accept(postCubeLoadAttempt(cubeX, cubeY, cubeZ, cube, column, req));
+			return;
+		}
+
 		if (cube == null) {
-			AsyncWorldIOExecutor.queueCubeLoad(worldServer, cubeIO, this, cubeX, cubeY, cubeZ, loaded -> {
+			// wrapped so that the load can be dropped using the original callback
+			AsyncWorldIOExecutor.queueCubeLoad(worldServer, cubeIO, this, cubeX, cubeY, cubeZ, new WrappedCallback<>(callback, loaded -> {
 				Column col = getLoadedColumn(cubeX, cubeZ);
 				if (col != null) {
 					onCubeLoaded(loaded, col);
 				}
 				loaded = postCubeLoadAttempt(cubeX, cubeY, cubeZ, loaded, col, req);
 				callback.accept(loaded);
-			});
+			}));
+		}
+	}
+
+	/**
+	 * Retrieve a cube without blocking the server thread. Loading and generating blocks happen on other threads, while
+	 * population and lighting are done on the server thread within a time budget each tick once all cubes they depend
+	 * on have been generated. Requests for the same cube and {@link Requirement} share one future. The cubes a request
+	 * depends on are kept loaded until it completes.
+	 * <p>
+	 * Must be called from the server thread. The returned future is always completed on the server thread.
+	 *
+	 * @param cubeX Cube x position
+	 * @param cubeY Cube y position
+	 * @param cubeZ Cube z position
+	 * @param req Work done on the cube
+	 *
+	 * @return a future completed with the cube, or with <code>null</code> if the work specified by <code>req</code>
+	 * is not sufficient to provide a cube
+	 *
+	 * @see #getCube(int, int, int, Requirement) for the synchronous equivalent to this method
+	 */
+	@Nonnull
+	public CompletableFuture<Cube> getCubeAsync(int cubeX, int cubeY, int cubeZ, @Nonnull Requirement req) {
+		Cube cube = getLoadedCube(cubeX, cubeY, cubeZ);
+		if (req == Requirement.GET_CACHED || isDone(cube, req)) {
+			return CompletableFuture.completedFuture(cube);
+		}
+		CubePos pos = new CubePos(cubeX, cubeY, cubeZ);
+		Map<CubePos, CompletableFuture<Cube>> pending = pendingCubes.computeIfAbsent(req, r -> new HashMap<>());
+		CompletableFuture<Cube> future = pending.get(pos);
+		if (future != null) {
+			return future;
+		}
+		future = startStage(pos, req);
+		if (!future.isDone()) {
+			pending.put(pos, future);
+			future.whenComplete((c, t) -> pending.remove(pos));
+		}
+		return future;
+	}
+
+	private CompletableFuture<Cube> startStage(@Nonnull CubePos pos, @Nonnull Requirement req) {
+		int cubeX = pos.getX();
+		int cubeY = pos.getY();
+		int cubeZ = pos.getZ();
+		switch (req) {
+			case LOAD: {
+				CompletableFuture<Cube> future = new CompletableFuture<>();
+				asyncGetCube(cubeX, cubeY, cubeZ, Requirement.LOAD, future::complete);
+				return future;
+			}
+			case GENERATE:
+				return getCubeAsync(cubeX, cubeY, cubeZ, Requirement.LOAD).thenCompose(cube ->
+					cube != null ? CompletableFuture.completedFuture(cube) : generateCubeAsync(pos));
+			case POPULATE: {
+				StageTicket ticket = new StageTicket();
+				return releaseWhenDone(ticket, getCubeAsync(cubeX, cubeY, cubeZ, Requirement.GENERATE).thenCompose(cube -> {
+					if (cube.isFullyPopulated()) {
+						return CompletableFuture.completedFuture(cube);
+					}
+					ticket.hold(cube);
+					List<CompletableFuture<Void>> required = new ArrayList<>();
+					cubeGen.getPopulationRequirement(cube).forEachPoint((x, y, z) -> {
+						CubePos requiredPos = new CubePos(x + cubeX, y + cubeY, z + cubeZ);
+						// getCube(POPULATE) checks these, keep them loaded until it does
+						required.add(populateCubeAsync(requiredPos).thenRun(() -> ticket.hold(getLoadedCube(requiredPos))));
+					});
+					// everything is populated now, so this only marks the cube as fully populated
+					return CompletableFuture.allOf(required.toArray(new CompletableFuture[required.size()]))
+						.thenApplyAsync(v -> getCube(cubeX, cubeY, cubeZ, Requirement.POPULATE), serverThread);
+				}));
+			}
+			case LIGHT: {
+				StageTicket ticket = new StageTicket();
+				return releaseWhenDone(ticket, getCubeAsync(cubeX, cubeY, cubeZ, Requirement.POPULATE).thenCompose(cube -> {
+					if (cube.isInitialLightingDone()) {
+						return CompletableFuture.completedFuture(cube);
+					}
+					ticket.hold(cube);
+					List<CompletableFuture<Cube>> required = new ArrayList<>();
+					for (int x = -2; x <= 2; x++) {
+						for (int y = -2; y <= 2; y++) {
+							for (int z = -2; z <= 2; z++) {
+								required.add(getCubeAsync(x + cubeX, y + cubeY, z + cubeZ, Requirement.GENERATE).thenApply(ticket::hold));
+							}
+						}
+					}
+					return CompletableFuture.allOf(required.toArray(new CompletableFuture[required.size()]))
+						.thenApplyAsync(v -> getCube(cubeX, cubeY, cubeZ, Requirement.LIGHT), serverThread);
+				}));
+			}
+			default:
+				throw new IllegalArgumentException("Unexpected requirement " + req);
+		}
+	}
+
+	/**
+	 * Release the cubes held by {@code ticket} once {@code stage} is done
+	 */
+	private <T> CompletableFuture<T> releaseWhenDone(@Nonnull StageTicket ticket, @Nonnull CompletableFuture<T> stage) {
+		// a stage that failed may complete on another thread, tickets are only touched on the server thread
+		stage.whenCompleteAsync((r, t) -> ticket.release(), serverThread);
+		return stage;
+	}
+
+	/**
+	 * Call populate() for a single cube once all cubes it writes to are generated. Each call is a separate task on the
+	 * server thread, so population of many cubes is spread over multiple ticks. Requests for the same cube share one
+	 * future.
+	 */
+	private CompletableFuture<Void> populateCubeAsync(@Nonnull CubePos pos) {
+		CompletableFuture<Void> future = pendingPopulation.get(pos);
+		if (future != null) {
+			return future;
+		}
+		int cubeX = pos.getX();
+		int cubeY = pos.getY();
+		int cubeZ = pos.getZ();
+		StageTicket ticket = new StageTicket();
+		future = releaseWhenDone(ticket, getCubeAsync(cubeX, cubeY, cubeZ, Requirement.GENERATE).thenCompose(cube -> {
+			if (cube.isPopulated()) {
+				return CompletableFuture.completedFuture(null);
+			}
+			ticket.hold(cube);
+			List<CompletableFuture<Cube>> written = new ArrayList<>();
+			cubeGen.getPopulationTargets(cube).forEachPoint((x, y, z) ->
+				written.add(getCubeAsync(x + cubeX, y + cubeY, z + cubeZ, Requirement.GENERATE).thenApply(ticket::hold)));
+			return CompletableFuture.allOf(written.toArray(new CompletableFuture[written.size()]))
+				.thenAcceptAsync(v -> {
+					// the ticket keeps it loaded, so this doesn't load or generate anything
+					Cube popcube = getCube(cubeX, cubeY, cubeZ, Requirement.GENERATE);
+					if (!popcube.isPopulated()) {
+						cubeGen.populate(popcube);
+						popcube.setPopulated(true);
+					}
+				}, serverThread);
+		}));
+		if (!future.isDone()) {
+			pendingPopulation.put(pos, future);
+			future.whenComplete((v, t) -> pendingPopulation.remove(pos));
+		}
+		return future;
+	}
+
+	/**
+	 * Add the cubes that populating the population requirement of a cube writes to. The cubes in the requirement must
+	 * be loaded.
+	 *
+	 * @param cube the cube that will be fully populated
+	 * @param targets set to add the cube positions to
+	 */
+	private void addPopulationTargets(@Nonnull Cube cube, @Nonnull Set<CubePos> targets) {
+		cubeGen.getPopulationRequirement(cube).forEachPoint((x, y, z) -> {
+			Cube popcube = getLoadedCube(x + cube.getX(), y + cube.getY(), z + cube.getZ());
+			if (popcube != null && !popcube.isPopulated()) {
+				cubeGen.getPopulationTargets(popcube).forEachPoint((tx, ty, tz) -> targets.add(
+					new CubePos(tx + popcube.getX(), ty + popcube.getY(), tz + popcube.getZ())));
+			}
+		});
+	}
+
+	private CompletableFuture<Cube> generateCubeAsync(@Nonnull CubePos pos) {
+		int cubeX = pos.getX();
+		int cubeY = pos.getY();
+		int cubeZ = pos.getZ();
+		Callable<ICubePrimer> task = cubeGen.prepareCube(cubeX, cubeY, cubeZ);
+		if (task == null) {
+			return CompletableFuture.completedFuture(getCube(cubeX, cubeY, cubeZ, Requirement.GENERATE));
+		}
+		return CubeGeneratorExecutor.supply(task).thenApplyAsync(primer -> {
+			// the cube could have been created on the server thread in the meantime, don't replace it
+			if (getLoadedCube(cubeX, cubeY, cubeZ) != null || cubeIO.isCubeInMemory(cubeX, cubeY, cubeZ)) {
+				return getCube(cubeX, cubeY, cubeZ, Requirement.GENERATE);
+			}
+			return onCubeGenerated(getColumn(cubeX, cubeZ, Requirement.GENERATE), cubeY, primer);
+		}, serverThread);
+	}
+
+	private static boolean isDone(@Nullable Cube cube, @Nonnull Requirement req) {
+		if (cube == null) {
+			return false;
+		}
+		switch (req) {
+			case POPULATE:
+				return cube.isFullyPopulated();
+			case LIGHT:
+				return cube.isFullyPopulated() && cube.isInitialLightingDone();
+			default:
+				return true;
+		}
+	}
+
+	/**
+	 * Save the cubes and columns due for a rolling save, then run the server thread part of asynchronous cube
+	 * requests, each until its time budget for this tick runs out
+	 */
+	public void tick() {
+		CubicChunks.Config config = CubicChunks.getConfig();
+		if (config.getRollingSaveWindow() > 0) {
+			worldServer.getProfiler().startSection("rollingSave");
+			saveModified(worldServer.getTotalWorldTime() - config.getRollingSaveWindow(),
+				System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.getRollingSaveTickBudget()));
+			worldServer.getProfiler().endSection();
+		}
+
+		long stopTime = System.nanoTime() + SERVER_THREAD_TASK_BUDGET;
+		Runnable task;
+		while (System.nanoTime() < stopTime && (task = serverThreadTasks.poll()) != null) {
+			task.run();
 		}
 	}
 
@@ -282,6 +623,26 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 		return postCubeLoadAttempt(cubeX, cubeY, cubeZ, cube, column, req);
 	}
 
+	@Override
+	public void loadCubes(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+		List<CubePos> toLoad = new ArrayList<>();
+		for (int x = minX; x <= maxX; x++) {
+			for (int z = minZ; z <= maxZ; z++) {
+				for (int y = minY; y <= maxY; y++) {
+					if (getLoadedCube(x, y, z) == null) {
+						toLoad.add(new CubePos(x, y, z));
+					}
+				}
+			}
+		}
+		if (toLoad.isEmpty()) {
+			return;
+		}
+		for (Cube cube : AsyncWorldIOExecutor.syncCubesLoad(worldServer, cubeIO, this, toLoad).values()) {
+			onCubeLoaded(cube, cube.getColumn());
+		}
+	}
+
 	/**
 	 * After successfully loading a cube, add it to it's column and the lookup table
 	 *
@@ -298,10 +659,31 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 			if (!column.getLoadedCubes().contains(cube)) {
 				column.addCube(cube);
 				cube.onLoad(); // init the Cube
+				cubeMemory += CUBE_MEMORY + (cube.getStorage() != null ? STORAGE_MEMORY : 0);
+				if (cube.needsSaving()) {
+					onCubeModified(cube); // generated cubes are modified before they are loaded
+				}
+				cube.getTickets().setOnEmpty(() -> addUnloadCandidate(cube));
+				if (cube.getTickets().canUnload()) {
+					addUnloadCandidate(cube); // nothing may ever request it, let ChunkGc unload it eventually
+				}
 			}
 		}
 	}
 
+	/**
+	 * Called by a loaded cube when it becomes modified, so that saveChunks doesn't have to check all loaded cubes
+	 *
+	 * @param cube the modified cube
+	 */
+	public void onCubeModified(Cube cube) {
+		long address = AddressTools.getAddress(cube.getX(), cube.getY(), cube.getZ());
+		if (modifiedCubes.add(address)) {
+			modifiedCubeQueue.addLast(address);
+			modifiedCubeTimes.addLast(worldServer.getTotalWorldTime());
+		}
+	}
+
 	/**
 	 * Process a recently loaded cube as per the specified effort level.
 	 *
@@ -358,7 +740,119 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 	 */
 	@Nonnull
 	private Cube generateCube(int cubeX, int cubeY, int cubeZ, @Nonnull Column column) {
-		ICubePrimer primer = cubeGen.generateCube(cubeX, cubeY, cubeZ);
+		return onCubeGenerated(column, cubeY, cubeGen.generateCube(cubeX, cubeY, cubeZ));
+	}
+
+	/**
+	 * Retrieve all given cubes, doing the work specified by {@code req} on each of them. Cubes that already exist are
+	 * loaded in one batch, and all cubes that have to be generated (including the neighbours needed to populate and
+	 * light the given cubes) are generated in parallel on the generator threads if the generator supports it.
+	 * Population and lighting are then done on this thread.
+	 *
+	 * @param positions the cubes to retrieve
+	 * @param req Work done on the cubes
+	 */
+	public void generateCubes(@Nonnull Collection<CubePos> positions, @Nonnull Requirement req) {
+		generateMissingCubes(positions);
+		if (req.compareTo(Requirement.GENERATE) <= 0) {
+			return;
+		}
+		// everything populate() and diffuseSkylight() will touch, so that they never generate cubes one by one
+		Set<CubePos> neighbours = new HashSet<>();
+		for (CubePos pos : positions) {
+			Cube cube = getLoadedCube(pos);
+			if (cube == null) {
+				continue;
+			}
+			if (!cube.isFullyPopulated()) {
+				cubeGen.getPopulationRequirement(cube).forEachPoint((x, y, z) ->
+					neighbours.add(new CubePos(x + pos.getX(), y + pos.getY(), z + pos.getZ())));
+			}
+			if (req == Requirement.LIGHT && !cube.isInitialLightingDone()) {
+				for (int dx = -2; dx <= 2; dx++) {
+					for (int dy = -2; dy <= 2; dy++) {
+						for (int dz = -2; dz <= 2; dz++) {
+							neighbours.add(new CubePos(pos.getX() + dx, pos.getY() + dy, pos.getZ() + dz));
+						}
+					}
+				}
+			}
+		}
+		generateMissingCubes(neighbours);
+		// populating the cubes in the population requirements writes to cubes around them
+		Set<CubePos> populationTargets = new HashSet<>();
+		for (CubePos pos : positions) {
+			Cube cube = getLoadedCube(pos);
+			if (cube != null && !cube.isFullyPopulated()) {
+				addPopulationTargets(cube, populationTargets);
+			}
+		}
+		generateMissingCubes(populationTargets);
+		for (CubePos pos : positions) {
+			getCube(pos.getX(), pos.getY(), pos.getZ(), req);
+		}
+	}
+
+	/**
+	 * Load or generate the given cubes if they aren't loaded. Generation is done on the generator threads when the
+	 * generator supports it.
+	 *
+	 * @param positions the cubes to load or generate
+	 */
+	private void generateMissingCubes(@Nonnull Collection<CubePos> positions) {
+		List<CubePos> missing = new ArrayList<>();
+		for (CubePos pos : positions) {
+			if (getLoadedCube(pos) == null) {
+				missing.add(pos);
+			}
+		}
+		if (missing.isEmpty()) {
+			return;
+		}
+		for (Cube cube : AsyncWorldIOExecutor.syncCubesLoad(worldServer, cubeIO, this, missing).values()) {
+			onCubeLoaded(cube, cube.getColumn());
+		}
+
+		// start all tasks before waiting for any of them
+		Map<CubePos, Future<ICubePrimer>> generating = new HashMap<>();
+		for (CubePos pos : missing) {
+			if (getLoadedCube(pos) != null) {
+				continue;
+			}
+			Column column = getColumn(pos.getX(), pos.getZ(), Requirement.GENERATE);
+			Callable<ICubePrimer> task = cubeGen.prepareCube(pos.getX(), pos.getY(), pos.getZ());
+			if (task == null) {
+				generateCube(pos.getX(), pos.getY(), pos.getZ(), column);
+			} else {
+				generating.put(pos, CubeGeneratorExecutor.submit(task));
+			}
+		}
+		for (Map.Entry<CubePos, Future<ICubePrimer>> entry : generating.entrySet()) {
+			CubePos pos = entry.getKey();
+			ICubePrimer primer;
+			try {
+				primer = entry.getValue().get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while generating cube " + pos, e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Exception generating cube " + pos, e.getCause());
+			}
+			onCubeGenerated(getColumn(pos.getX(), pos.getZ(), Requirement.GENERATE), pos.getY(), primer);
+		}
+	}
+
+	/**
+	 * Create a cube from generated blocks, and add it to the world
+	 *
+	 * @param column Column of the cube
+	 * @param cubeY Cube y position
+	 * @param primer The generated blocks
+	 *
+	 * @return The generated cube
+	 */
+	@Nonnull
+	private Cube onCubeGenerated(@Nonnull Column column, int cubeY, @Nonnull ICubePrimer primer) {
 		Cube cube = new Cube(column, cubeY, primer);
 
 		this.worldServer.getFirstLightProcessor()
@@ -377,7 +871,16 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 		int cubeY = cube.getY();
 		int cubeZ = cube.getZ();
 
-		cubeGen.getPopulationRequirement(cube).forEachPoint((x, y, z) -> {
+		Box requirement = cubeGen.getPopulationRequirement(cube);
+		List<CubePos> required = new ArrayList<>();
+		requirement.forEachPoint((x, y, z) -> required.add(new CubePos(x + cubeX, y + cubeY, z + cubeZ)));
+		generateMissingCubes(required);
+		// populating them writes to cubes around them, generate those in one batch too
+		Set<CubePos> targets = new HashSet<>();
+		addPopulationTargets(cube, targets);
+		generateMissingCubes(targets);
+
+		requirement.forEachPoint((x, y, z) -> {
 			Cube popcube = getCube(x + cubeX, y + cubeY, z + cubeZ);
 			if (!popcube.isPopulated()) {
 				cubeGen.populate(popcube);
@@ -397,15 +900,17 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 		int cubeY = cube.getY();
 		int cubeZ = cube.getZ();
 
+		List<CubePos> required = new ArrayList<>();
 		for (int x = -2; x <= 2; x++) {
 			for (int z = -2; z <= 2; z++) {
 				for (int y = 2; y >= -2; y--) {
 					if (x != 0 || y != 0 || z != 0) {
-						getCube(x + cubeX, y + cubeY, z + cubeZ);
+						required.add(new CubePos(x + cubeX, y + cubeY, z + cubeZ));
 					}
 				}
 			}
 		}
+		generateMissingCubes(required);
 		this.worldServer.getFirstLightProcessor().diffuseSkylight(cube);
 	}
 
@@ -466,6 +971,7 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 			id2ChunkMap.put(ChunkPos.asLong(columnX, columnZ), column);
 			column.setLastSaveTime(this.worldServer.getTotalWorldTime()); // the column was just loaded
 			column.onChunkLoad();
+			onColumnLoaded(column);
 			return column;
 		} else if (req == Requirement.LOAD) {
 			return null;
@@ -477,9 +983,18 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 		id2ChunkMap.put(ChunkPos.asLong(columnX, columnZ), column);
 		column.setLastSaveTime(this.worldServer.getTotalWorldTime()); // the column was just generated
 		column.onChunkLoad();
+		onColumnLoaded(column);
 		return column;
 	}
 
+	private void onColumnLoaded(Column column) {
+		column.setListener(columnListener);
+		if (column.needsSaving(true)) {
+			modifiedColumns.put(column, worldServer.getTotalWorldTime());
+		}
+		addUnloadCandidate(column); // it has no cubes yet
+	}
+
 	public String dumpLoadedCubes() {
 		StringBuilder sb = new StringBuilder(10000).append("\n");
 		for (Chunk chunk : this.id2ChunkMap.values()) {
@@ -510,22 +1025,191 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 		this.cubeIO.flush();
 	}
 
+	public int getLoadedCubeCount() {
+		return cubeMap.getSize();
+	}
+
+	public CubeDataCache.Stats getCubeCacheStats() {
+		return this.cubeIO.getCacheStats();
+	}
+
 	Iterator<Cube> cubesIterator() {
 		return cubeMap.iterator();
 	}
 
-	@SuppressWarnings("unchecked")
-	Iterator<Column> columnsIterator() {
-		return (Iterator<Column>) (Object) id2ChunkMap.values().iterator();
+	/**
+	 * Unload all loaded columns without loaded cubes
+	 */
+	void unloadEmptyColumns() {
+		for (Column column : new ArrayList<>(columnUnloadCandidates.keySet())) {
+			unloadColumn(column);
+		}
+	}
+
+	private void addUnloadCandidate(Cube cube) {
+		// re-inserting moves it to the end, so the map stays ordered by time
+		cubeUnloadCandidates.remove(cube);
+		cubeUnloadCandidates.put(cube, worldServer.getTotalWorldTime());
+	}
+
+	private void addUnloadCandidate(Column column) {
+		columnUnloadCandidates.remove(column);
+		columnUnloadCandidates.put(column, worldServer.getTotalWorldTime());
+	}
+
+	/**
+	 * Unload cubes and columns that have been unused for at least {@code unloadDelay} ticks, oldest first, until
+	 * there are none left or the time runs out. Columns become unused when their last cube is unloaded.
+	 *
+	 * @param unloadDelay minimum number of ticks since a cube or column became unused
+	 * @param stopTime {@link System#nanoTime()} at which to stop
+	 */
+	void unloadUnused(long unloadDelay, long stopTime) {
+		long maxTime = worldServer.getTotalWorldTime() - unloadDelay;
+		while (!cubeUnloadCandidates.isEmpty() && System.nanoTime() < stopTime) {
+			Iterator<Map.Entry<Cube, Long>> it = cubeUnloadCandidates.entrySet().iterator();
+			Map.Entry<Cube, Long> candidate = it.next();
+			if (candidate.getValue() > maxTime) {
+				break;
+			}
+			it.remove();
+			unloadCube(candidate.getKey());
+		}
+		while (!columnUnloadCandidates.isEmpty() && System.nanoTime() < stopTime) {
+			Iterator<Map.Entry<Column, Long>> it = columnUnloadCandidates.entrySet().iterator();
+			Map.Entry<Column, Long> candidate = it.next();
+			if (candidate.getValue() > maxTime) {
+				break;
+			}
+			it.remove();
+			// a column with cubes becomes a candidate again when the last of them is unloaded, see columnListener
+			unloadColumn(candidate.getKey());
+		}
+	}
+
+	/**
+	 * Order the current unload candidates farthest from players first, for {@link #unloadUnusedFarthest}. Cubes that
+	 * become unload candidates later aren't included until this is called again.
+	 */
+	void sortUnloadCandidatesByDistance() {
+		List<EntityPlayer> players = ((WorldServer) worldServer).playerEntities;
+		Map<Cube, Long> distances = new IdentityHashMap<>();
+		for (Cube cube : cubeUnloadCandidates.keySet()) {
+			long minDistSq = Long.MAX_VALUE;
+			for (EntityPlayer player : players) {
+				long dx = cube.getX() - Coords.getCubeXForEntity(player);
+				long dy = cube.getY() - Coords.getCubeYForEntity(player);
+				long dz = cube.getZ() - Coords.getCubeZForEntity(player);
+				minDistSq = Math.min(minDistSq, dx*dx + dy*dy + dz*dz);
+			}
+			distances.put(cube, minDistSq);
+		}
+		// the sort is stable, so cubes at the same distance stay least recently used first
+		List<Cube> candidates = new ArrayList<>(cubeUnloadCandidates.keySet());
+		candidates.sort(Comparator.comparing(distances::get, Comparator.reverseOrder()));
+		farthestUnloadCandidates.clear();
+		farthestUnloadCandidates.addAll(candidates);
+	}
+
+	/**
+	 * Forget the order from {@link #sortUnloadCandidatesByDistance}, so that it doesn't keep unloaded cubes around
+	 */
+	void clearUnloadCandidatesByDistance() {
+		farthestUnloadCandidates.clear();
+	}
+
+	/**
+	 * Unload unused cubes farthest from players first, regardless of the unload delay, until the estimated memory of
+	 * the unloaded cubes reaches {@code bytesToFree} or the time runs out. Columns left empty are unloaded too. The
+	 * order is the one from the last {@link #sortUnloadCandidatesByDistance} call, and it's consumed as cubes are
+	 * unloaded.
+	 *
+	 * @param bytesToFree estimated number of bytes to free
+	 * @param stopTime {@link System#nanoTime()} at which to stop
+	 *
+	 * @return estimated number of bytes freed
+	 */
+	long unloadUnusedFarthest(long bytesToFree, long stopTime) {
+		long freed = 0;
+		while (freed < bytesToFree && !farthestUnloadCandidates.isEmpty() && System.nanoTime() < stopTime) {
+			Cube cube = farthestUnloadCandidates.poll();
+			if (!cubeUnloadCandidates.containsKey(cube)) {
+				continue; // unloaded, or found to be in use, since it was sorted
+			}
+			long size = estimateMemory(cube);
+			if (!unloadCube(cube)) {
+				continue;
+			}
+			freed += size;
+			unloadColumn(cube.getColumn());
+		}
+		return freed;
+	}
+
+	/**
+	 * Called by a loaded cube when it allocates or drops its block storage
+	 *
+	 * @param allocated {@code true} if the storage was allocated, {@code false} if it was dropped
+	 */
+	public void onCubeStorageChanged(boolean allocated) {
+		cubeMemory += allocated ? STORAGE_MEMORY : -STORAGE_MEMORY;
+	}
+
+	/**
+	 * @return rough estimate of the memory used by all loaded cubes, in bytes
+	 */
+	long estimateCubeMemory() {
+		// all loaded entities and tile entities are in loaded cubes
+		WorldServer world = (WorldServer) worldServer;
+		return cubeMemory + (world.loadedEntityList.size() + world.loadedTileEntityList.size())*(long) ENTITY_MEMORY;
+	}
+
+	private static long estimateMemory(Cube cube) {
+		long size = CUBE_MEMORY;
+		if (cube.getStorage() != null) {
+			size += STORAGE_MEMORY;
+		}
+		size += cube.getEntityContainer().getEntitySet().size()*ENTITY_MEMORY;
+		size += cube.getTileEntityMap().size()*ENTITY_MEMORY;
+		return size;
+	}
+
+	/**
+	 * Unload a cube if it's still loaded and has no tickets
+	 *
+	 * @param cube the cube to unload
+	 *
+	 * @return {@code true} if the cube was unloaded
+	 */
+	private boolean unloadCube(Cube cube) {
+		// it may have been unloaded already, or it may have a ticket again
+		if (getLoadedCube(cube.getX(), cube.getY(), cube.getZ()) != cube || !tryUnloadCube(cube)) {
+			return false;
+		}
+		cubeMap.remove(cube);
+		return true;
+	}
+
+	/**
+	 * Unload a column if it's still loaded and has no loaded cubes
+	 *
+	 * @param column the column to unload
+	 */
+	private void unloadColumn(Column column) {
+		if (getLoadedColumn(column.getX(), column.getZ()) == column && tryUnloadColumn(column)) {
+			id2ChunkMap.remove(ChunkPos.asLong(column.getX(), column.getZ()));
+		}
 	}
 
 	boolean tryUnloadCube(Cube cube) {
 		if (!cube.getTickets().canUnload()) {
 			return false; // There are tickets
 		}
+		cubeUnloadCandidates.remove(cube);
 
 		// unload the Cube!
 		cube.onUnload();
+		cubeMemory -= CUBE_MEMORY + (cube.getStorage() != null ? STORAGE_MEMORY : 0);
 
 		if (cube.needsSaving()) { // save the Cube, if it needs saving
 			this.cubeIO.saveCube(cube);
@@ -535,19 +1219,50 @@ public class CubeProviderServer extends ChunkProviderServer implements ICubeProv
 		return true;
 	}
 
-	boolean tryUnloadColumn(Column column) {
+	private boolean tryUnloadColumn(Column column) {
 		if (column.hasLoadedCubes()) {
 			return false; // It has loaded Cubes in it
 			// (Cubes are to Columns, as tickets are to Cubes... in a way)
 		}
+		columnUnloadCandidates.remove(column);
+		modifiedColumns.remove(column);
+		column.setListener(null);
 		column.unloaded = true; // flag as unloaded (idk, maybe vanilla uses this somewhere)
 
 		// unload the Column!
 		column.onChunkUnload();
+		cubeGen.onColumnUnload(column);
 
 		if (column.needsSaving(true)) { // save the Column, if it needs saving
 			this.cubeIO.saveColumn(column);
 		}
 		return true;
 	}
+
+	/**
+	 * Held by an asynchronous stage on every cube it depends on, so that they aren't unloaded before the part of the
+	 * stage that runs on the server thread uses them. Only used on the server thread.
+	 */
+	private static class StageTicket implements ITicket {
+		private final List<Cube> cubes = new ArrayList<>();
+
+		@Nullable Cube hold(@Nullable Cube cube) {
+			if (cube != null && !cube.getTickets().contains(this)) {
+				cube.getTickets().add(this);
+				cubes.add(cube);
+			}
+			return cube;
+		}
+
+		void release() {
+			for (Cube cube : cubes) {
+				cube.getTickets().remove(this);
+			}
+			cubes.clear();
+		}
+
+		@Override public boolean shouldTick() {
+			return false;
+		}
+	}
 }
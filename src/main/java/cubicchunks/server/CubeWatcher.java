@@ -41,6 +41,7 @@ import net.minecraftforge.fml.common.network.simpleimpl.IMessage;
 
 import java.util.function.Consumer;
 
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 import cubicchunks.CubicChunks;
@@ -67,6 +68,7 @@ public class CubeWatcher implements XYZAddressable, ITicket {
 		if (this.cube != null) {
 			this.cube.getTickets().add(this);
 		}
+		this.playerCubeMap.onCubeWatcherReady(this);
 	};
 	private final CubeProviderServer cubeCache;
 	private PlayerCubeMap playerCubeMap;
@@ -77,6 +79,7 @@ public class CubeWatcher implements XYZAddressable, ITicket {
 	private long previousWorldTime = 0;
 	private boolean sentToPlayers = false;
 	private boolean loading = true;
+	private boolean generating = false;
 
 	// CHECKED: 1.10.2-12.18.1.2092
 	public CubeWatcher(PlayerCubeMap playerCubeMap, CubePos cubePos) {
@@ -119,7 +122,7 @@ public class CubeWatcher implements XYZAddressable, ITicket {
 				if (loading) {
 					AsyncWorldIOExecutor.dropQueuedCubeLoad(this.playerCubeMap.getWorld(),
 						cubePos.getX(), cubePos.getY(), cubePos.getZ(),
-						c -> this.cube = c);
+						consumer);
 				}
 				playerCubeMap.removeEntry(this);
 			}
@@ -153,10 +156,15 @@ public class CubeWatcher implements XYZAddressable, ITicket {
 
 		playerCubeMap.getWorld().getProfiler().startSection("getCube");
 		if (canGenerate) {
-			this.cube = this.cubeCache.getCube(cubeX, cubeY, cubeZ, IProviderExtras.Requirement.LIGHT);
-		} else {
-			this.cube = this.cubeCache.getCube(cubeX, cubeY, cubeZ, IProviderExtras.Requirement.LOAD);
+			// generated, populated and lit without blocking, the next call after that succeeds
+			if (!generating) {
+				generating = true;
+				this.cubeCache.getCubeAsync(cubeX, cubeY, cubeZ, IProviderExtras.Requirement.LIGHT).whenComplete(this::onCubeGenerated);
+			}
+			playerCubeMap.getWorld().getProfiler().endSection();
+			return this.cube != null && this.cube.isFullyPopulated() && this.cube.isInitialLightingDone();
 		}
+		this.cube = this.cubeCache.getCube(cubeX, cubeY, cubeZ, IProviderExtras.Requirement.LOAD);
 		if (this.cube != null) {
 			this.cube.getTickets().add(this);
 		}
@@ -165,6 +173,25 @@ public class CubeWatcher implements XYZAddressable, ITicket {
 		return this.cube != null;
 	}
 
+	private void onCubeGenerated(@Nullable Cube generated, @Nullable Throwable error) {
+		generating = false;
+		if (error != null) {
+			CubicChunks.LOGGER.error("Failed to generate cube at " + cubePos, error);
+		} else if (generated != null && playerCubeMap.getCubeWatcher(cubePos) == this) {
+			// don't keep the cube loaded if this watcher has been removed in the meantime
+			this.cube = generated;
+			this.cube.getTickets().add(this);
+		}
+		playerCubeMap.onCubeWatcherReady(this);
+	}
+
+	/**
+	 * @return {@code true} if the cube is still being loaded or generated asynchronously
+	 */
+	boolean isWaitingForCube() {
+		return loading || generating;
+	}
+
 	public boolean isSentToPlayers() {
 		return sentToPlayers;
 	}
@@ -25,10 +25,11 @@ package cubicchunks.server;
 
 import com.google.common.base.Predicate;
 import com.google.common.collect.AbstractIterator;
-import com.google.common.collect.ComparisonChain;
 
 import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.TObjectDoubleMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TObjectDoubleHashMap;
 
 import net.minecraft.entity.player.EntityPlayerMP;
 import net.minecraft.server.management.PlayerChunkMap;
@@ -40,8 +41,6 @@ import net.minecraft.world.WorldServer;
 import net.minecraft.world.chunk.Chunk;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -52,6 +51,7 @@ import javax.annotation.Nonnull;
 import cubicchunks.CubicChunks;
 import cubicchunks.IConfigUpdateListener;
 import cubicchunks.util.CubePos;
+import cubicchunks.util.IndexedHeap;
 import cubicchunks.util.XYZMap;
 import cubicchunks.util.XZMap;
 import cubicchunks.visibility.CubeSelector;
@@ -74,24 +74,6 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
 	private static final Predicate<EntityPlayerMP> CAN_GENERATE_CHUNKS = player -> player != null &&
 		(!player.isSpectator() || player.getServerWorld().getGameRules().getBoolean("spectatorsGenerateChunks"));
 
-	/**
-	 * Comparator that specifies order in which cubes will be generated and sent to clients
-	 */
-	private static final Comparator<CubeWatcher> CUBE_ORDER = (watcher1, watcher2) ->
-		ComparisonChain.start().compare(
-			watcher1.getClosestPlayerDistance(),
-			watcher2.getClosestPlayerDistance()
-		).result();
-
-	/**
-	 * Comparator that specifies order in which columns will be generated and sent to clients
-	 */
-	private static final Comparator<ColumnWatcher> COLUMN_ORDER = (watcher1, watcher2) ->
-		ComparisonChain.start().compare(
-			watcher1.getClosestPlayerDistance(),
-			watcher2.getClosestPlayerDistance()
-		).result();
-
 	/**
 	 * Cube selector is used to find which cube positions need to be loaded/unloaded
 	 * By default use CuboidalCubeSelector.
@@ -126,33 +108,41 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
 	 * Contains all CubeWatchers that need to be sent to clients,
 	 * but these cubes are not fully loaded/generated yet.
 	 * <p>
-	 * Note that this is not the same as cubesToGenerate list.
+	 * Note that this is not the same as cubesToGenerate.
 	 * Cube can be loaded while not being fully generated yet (not in the last GeneratorStageRegistry stage).
+	 * Ordered by the distance to the closest player, as of the last reprioritization.
 	 */
-	private final List<CubeWatcher> cubesToSendToClients = new ArrayList<>();
+	private final IndexedHeap<CubeWatcher> cubesToSendToClients = new IndexedHeap<>();
 
 	/**
 	 * Contains all CubeWatchers that still need to be loaded/generated.
 	 * CubeWatcher constructor attempts to load cube from disk, but it won't generate it.
 	 * Technically it can generate it, using the world's IGeneratorPipeline,
 	 * but spectator players can't generate chunks if spectatorsGenerateChunks gamerule is set.
+	 * Ordered by the distance to the closest player, as of the last reprioritization.
 	 */
-	private final List<CubeWatcher> cubesToGenerate = new ArrayList<>();
+	private final IndexedHeap<CubeWatcher> cubesToGenerate = new IndexedHeap<>();
+
+	/**
+	 * Contains CubeWatchers taken out of cubesToGenerate while their cube is loaded or generated asynchronously.
+	 * They are put back by onCubeWatcherReady when that finishes, so they aren't polled every tick in the meantime.
+	 */
+	private final Set<CubeWatcher> cubesWaitingForCube = new HashSet<>();
 
 	/**
 	 * Contains all ColumnWatchers that need to be sent to clients,
 	 * but these cubes are not fully loaded/generated yet.
 	 * <p>
-	 * Note that this is not the same as columnsToGenerate list.
+	 * Note that this is not the same as columnsToGenerate.
 	 * Columns can be loaded while not being fully generated yet
 	 */
-	private final List<ColumnWatcher> columnsToSendToClients = new ArrayList<>();
+	private final IndexedHeap<ColumnWatcher> columnsToSendToClients = new IndexedHeap<>();
 
 	/**
 	 * Contains all ColumnWatchers that still need to be loaded/generated.
 	 * ColumnWatcher constructor attempts to load column from disk, but it won't generate it.
 	 */
-	private final List<ColumnWatcher> columnsToGenerate = new ArrayList<>();
+	private final IndexedHeap<ColumnWatcher> columnsToGenerate = new IndexedHeap<>();
 
 	private int horizontalViewDistance;
 	private int verticalViewDistance;
@@ -163,8 +153,15 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
 	 */
 	private long previousWorldTime = 0;
 
-	private boolean toGenerateNeedSort = true;
-	private boolean toSendToClientNeedSort = true;
+	/**
+	 * Players that moved or started watching new cubes since the last reprioritization.
+	 * Only watchers of these players need their distance to the closest player updated.
+	 */
+	private final Set<EntityPlayerMP> movedPlayers = new HashSet<>();
+	/**
+	 * Set when the distances of all watchers may have changed, for example when a player was removed
+	 */
+	private boolean reprioritizeAll = false;
 
 	private CubeProviderServer cubeCache;
 
@@ -238,27 +235,29 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
 		}
 		this.cubeWatchersToUpdate.clear();
 
-		getWorld().getProfiler().endStartSection("sortToGenerate");
-		//sort toLoadPending if needed, but at most every 4 ticks
-		if (this.toGenerateNeedSort && currentTime%4L == 0L) {
-			this.toGenerateNeedSort = false;
-			Collections.sort(this.cubesToGenerate, CUBE_ORDER);
-			Collections.sort(this.columnsToGenerate, COLUMN_ORDER);
-		}
-		getWorld().getProfiler().endStartSection("sortToSend");
-		//sort cubesToSendToClients every other 4 ticks
-		if (this.toSendToClientNeedSort && currentTime%4L == 2L) {
-			this.toSendToClientNeedSort = false;
-			Collections.sort(this.cubesToSendToClients, CUBE_ORDER);
-			Collections.sort(this.columnsToSendToClients, COLUMN_ORDER);
+		getWorld().getProfiler().endStartSection("reprioritize");
+		//update distances of watchers near players that moved, but at most every 4 ticks
+		if ((this.reprioritizeAll || !this.movedPlayers.isEmpty()) && currentTime%4L == 0L) {
+			if (this.reprioritizeAll) {
+				this.cubesToGenerate.updatePriorities(watcher -> true, CubeWatcher::getClosestPlayerDistance);
+				this.cubesToSendToClients.updatePriorities(watcher -> true, CubeWatcher::getClosestPlayerDistance);
+				this.columnsToGenerate.updatePriorities(watcher -> true, ColumnWatcher::getClosestPlayerDistance);
+				this.columnsToSendToClients.updatePriorities(watcher -> true, ColumnWatcher::getClosestPlayerDistance);
+			} else {
+				for (EntityPlayerMP player : this.movedPlayers) {
+					reprioritizeAround(player);
+				}
+			}
+			this.reprioritizeAll = false;
+			this.movedPlayers.clear();
 		}
 
 		getWorld().getProfiler().endStartSection("generate");
 		if (!this.columnsToGenerate.isEmpty()) {
 			getWorld().getProfiler().startSection("columns");
-			Iterator<ColumnWatcher> iter = this.columnsToGenerate.iterator();
-			while (iter.hasNext()) {
-				ColumnWatcher entry = iter.next();
+			List<ColumnWatcher> notGenerated = new ArrayList<>();
+			while (!this.columnsToGenerate.isEmpty()) {
+				ColumnWatcher entry = this.columnsToGenerate.poll();
 
 				getWorld().getProfiler().startSection("column[" + entry.getPos().chunkXPos + "," + entry.getPos().chunkZPos + "]");
 				boolean success = entry.getColumn() != null;
@@ -270,15 +269,16 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
 				}
 
 				if (success) {
-					iter.remove();
-
 					if (entry.sentToPlayers()) {
 						this.columnsToSendToClients.remove(entry);
 					}
+				} else {
+					notGenerated.add(entry);
 				}
 
 				getWorld().getProfiler().endSection(); // column[x,z]
 			}
+			notGenerated.forEach(entry -> this.columnsToGenerate.add(entry, entry.getClosestPlayerDistance()));
 
 			getWorld().getProfiler().endSection(); // columns
 		}
@@ -287,12 +287,19 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
 
 			long stopTime = System.nanoTime() + 50000000L;
 			int chunksToGenerate = maxGeneratedCubesPerTick;
-			Iterator<CubeWatcher> iterator = this.cubesToGenerate.iterator();
+			TObjectDoubleMap<CubeWatcher> notGenerated = new TObjectDoubleHashMap<>();
 
-			while (iterator.hasNext() && chunksToGenerate >= 0 && System.nanoTime() < stopTime) {
-				CubeWatcher watcher = iterator.next();
+			while (!this.cubesToGenerate.isEmpty() && chunksToGenerate >= 0 && System.nanoTime() < stopTime) {
+				double priority = this.cubesToGenerate.peekPriority();
+				CubeWatcher watcher = this.cubesToGenerate.poll();
 				CubePos pos = watcher.getCubePos();
 
+				if (watcher.isWaitingForCube()) {
+					// onCubeWatcherReady puts it back once the cube is loaded or generated
+					this.cubesWaitingForCube.add(watcher);
+					continue;
+				}
+
 				getWorld().getProfiler().startSection("chunk=" + pos);
 
 				boolean success = watcher.getCube() != null && watcher.getCube().isFullyPopulated() && watcher.getCube().isInitialLightingDone();
@@ -304,46 +311,61 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
 				}
 
 				if (success) {
-					iterator.remove();
-
-					if (watcher.sendToPlayers()) {
-						this.cubesToSendToClients.remove(watcher);
+					if (!watcher.sendToPlayers()) {
+						this.cubesToSendToClients.add(watcher, priority);
 					}
 
 					--chunksToGenerate;
+				} else if (watcher.isWaitingForCube()) {
+					this.cubesWaitingForCube.add(watcher);
+					--chunksToGenerate;
+				} else {
+					notGenerated.put(watcher, priority);
 				}
 
 				getWorld().getProfiler().endSection();//chunk[x, y, z]
 			}
+			// keep the old priorities, they are updated when players move
+			notGenerated.forEachEntry((watcher, priority) -> {
+				this.cubesToGenerate.add(watcher, priority);
+				return true;
+			});
 
 			getWorld().getProfiler().endSection(); // chunks
 		}
 		getWorld().getProfiler().endStartSection("send");
 		if (!this.columnsToSendToClients.isEmpty()) {
 			getWorld().getProfiler().startSection("columns");
-			Iterator<ColumnWatcher> iter = this.columnsToSendToClients.iterator();
+			List<ColumnWatcher> notSent = new ArrayList<>();
 
-			while (iter.hasNext()) {
-				ColumnWatcher next = iter.next();
-				if (next.sentToPlayers()) {
-					iter.remove();
+			while (!this.columnsToSendToClients.isEmpty()) {
+				ColumnWatcher next = this.columnsToSendToClients.poll();
+				if (!next.sentToPlayers()) {
+					notSent.add(next);
 				}
 			}
+			notSent.forEach(entry -> this.columnsToSendToClients.add(entry, entry.getClosestPlayerDistance()));
 			getWorld().getProfiler().endSection(); // columns
 		}
 		if (!this.cubesToSendToClients.isEmpty()) {
 			getWorld().getProfiler().startSection("cubes");
 			int toSend = 81*8;//sending cubes, so send 8x more at once
-			Iterator<CubeWatcher> it = this.cubesToSendToClients.iterator();
+			TObjectDoubleMap<CubeWatcher> notSent = new TObjectDoubleHashMap<>();
 
-			while (it.hasNext() && toSend >= 0) {
-				CubeWatcher playerInstance = it.next();
+			while (!this.cubesToSendToClients.isEmpty() && toSend >= 0) {
+				double priority = this.cubesToSendToClients.peekPriority();
+				CubeWatcher playerInstance = this.cubesToSendToClients.poll();
 
 				if (playerInstance.sendToPlayers()) {
-					it.remove();
 					--toSend;
+				} else {
+					notSent.put(playerInstance, priority);
 				}
 			}
+			notSent.forEachEntry((watcher, priority) -> {
+				this.cubesToSendToClients.add(watcher, priority);
+				return true;
+			});
 			getWorld().getProfiler().endSection(); // cubes
 		}
 
@@ -375,7 +397,8 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
 	/**
 	 * Returns existing CubeWatcher or creates new one if it doesn't exist.
 	 * Attempts to load the cube and send it to client.
-	 * If it can't load it or send it to client - adds it to cubesToGenerate/cubesToSendToClients
+	 * If it can't load it or send it to client - adds it to cubesToGenerate/cubesToSendToClients,
+	 * to be prioritized once players are added to it
 	 */
 	private CubeWatcher getOrCreateCubeWatcher(CubePos cubePos) {
 		CubeWatcher cubeWatcher = this.cubeWatchers.get(cubePos.getX(), cubePos.getY(), cubePos.getZ());
@@ -389,10 +412,10 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
 			if (cubeWatcher.getCube() == null ||
 				!cubeWatcher.getCube().isFullyPopulated() ||
 				!cubeWatcher.getCube().isInitialLightingDone()) {
-				this.cubesToGenerate.add(cubeWatcher);
-			}
-			if (!cubeWatcher.isSentToPlayers()) {
-				this.cubesToSendToClients.add(cubeWatcher);
+				// the generate loop adds it to cubesToSendToClients once the cube is ready
+				this.cubesToGenerate.add(cubeWatcher, cubeWatcher.getClosestPlayerDistance());
+			} else if (!cubeWatcher.isSentToPlayers()) {
+				this.cubesToSendToClients.add(cubeWatcher, cubeWatcher.getClosestPlayerDistance());
 			}
 		}
 		return cubeWatcher;
@@ -408,10 +431,10 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
 			columnWatcher = new ColumnWatcher(this, chunkPos);
 			this.columnWatchers.put(columnWatcher);
 			if (columnWatcher.getColumn() == null) {
-				this.columnsToGenerate.add(columnWatcher);
+				this.columnsToGenerate.add(columnWatcher, columnWatcher.getClosestPlayerDistance());
 			}
 			if (!columnWatcher.isSentToPlayers()) {
-				this.columnsToSendToClients.add(columnWatcher);
+				this.columnsToSendToClients.add(columnWatcher, columnWatcher.getClosestPlayerDistance());
 			}
 		}
 		return columnWatcher;
@@ -452,7 +475,7 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
 			cubeWatcher.addPlayer(player);
 		});
 		this.players.put(player.getEntityId(), playerWrapper);
-		this.setNeedSort();
+		this.movedPlayers.add(player);
 	}
 
 	// CHECKED: 1.10.2-12.18.1.2092
@@ -484,7 +507,8 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
 			}
 		});
 		this.players.remove(player.getEntityId());
-		this.setNeedSort();
+		this.movedPlayers.remove(player);
+		this.reprioritizeAll = true;
 	}
 
 	// CHECKED: 1.10.2-12.18.1.2092
@@ -504,7 +528,7 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
 
 		this.updatePlayer(playerWrapper, playerWrapper.getManagedCubePos(), CubePos.fromEntity(player));
 		playerWrapper.updateManagedPos();
-		this.setNeedSort();
+		this.movedPlayers.add(player);
 	}
 
 	private void updatePlayer(PlayerWrapper entry, CubePos oldPos, CubePos newPos) {
@@ -537,6 +561,8 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
 			if (cubeWatcher != null) {
 				assert cubeWatcher.getCubePos().equals(pos);
 				cubeWatcher.removePlayer(entry.playerEntity);
+				// the player isn't in it anymore, so it won't be reprioritized with the player's other watchers
+				reprioritize(cubeWatcher);
 			}
 		});
 		getWorld().getProfiler().endStartSection("removeColumns");
@@ -545,6 +571,7 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
 			if (columnWatcher != null) {
 				assert columnWatcher.getPos().equals(pos);
 				columnWatcher.removePlayer(entry.playerEntity);
+				reprioritize(columnWatcher);
 			}
 		});
 		getWorld().getProfiler().endSection();//removeColumns
@@ -640,12 +667,62 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
 
 		this.horizontalViewDistance = newHorizontalViewDistance;
 		this.verticalViewDistance = newVerticalViewDistance;
-		this.setNeedSort();
+		this.reprioritizeAll = true;
+	}
+
+	/**
+	 * Update the priorities of the watchers the player is watching, which are the only ones whose distance to the
+	 * closest player may have changed when that player moved
+	 */
+	private void reprioritizeAround(EntityPlayerMP player) {
+		PlayerWrapper playerWrapper = this.players.get(player.getEntityId());
+		if (playerWrapper == null) {
+			return;
+		}
+		CubePos playerPos = playerWrapper.getManagedCubePos();
+		this.cubeSelector.forAllVisibleFrom(playerPos, horizontalViewDistance, verticalViewDistance, (currentPos) -> {
+			CubeWatcher cubeWatcher = this.getCubeWatcher(currentPos);
+			if (cubeWatcher != null) {
+				reprioritize(cubeWatcher);
+			}
+			// every column is visible at the player's own cube height
+			if (currentPos.getY() == playerPos.getY()) {
+				ColumnWatcher columnWatcher = this.getColumnWatcher(currentPos.chunkPos());
+				if (columnWatcher != null) {
+					reprioritize(columnWatcher);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Called when a CubeWatcher finished loading or generating its cube asynchronously
+	 */
+	void onCubeWatcherReady(CubeWatcher cubeWatcher) {
+		if (this.cubesWaitingForCube.remove(cubeWatcher)) {
+			this.cubesToGenerate.add(cubeWatcher, cubeWatcher.getClosestPlayerDistance());
+		}
+	}
+
+	/**
+	 * Update the priority of a watcher right away, if it's waiting to be generated or sent
+	 */
+	private void reprioritize(CubeWatcher watcher) {
+		if (this.cubesToGenerate.contains(watcher)) {
+			this.cubesToGenerate.add(watcher, watcher.getClosestPlayerDistance());
+		}
+		if (this.cubesToSendToClients.contains(watcher)) {
+			this.cubesToSendToClients.add(watcher, watcher.getClosestPlayerDistance());
+		}
 	}
 
-	private void setNeedSort() {
-		this.toGenerateNeedSort = true;
-		this.toSendToClientNeedSort = true;
+	private void reprioritize(ColumnWatcher watcher) {
+		if (this.columnsToGenerate.contains(watcher)) {
+			this.columnsToGenerate.add(watcher, watcher.getClosestPlayerDistance());
+		}
+		if (this.columnsToSendToClients.contains(watcher)) {
+			this.columnsToSendToClients.add(watcher, watcher.getClosestPlayerDistance());
+		}
 	}
 
 	@Override
@@ -669,6 +746,7 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
 		this.cubeWatchers.remove(cubePos.getX(), cubePos.getY(), cubePos.getZ());
 		this.cubeWatchersToUpdate.remove(cubeWatcher);
 		this.cubesToGenerate.remove(cubeWatcher);
+		this.cubesWaitingForCube.remove(cubeWatcher);
 		this.cubesToSendToClients.remove(cubeWatcher);
 		if (cubeWatcher.getCube() != null) {
 			cubeWatcher.getCube().getTickets().remove(cubeWatcher); // remove the ticket, so this Cube can unload
@@ -681,8 +759,8 @@ public class PlayerCubeMap extends PlayerChunkMap implements IConfigUpdateListen
 		ChunkPos pos = entry.getPos();
 		entry.updateChunkInhabitedTime();
 		this.columnWatchers.remove(pos.chunkXPos, pos.chunkZPos);
-		this.columnsToGenerate.remove(pos);
-		this.columnsToSendToClients.remove(pos);
+		this.columnsToGenerate.remove(entry);
+		this.columnsToSendToClients.remove(entry);
 	}
 
 	public CubeWatcher getCubeWatcher(CubePos pos) {
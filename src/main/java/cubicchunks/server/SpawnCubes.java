@@ -115,6 +115,7 @@ public class SpawnCubes {
 
 			for (int cubeX = spawnCubeX - radius; cubeX <= spawnCubeX + radius; cubeX++) {
 				for (int cubeZ = spawnCubeZ - radius; cubeZ <= spawnCubeZ + radius; cubeZ++) {
+					serverCubeCache.loadCubes(cubeX, spawnCubeY - radius, cubeZ, cubeX, spawnCubeY + radius, cubeZ);
 					for (int cubeY = spawnCubeY + radius; cubeY >= spawnCubeY - radius; cubeY--) {
 						serverCubeCache.getCube(cubeX, cubeY, cubeZ, IProviderExtras.Requirement.LIGHT).getTickets().add(this);
 						generated++;
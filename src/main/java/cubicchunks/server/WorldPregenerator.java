@@ -0,0 +1,434 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server;
+
+import net.minecraft.command.ICommandSender;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.text.TextComponentString;
+import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.fml.common.FMLCommonHandler;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import cubicchunks.CubicChunks;
+import cubicchunks.util.CubePos;
+import cubicchunks.util.ticket.ITicket;
+import cubicchunks.world.ICubicWorldServer;
+import cubicchunks.world.IProviderExtras.Requirement;
+import cubicchunks.world.cube.Cube;
+
+/**
+ * Generates all cubes in a region ahead of time. Cubes are generated in batches from the server tick. When started
+ * with the system property, each batch is handed to {@link CubeProviderServer#generateCubes} so that terrain
+ * generation runs in parallel, and most of each tick is spent on it. Otherwise players are online, so the cubes are
+ * requested with {@link CubeProviderServer#getCubeAsync} and the work on the server thread stays within the time
+ * budget of the cube provider. The pregenerator is then a ticket on the cubes of the current batch, so that they stay
+ * loaded until the whole batch is done.
+ * <p>
+ * Can be started with the {@code /pregen} command, or when the server starts with the system property
+ * {@code cubicchunks.pregen=<dimension>,<x>,<y>,<z>,<radius>[,box|sphere[,generate|populate|light]]}, where x, y and z
+ * are block coordinates and the radius is in cubes. In that case the server is stopped when generation is done,
+ * unless {@code cubicchunks.pregen.exit} is {@code false}.
+ */
+public class WorldPregenerator implements ITicket {
+
+	public static final String PROPERTY = "cubicchunks.pregen";
+
+	// batches are BATCH_SIZE^3 cubes
+	private static final int BATCH_SIZE = 8;
+	// when more cubes are loaded than this, unload everything that isn't used
+	private static final int MAX_LOADED_CUBES = 16384;
+	private static final long TICK_BUDGET_MS = 25;
+	private static final long HEADLESS_TICK_BUDGET_MS = 1000;
+	private static final long REPORT_INTERVAL_MS = 5000;
+
+	@Nullable private static WorldPregenerator current;
+
+	@Nonnull private final ICubicWorldServer world;
+	@Nonnull private final ChunkGc chunkGc;
+	@Nullable private final ICommandSender sender;
+	private final int centerX, centerY, centerZ;
+	private final int radius;
+	@Nonnull private final Shape shape;
+	@Nonnull private final Requirement req;
+	private final boolean headless;
+
+	private final int batchesPerAxis;
+	private int batchX, batchY, batchZ;
+	// cubes of the current batch that are still being generated, when not headless
+	@Nonnull private final Map<CubePos, CompletableFuture<Cube>> pending = new HashMap<>();
+	// cubes of the current batch that are done, held until the rest of the batch is
+	@Nonnull private final List<Cube> held = new ArrayList<>();
+
+	private final long total;
+	private long done;
+	private long failed;
+	private final long startTime;
+	private long lastReport;
+
+	private WorldPregenerator(@Nonnull ICubicWorldServer world, @Nullable ICommandSender sender, int centerX, int centerY, int centerZ,
+		int radius, @Nonnull Shape shape, @Nonnull Requirement req, boolean headless) {
+		this.world = world;
+		this.chunkGc = new ChunkGc(world.getCubeCache());
+		this.sender = sender;
+		this.centerX = centerX;
+		this.centerY = centerY;
+		this.centerZ = centerZ;
+		this.radius = radius;
+		this.shape = shape;
+		this.req = req;
+		this.headless = headless;
+
+		this.batchesPerAxis = (radius*2 + BATCH_SIZE)/BATCH_SIZE;
+		this.total = shape.countCubes(radius);
+		this.startTime = System.currentTimeMillis();
+		this.lastReport = startTime;
+	}
+
+	/**
+	 * Start generating all cubes within {@code radius} cubes of the given cube. Only one region can be generated at a
+	 * time.
+	 *
+	 * @param world the world to generate cubes in
+	 * @param sender where progress is reported to, in addition to the log
+	 * @param center center of the region
+	 * @param radius radius of the region, in cubes
+	 * @param shape shape of the region
+	 * @param req work done on each cube
+	 *
+	 * @return <code>false</code> if a region is already being generated
+	 */
+	public static boolean start(@Nonnull ICubicWorldServer world, @Nullable ICommandSender sender, @Nonnull CubePos center, int radius,
+		@Nonnull Shape shape, @Nonnull Requirement req) {
+		return start(world, sender, center, radius, shape, req, false);
+	}
+
+	private static boolean start(@Nonnull ICubicWorldServer world, @Nullable ICommandSender sender, @Nonnull CubePos center, int radius,
+		@Nonnull Shape shape, @Nonnull Requirement req, boolean headless) {
+		if (current != null) {
+			return false;
+		}
+		current = new WorldPregenerator(world, sender, center.getX(), center.getY(), center.getZ(), radius, shape, req, headless);
+		current.report(String.format(Locale.ROOT, "Pregenerating %d cubes around %s (%s, radius %d, %s)",
+			current.total, center, shape.name().toLowerCase(Locale.ROOT), radius, req.name().toLowerCase(Locale.ROOT)));
+		return true;
+	}
+
+	/**
+	 * Stop generating the current region
+	 *
+	 * @return <code>false</code> if no region is being generated
+	 */
+	public static boolean stop() {
+		if (current == null) {
+			return false;
+		}
+		current.report("Pregeneration stopped. " + current.progress());
+		current.release();
+		current = null;
+		return true;
+	}
+
+	/**
+	 * @return progress of the current pregeneration, or <code>null</code> if no region is being generated
+	 */
+	@Nullable
+	public static String getStatus() {
+		return current == null ? null : current.progress();
+	}
+
+	/**
+	 * Start pregeneration as specified by the {@value PROPERTY} system property, if it is set.
+	 *
+	 * @param server the server that just started
+	 */
+	public static void startFromProperty(@Nonnull MinecraftServer server) {
+		String value = System.getProperty(PROPERTY);
+		if (value == null || value.isEmpty()) {
+			return;
+		}
+		String[] args = value.split(",");
+		try {
+			if (args.length < 5 || args.length > 7) {
+				throw new IllegalArgumentException("expected <dimension>,<x>,<y>,<z>,<radius>[,shape[,requirement]]");
+			}
+			int dimension = Integer.parseInt(args[0].trim());
+			CubePos center = CubePos.fromBlockCoords(
+				Integer.parseInt(args[1].trim()), Integer.parseInt(args[2].trim()), Integer.parseInt(args[3].trim()));
+			int radius = Integer.parseInt(args[4].trim());
+			Shape shape = args.length > 5 ? Shape.valueOf(args[5].trim().toUpperCase(Locale.ROOT)) : Shape.BOX;
+			Requirement req = args.length > 6 ? Requirement.valueOf(args[6].trim().toUpperCase(Locale.ROOT)) : Requirement.LIGHT;
+
+			if (req.compareTo(Requirement.GENERATE) < 0) {
+				throw new IllegalArgumentException("requirement must be generate, populate or light");
+			}
+			ICubicWorldServer world = (ICubicWorldServer) server.worldServerForDimension(dimension);
+			if (!world.isCubicWorld()) {
+				throw new IllegalArgumentException("dimension " + dimension + " is not a cubic chunks world");
+			}
+			start(world, null, center, radius, shape, req, true);
+		} catch (IllegalArgumentException e) {
+			CubicChunks.LOGGER.error("Invalid value of " + PROPERTY + ": \"" + value + "\", " + e.getMessage());
+		}
+	}
+
+	public static void registerListeners() {
+		MinecraftForge.EVENT_BUS.register(new Object() {
+
+			@SubscribeEvent
+			public void onServerTick(TickEvent.ServerTickEvent evt) {
+				if (evt.phase == TickEvent.Phase.END && current != null) {
+					current.tick();
+				}
+			}
+		});
+	}
+
+	private void tick() {
+		boolean finished = headless ? generateBatches() : requestBatch();
+
+		if (finished) {
+			chunkGc.chunkGc();
+		} else if (headless) {
+			unloadIfTooMany();
+		}
+
+		long time = System.currentTimeMillis();
+		if (finished) {
+			current = null;
+			report("Pregeneration done. Generated " + done + " cubes in " + formatTime(time - startTime) +
+				(failed > 0 ? ", " + failed + " cubes failed, see the log" : ""));
+			if (headless && Boolean.parseBoolean(System.getProperty(PROPERTY + ".exit", "true"))) {
+				FMLCommonHandler.instance().getMinecraftServerInstance().initiateShutdown();
+			}
+		} else if (time - lastReport >= REPORT_INTERVAL_MS) {
+			lastReport = time;
+			report(progress());
+		}
+	}
+
+	/**
+	 * Generate batches until the time budget of this tick runs out
+	 *
+	 * @return <code>true</code> if all cubes have been generated
+	 */
+	private boolean generateBatches() {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(HEADLESS_TICK_BUDGET_MS);
+		do {
+			List<CubePos> batch = nextBatch();
+			if (batch == null) {
+				return true;
+			}
+			if (!batch.isEmpty()) {
+				world.getCubeCache().generateCubes(batch, req);
+				done += batch.size();
+			}
+		} while (System.nanoTime() < deadline);
+		return false;
+	}
+
+	/**
+	 * Count the cubes of the current batch that are done, and request the next batch once all of them are
+	 *
+	 * @return <code>true</code> if all cubes have been generated
+	 */
+	private boolean requestBatch() {
+		Iterator<Map.Entry<CubePos, CompletableFuture<Cube>>> it = pending.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<CubePos, CompletableFuture<Cube>> entry = it.next();
+			CompletableFuture<Cube> future = entry.getValue();
+			if (!future.isDone()) {
+				continue;
+			}
+			it.remove();
+			if (!future.isCompletedExceptionally()) {
+				done++;
+				Cube cube = future.join();
+				if (cube != null) {
+					cube.getTickets().add(this);
+					held.add(cube);
+				}
+				continue;
+			}
+			failed++;
+			try {
+				future.join();
+			} catch (CompletionException | CancellationException e) {
+				CubicChunks.LOGGER.error("Could not pregenerate cube " + entry.getKey(), e.getCause() != null ? e.getCause() : e);
+			}
+		}
+		if (!pending.isEmpty()) {
+			return false;
+		}
+		// the whole batch is done, so its cubes don't have to stay loaded anymore
+		release();
+		unloadIfTooMany();
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TICK_BUDGET_MS);
+		// skip batches outside of the shape without waiting for the next tick
+		while (pending.isEmpty() && System.nanoTime() < deadline) {
+			List<CubePos> batch = nextBatch();
+			if (batch == null) {
+				return true;
+			}
+			for (CubePos pos : batch) {
+				pending.put(pos, world.getCubeCache().getCubeAsync(pos.getX(), pos.getY(), pos.getZ(), req));
+			}
+		}
+		return false;
+	}
+
+	private void unloadIfTooMany() {
+		if (world.getCubeCache().getLoadedCubeCount() > MAX_LOADED_CUBES) {
+			chunkGc.chunkGc();
+		}
+	}
+
+	private void release() {
+		for (Cube cube : held) {
+			cube.getTickets().remove(this);
+		}
+		held.clear();
+	}
+
+	@Override public boolean shouldTick() {
+		return false;
+	}
+
+	/**
+	 * @return the cubes of the next batch that are in the region, or <code>null</code> if there are no more batches
+	 */
+	@Nullable
+	private List<CubePos> nextBatch() {
+		if (batchX >= batchesPerAxis) {
+			return null;
+		}
+		int minX = centerX - radius + batchX*BATCH_SIZE;
+		int minY = centerY - radius + batchY*BATCH_SIZE;
+		int minZ = centerZ - radius + batchZ*BATCH_SIZE;
+		int maxX = Math.min(minX + BATCH_SIZE - 1, centerX + radius);
+		int maxY = Math.min(minY + BATCH_SIZE - 1, centerY + radius);
+		int maxZ = Math.min(minZ + BATCH_SIZE - 1, centerZ + radius);
+
+		List<CubePos> batch = new ArrayList<>(BATCH_SIZE*BATCH_SIZE*BATCH_SIZE);
+		for (int x = minX; x <= maxX; x++) {
+			for (int z = minZ; z <= maxZ; z++) {
+				for (int y = minY; y <= maxY; y++) {
+					if (shape.contains(x - centerX, y - centerY, z - centerZ, radius)) {
+						batch.add(new CubePos(x, y, z));
+					}
+				}
+			}
+		}
+		// y is the innermost axis so that population and lighting of the next batch can use the cubes of this one
+		if (++batchY >= batchesPerAxis) {
+			batchY = 0;
+			if (++batchZ >= batchesPerAxis) {
+				batchZ = 0;
+				batchX++;
+			}
+		}
+		return batch;
+	}
+
+	@Nonnull
+	private String progress() {
+		long elapsed = System.currentTimeMillis() - startTime;
+		double perSecond = elapsed == 0 ? 0 : done*1000.0/elapsed;
+		String eta = perSecond == 0 ? "unknown" : formatTime((long) ((total - done - failed)*1000/perSecond));
+		return String.format(Locale.ROOT, "Pregenerated %d/%d cubes (%.1f%%), %d failed, %.1f cubes/s, ETA %s",
+			done, total, total == 0 ? 100 : done*100.0/total, failed, perSecond, eta);
+	}
+
+	private void report(@Nonnull String message) {
+		CubicChunks.LOGGER.info(message);
+		if (sender != null) {
+			sender.addChatMessage(new TextComponentString(message));
+		}
+	}
+
+	@Nonnull
+	private static String formatTime(long millis) {
+		long seconds = millis/1000;
+		return String.format(Locale.ROOT, "%d:%02d:%02d", seconds/3600, seconds/60%60, seconds%60);
+	}
+
+	public enum Shape {
+		BOX {
+			@Override boolean contains(int dx, int dy, int dz, int radius) {
+				return true;
+			}
+
+			@Override long countCubes(int radius) {
+				long size = radius*2L + 1;
+				return size*size*size;
+			}
+		},
+		SPHERE {
+			@Override boolean contains(int dx, int dy, int dz, int radius) {
+				return dx*dx + dy*dy + dz*dz <= radius*radius;
+			}
+
+			@Override long countCubes(int radius) {
+				// count whole vertical lines of cubes, one for each column in the circle
+				long count = 0;
+				long radiusSq = (long) radius*radius;
+				for (int dx = -radius; dx <= radius; dx++) {
+					for (int dz = -radius; dz <= radius; dz++) {
+						long remaining = radiusSq - (long) dx*dx - (long) dz*dz;
+						if (remaining < 0) {
+							continue;
+						}
+						long height = (long) Math.sqrt(remaining);
+						while (height*height > remaining) {
+							height--;
+						}
+						while ((height + 1)*(height + 1) <= remaining) {
+							height++;
+						}
+						count += height*2 + 1;
+					}
+				}
+				return count;
+			}
+		};
+
+		abstract boolean contains(int dx, int dy, int dz, int radius);
+
+		abstract long countCubes(int radius);
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compression used for stored columns and cubes. Each stored record starts with a tag byte identifying the codec,
+ * so records written with different codecs can be mixed in one world.
+ * <p>
+ * Records written before the tag byte existed are plain GZip streams, they are recognized by the GZip magic number.
+ */
+public enum CompressionCodec {
+	NONE(0) {
+		@Override protected void compress(byte[] raw, int level, ByteArrayOutputStream out) {
+			out.write(raw, 0, raw.length);
+		}
+
+		@Override protected byte[] decompress(byte[] data, int offset) {
+			byte[] raw = new byte[data.length - offset];
+			System.arraycopy(data, offset, raw, 0, raw.length);
+			return raw;
+		}
+	},
+	GZIP(1) {
+		@Override protected void compress(byte[] raw, int level, ByteArrayOutputStream out) throws IOException {
+			try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+				gzip.write(raw);
+			}
+		}
+
+		@Override protected byte[] decompress(byte[] data, int offset) throws IOException {
+			return readFully(new GZIPInputStream(new ByteArrayInputStream(data, offset, data.length - offset)));
+		}
+	},
+	DEFLATE(2) {
+		@Override protected void compress(byte[] raw, int level, ByteArrayOutputStream out) throws IOException {
+			Deflater deflater = new Deflater(level);
+			try (DeflaterOutputStream deflate = new DeflaterOutputStream(out, deflater)) {
+				deflate.write(raw);
+			} finally {
+				deflater.end();
+			}
+		}
+
+		@Override protected byte[] decompress(byte[] data, int offset) throws IOException {
+			Inflater inflater = new Inflater();
+			try {
+				return readFully(new InflaterInputStream(new ByteArrayInputStream(data, offset, data.length - offset), inflater));
+			} finally {
+				inflater.end();
+			}
+		}
+	},
+	LZ4(3) {
+		// the pure java implementation, JNI doesn't work with relocated classes
+		private final LZ4Factory factory = LZ4Factory.fastestJavaInstance();
+
+		@Override protected void compress(byte[] raw, int level, ByteArrayOutputStream out) {
+			LZ4Compressor compressor = level > 6 ? factory.highCompressor() : factory.fastCompressor();
+			byte[] compressed = new byte[4 + compressor.maxCompressedLength(raw.length)];
+			writeInt(compressed, 0, raw.length);
+			int length = compressor.compress(raw, 0, raw.length, compressed, 4, compressed.length - 4);
+			out.write(compressed, 0, 4 + length);
+		}
+
+		@Override protected byte[] decompress(byte[] data, int offset) {
+			LZ4FastDecompressor decompressor = factory.fastDecompressor();
+			byte[] raw = new byte[readInt(data, offset)];
+			decompressor.decompress(data, offset + 4, raw, 0, raw.length);
+			return raw;
+		}
+	};
+
+	private static final CompressionCodec[] BY_TAG = new CompressionCodec[values().length];
+
+	static {
+		for (CompressionCodec codec : values()) {
+			BY_TAG[codec.tag] = codec;
+		}
+	}
+
+	private final byte tag;
+
+	CompressionCodec(int tag) {
+		this.tag = (byte) tag;
+	}
+
+	protected abstract void compress(byte[] raw, int level, ByteArrayOutputStream out) throws IOException;
+
+	protected abstract byte[] decompress(byte[] data, int offset) throws IOException;
+
+	/**
+	 * Compress data into a record tagged with this codec
+	 *
+	 * @param raw the uncompressed data
+	 * @param level compression level, 0-9. Only used by codecs that support it
+	 * @return the tagged record
+	 */
+	public byte[] encode(byte[] raw, int level) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length/2 + 16);
+		out.write(tag);
+		compress(raw, level, out);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decompress a record written by any codec, or a legacy GZip record
+	 *
+	 * @param data the stored record
+	 * @return the uncompressed data
+	 */
+	public static byte[] decode(byte[] data) throws IOException {
+		if (isLegacyGzip(data)) {
+			return GZIP.decompress(data, 0);
+		}
+		int tag = data.length == 0 ? -1 : data[0];
+		if (tag < 0 || tag >= BY_TAG.length) {
+			throw new IOException("Unknown compression codec " + tag);
+		}
+		return BY_TAG[tag].decompress(data, 1);
+	}
+
+	public static CompressionCodec fromName(String name) {
+		for (CompressionCodec codec : values()) {
+			if (codec.name().equalsIgnoreCase(name)) {
+				return codec;
+			}
+		}
+		throw new IllegalArgumentException("Unknown compression codec " + name);
+	}
+
+	private static boolean isLegacyGzip(byte[] data) {
+		return data.length >= 2 && data[0] == (byte) 0x1F && data[1] == (byte) 0x8B;
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		try (InputStream input = in) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[8192];
+			int read;
+			while ((read = input.read(buf)) >= 0) {
+				out.write(buf, 0, read);
+			}
+			return out.toByteArray();
+		}
+	}
+
+	private static void writeInt(byte[] data, int offset, int value) {
+		data[offset] = (byte) (value >>> 24);
+		data[offset + 1] = (byte) (value >>> 16);
+		data[offset + 2] = (byte) (value >>> 8);
+		data[offset + 3] = (byte) value;
+	}
+
+	private static int readInt(byte[] data, int offset) {
+		return (data[offset] & 0xFF) << 24 | (data[offset + 1] & 0xFF) << 16 | (data[offset + 2] & 0xFF) << 8 | data[offset + 3] & 0xFF;
+	}
+}
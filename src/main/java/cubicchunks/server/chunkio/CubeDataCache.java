@@ -0,0 +1,159 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import cubicchunks.util.CubePos;
+
+/**
+ * Keeps the uncompressed data of recently saved and loaded cubes, least recently used first out once the memory
+ * budget is exceeded. Cubes that are unloaded and then loaded again shortly after are read from here instead of
+ * being read from disk and decompressed.
+ * <p>
+ * The cached data is always the newest data written by CubeIO, because every save is put here when it's encoded.
+ */
+public class CubeDataCache {
+
+	// rough memory used by the map entry, the key and the array header
+	private static final int ENTRY_OVERHEAD = 96;
+
+	private final LinkedHashMap<CubePos, byte[]> entries = new LinkedHashMap<>(256, 0.75f, true);
+	private long maxBytes;
+	private long bytes;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	CubeDataCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	@Nullable
+	synchronized byte[] get(CubePos pos) {
+		byte[] raw = entries.get(pos);
+		if (raw == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return raw;
+	}
+
+	synchronized boolean contains(CubePos pos) {
+		return entries.containsKey(pos);
+	}
+
+	synchronized void put(CubePos pos, byte[] raw) {
+		long size = raw.length + ENTRY_OVERHEAD;
+		if (size > maxBytes) {
+			remove(pos);
+			return;
+		}
+		byte[] old = entries.put(pos, raw);
+		if (old != null) {
+			bytes -= old.length + ENTRY_OVERHEAD;
+		}
+		bytes += size;
+		evict();
+	}
+
+	synchronized void remove(CubePos pos) {
+		byte[] old = entries.remove(pos);
+		if (old != null) {
+			bytes -= old.length + ENTRY_OVERHEAD;
+		}
+	}
+
+	synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		evict();
+	}
+
+	synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<CubePos, byte[]>> it = entries.entrySet().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			bytes -= it.next().getValue().length + ENTRY_OVERHEAD;
+			it.remove();
+			evictions++;
+		}
+	}
+
+	synchronized Stats getStats() {
+		return new Stats(entries.size(), bytes, hits, misses, evictions);
+	}
+
+	/**
+	 * A snapshot of the cache counters
+	 */
+	public static class Stats {
+		private final int size;
+		private final long bytes;
+		private final long hits;
+		private final long misses;
+		private final long evictions;
+
+		Stats(int size, long bytes, long hits, long misses, long evictions) {
+			this.size = size;
+			this.bytes = bytes;
+			this.hits = hits;
+			this.misses = misses;
+			this.evictions = evictions;
+		}
+
+		public int getSize() {
+			return size;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		public long getHits() {
+			return hits;
+		}
+
+		public long getMisses() {
+			return misses;
+		}
+
+		public long getEvictions() {
+			return evictions;
+		}
+
+		@Override public String toString() {
+			return size + " cached cubes (" + bytes/1024 + "k), " + hits + " hits, " + misses + " misses, " + evictions + " evictions";
+		}
+	}
+}
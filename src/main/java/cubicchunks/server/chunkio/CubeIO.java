@@ -23,7 +23,6 @@
  */
 package cubicchunks.server.chunkio;
 
-import net.minecraft.nbt.CompressedStreamTools;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.WorldProvider;
@@ -31,18 +30,32 @@ import net.minecraft.world.storage.IThreadedFileIO;
 import net.minecraft.world.storage.ThreadedFileIOBase;
 
 import org.apache.logging.log4j.Logger;
-import org.mapdb.DB;
-import org.mapdb.DBMaker;
-import org.mapdb.Serializer;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import javax.annotation.Nullable;
 
 import cubicchunks.CubicChunks;
+import cubicchunks.IConfigUpdateListener;
+import cubicchunks.server.chunkio.region.RegionCubeStorage;
 import cubicchunks.util.AddressTools;
 import cubicchunks.util.CubePos;
 import cubicchunks.world.ICubicWorldServer;
@@ -53,61 +66,287 @@ import static cubicchunks.util.AddressTools.getX;
 import static cubicchunks.util.AddressTools.getY;
 import static cubicchunks.util.AddressTools.getZ;
 
-public class CubeIO implements IThreadedFileIO {
+public class CubeIO implements IThreadedFileIO, IConfigUpdateListener {
 
-	private static final long kB = 1024;
-	private static final long MB = kB*1024;
 	private static final Logger LOGGER = CubicChunks.LOGGER;
 
-	private static class SaveEntry {
+	private static final long JOURNAL_COMPACT_SIZE = 64*1024*1024;
+	// a write that keeps failing is retried after 1, 2, 4 and 8 seconds, then dropped
+	private static final int MAX_WRITE_ATTEMPTS = 5;
+	private static final long RETRY_DELAY_MS = 1000;
+	// how long saving may block the server thread when the writer doesn't keep up
+	private static final long QUEUE_WAIT_TIMEOUT_MS = 5000;
+
+	// shared by all worlds, compresses save entries ahead of the writer thread
+	private static final ThreadPoolExecutor COMPRESSION_EXECUTOR = new ThreadPoolExecutor(
+		CubicChunks.Config.DEFAULT_IO_COMPRESSION_THREADS, CubicChunks.Config.DEFAULT_IO_COMPRESSION_THREADS,
+		60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger(1);
+
+		@Override public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "Cube Compression Thread #" + count.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	// shared by all worlds, decodes batches of cubes loaded by the server thread. Separate from the compression
+	// threads so that loading doesn't wait behind an autosave
+	private static final ThreadPoolExecutor DECODE_EXECUTOR = new ThreadPoolExecutor(
+		Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors(),
+		60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger(1);
+
+		@Override public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "Cube Decode Thread #" + count.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	static {
+		COMPRESSION_EXECUTOR.allowCoreThreadTimeOut(true);
+		DECODE_EXECUTOR.allowCoreThreadTimeOut(true);
+	}
+
+	private class SaveEntry {
 
-		private long address;
+		private final byte type;
+		private final long address;
+		// the column NBT or cube snapshot until it's encoded, then the uncompressed bytes until they are compressed
+		// everything except the compressed data is dropped so that queued entries don't use more memory than needed
 		private NBTTagCompound nbt;
+		private CubeSnapshot snapshot;
+		private byte[] raw;
+		// volatile because the journal reads it without locking the entry
+		private volatile byte[] data;
+		// failed writes so far, and when to try again. Only used by the writer
+		private int failedWrites;
+		private long retryTime;
 
 		public SaveEntry(long address, NBTTagCompound nbt) {
+			this.type = SaveJournal.TYPE_COLUMN;
 			this.address = address;
 			this.nbt = nbt;
 		}
+
+		public SaveEntry(long address, CubeSnapshot snapshot) {
+			this.type = SaveJournal.TYPE_CUBE;
+			this.address = address;
+			this.snapshot = snapshot;
+		}
+
+		/**
+		 * Get the compressed data, encoding and compressing it in the calling thread if no compression thread did it yet
+		 */
+		synchronized byte[] getData() throws IOException {
+			if (data == null) {
+				data = compression.encode(getRaw(), compressionLevel);
+				raw = null;
+				appendToJournal(this);
+			}
+			return data;
+		}
+
+		/**
+		 * Get the uncompressed data, in the same form it would be read from storage
+		 */
+		synchronized byte[] getRaw() throws IOException {
+			if (raw != null) {
+				return raw;
+			}
+			if (data != null) {
+				return CompressionCodec.decode(data);
+			}
+			if (snapshot != null) {
+				try {
+					raw = binaryCubes ? IOBinaryWriter.write(snapshot) : IONbtWriter.writeNbtBytes(IONbtWriter.write(snapshot));
+				} finally {
+					// if it failed there is no point in keeping the cube storage shared
+					discard();
+				}
+				synchronized (cache) {
+					// an older entry finishing late must not replace the data of a newer one
+					if (isQueued()) {
+						cache.put(new CubePos(address), raw);
+					}
+				}
+			} else if (nbt != null) {
+				raw = IONbtWriter.writeNbtBytes(nbt);
+				nbt = null;
+			} else {
+				throw new IOException("Save entry has been discarded");
+			}
+			return raw;
+		}
+
+		/**
+		 * Release the cube snapshot of an entry that will never be written
+		 */
+		synchronized void discard() {
+			if (snapshot != null) {
+				snapshot.release();
+				snapshot = null;
+			}
+		}
+
+		/**
+		 * Check if this is the newest entry queued for its cube or column
+		 */
+		boolean isQueued() {
+			if (type == SaveJournal.TYPE_CUBE) {
+				return cubesToSave.get(new CubePos(address)) == this;
+			}
+			return columnsToSave.get(new ChunkPos(getX(address), getZ(address))) == this;
+		}
+
+		void compressAsync() {
+			try {
+				getData();
+			} catch (Throwable t) {
+				// the writer thread will try again and report the error
+			}
+		}
 	}
 
-	private static DB initializeDBConnection(final File saveFile, final WorldProvider dimension) {
-		// init database connection
-		LOGGER.info("Initializing db connection...");
+	private static ICubeStorage createStorage(final File saveFile, final WorldProvider dimension) throws IOException {
+		CubicChunks.Config config = CubicChunks.getConfig();
+		String storageFormat = config == null ? CubicChunks.Config.DEFAULT_STORAGE_FORMAT : config.getStorageFormat();
+		boolean convert = config == null ? CubicChunks.Config.DEFAULT_CONVERT_MAPDB_STORAGE : config.shouldConvertMapDBStorage();
+
+		File dbFile = new File(saveFile, String.format("cubes.dim%d.db", dimension.getDimension()));
+		File regionDir = new File(saveFile, String.format("cubes.dim%d", dimension.getDimension()));
+
+		boolean useRegions;
+		if (RegionCubeStorage.exists(regionDir)) {
+			useRegions = true;
+		} else if (dbFile.exists()) {
+			useRegions = storageFormat.equals(CubicChunks.Config.STORAGE_FORMAT_REGION) && convert;
+			if (useRegions) {
+				convertMapDBStorage(dbFile, regionDir);
+			}
+		} else {
+			useRegions = storageFormat.equals(CubicChunks.Config.STORAGE_FORMAT_REGION);
+		}
 
-		File file = new File(saveFile, String.format("cubes.dim%d.db", dimension.getDimension()));
+		if (useRegions) {
+			LOGGER.info("Using region storage at {}", regionDir);
+			return new RegionCubeStorage(regionDir);
+		}
+		LOGGER.info("Initializing db connection...");
+		ICubeStorage storage = new MapDBCubeStorage(dbFile);
+		LOGGER.info("Connected to db at {}", dbFile);
+		return storage;
+	}
 
-		LOGGER.info("Connected to db at {}", file);
+	/**
+	 * Open the journal, writing any saves that it still contains to the storage
+	 */
+	@Nullable
+	private static SaveJournal openJournal(final File saveFile, final WorldProvider dimension, ICubeStorage storage, boolean enabled) throws IOException {
+		File file = new File(saveFile, String.format("cubes.dim%d.journal", dimension.getDimension()));
+		if (!enabled && !file.exists()) {
+			return null;
+		}
+		SaveJournal journal = new SaveJournal(file.toPath());
+		try {
+			int count = journal.replay((type, address, data) -> {
+				if (type == SaveJournal.TYPE_CUBE) {
+					storage.writeCube(new CubePos(address), data);
+				} else {
+					storage.writeColumn(new ChunkPos(getX(address), getZ(address)), data);
+				}
+			});
+			if (count > 0) {
+				storage.flush();
+				LOGGER.warn("Recovered {} unsaved cubes and columns from {}", count, file);
+			}
+			journal.clear();
+		} catch (IOException e) {
+			journal.close();
+			throw e;
+		}
+		if (!enabled) {
+			journal.close();
+			if (!file.delete()) {
+				LOGGER.warn("Unable to delete save journal {}", file);
+			}
+			return null;
+		}
+		return journal;
+	}
 
-		file.getParentFile().mkdirs();
+	private static void convertMapDBStorage(File dbFile, File regionDir) throws IOException {
+		// convert into a temporary directory first, so that an interrupted conversion is started over
+		File tempDir = new File(regionDir.getParentFile(), regionDir.getName() + ".converting");
+		if (tempDir.exists()) {
+			deleteRecursively(tempDir);
+		}
+		MapDBCubeStorage from = new MapDBCubeStorage(dbFile);
+		try (RegionCubeStorage to = new RegionCubeStorage(tempDir)) {
+			MapDBStorageConverter.convert(from, to);
+		} finally {
+			from.close();
+		}
+		if (!tempDir.renameTo(regionDir)) {
+			throw new IOException("Unable to rename " + tempDir + " to " + regionDir);
+		}
+		File backup = new File(dbFile.getParentFile(), dbFile.getName() + ".old");
+		if (!dbFile.renameTo(backup)) {
+			LOGGER.warn("Unable to rename converted database {} to {}", dbFile, backup);
+		}
+	}
 
-		DB db = DBMaker.
-			fileDB(file).
-			fileMmapEnable().
-			allocateStartSize(5*MB).
-			allocateIncrement(1*MB).
-			make();
-		return db;
-		// NOTE: could set different cache settings
-		// the default is a hash map cache with 32768 entries
-		// see: http://www.mapdb.org/features.html
+	private static void deleteRecursively(File file) throws IOException {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				deleteRecursively(child);
+			}
+		}
+		if (!file.delete()) {
+			throw new IOException("Unable to delete " + file);
+		}
 	}
 
 	private ICubicWorldServer world;
 
-	private final DB db;
-	private ConcurrentMap<Long, byte[]> columns;
-	private ConcurrentMap<Long, byte[]> cubes;
+	private final ICubeStorage storage;
+	@Nullable
+	private final SaveJournal journal;
+	// the journal is rewritten with only the pending saves when it grows past this size
+	private long journalCompactSize = JOURNAL_COMPACT_SIZE;
+	private final CompressionCodec compression;
+	private final int compressionLevel;
 	private ConcurrentMap<ChunkPos, SaveEntry> columnsToSave;
 	private ConcurrentMap<CubePos, SaveEntry> cubesToSave;
+	private final CubeDataCache cache = new CubeDataCache(CubicChunks.Config.DEFAULT_CUBE_CACHE_SIZE_MB*1024L*1024L);
+
+	// when there are more than maxQueueSize entries waiting, saving blocks until the writer catches up
+	private final Object queueLock = new Object();
+	private volatile int maxQueueSize = CubicChunks.Config.DEFAULT_IO_QUEUE_MAX_SIZE;
+	private volatile long commitBytes = CubicChunks.Config.DEFAULT_IO_COMMIT_SIZE_KB*1024L;
+	private volatile long commitInterval = CubicChunks.Config.DEFAULT_IO_COMMIT_INTERVAL;
+	private volatile boolean binaryCubes = CubicChunks.Config.DEFAULT_CUBE_SAVE_FORMAT.equals(CubicChunks.Config.CUBE_SAVE_FORMAT_BINARY);
+	private volatile boolean queueWaitTimedOut = false;
+	private volatile boolean asyncCompression = CubicChunks.Config.DEFAULT_IO_COMPRESSION_THREADS > 0;
 
 	private final Thread theShutdownHook;
 
 	public CubeIO(ICubicWorldServer world) {
 		this.world = world;
 
-		this.db = initializeDBConnection(this.world.getSaveHandler().getWorldDirectory(), this.world.getProvider());
-		//we can't use closeOnJvmShutdown() because Minecraft saves all unsaved things on shutdown
-		//so the DB will be closed while we are still saving.
+		File saveFile = this.world.getSaveHandler().getWorldDirectory();
+		try {
+			this.storage = createStorage(saveFile, this.world.getProvider());
+			CubicChunks.Config config = CubicChunks.getConfig();
+			boolean useJournal = config == null ? CubicChunks.Config.DEFAULT_IO_JOURNAL : config.useIoJournal();
+			this.journal = openJournal(saveFile, this.world.getProvider(), this.storage, useJournal);
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to open cube storage", e);
+		}
+		//we can't close the storage in a shutdown hook right away because Minecraft saves all unsaved things on shutdown
+		//so the storage would be closed while we are still saving.
 		//also we need to save the thread into field because in client environment we need to remove the shutdown hook
 		Runtime.getRuntime().addShutdownHook(theShutdownHook = new Thread() {
 			public void run() {
@@ -116,19 +355,42 @@ public class CubeIO implements IThreadedFileIO {
 				} catch (InterruptedException e) {
 					e.printStackTrace();
 				} finally {
-					if (!CubeIO.this.db.isClosed()) {
-						CubeIO.this.db.close();
-					}
+					closeStorage();
 				}
 
 			}
 		});
-		this.columns = this.db.hashMap("columns", Serializer.LONG_PACKED, Serializer.BYTE_ARRAY).createOrOpen();
-		this.cubes = this.db.hashMap("chunks", Serializer.LONG, Serializer.BYTE_ARRAY).createOrOpen();
+
+		StorageSettings settings = StorageSettings.get(world);
+		this.compression = settings.getCompression();
+		this.compressionLevel = settings.getCompressionLevel();
 
 		// init chunk save queue
 		this.columnsToSave = new ConcurrentHashMap<>();
 		this.cubesToSave = new ConcurrentHashMap<>();
+
+		CubicChunks.addConfigChangeListener(this);
+	}
+
+	@Override public void onConfigUpdate(CubicChunks.Config config) {
+		this.maxQueueSize = config.getIoQueueMaxSize();
+		this.commitBytes = config.getIoCommitSizeKB()*1024L;
+		this.commitInterval = config.getIoCommitInterval();
+
+		this.binaryCubes = config.getCubeSaveFormat().equals(CubicChunks.Config.CUBE_SAVE_FORMAT_BINARY);
+		this.asyncCompression = config.getIoCompressionThreads() > 0;
+		this.cache.setMaxBytes(config.getCubeCacheSizeMB()*1024L*1024L);
+
+		int threads = Math.max(config.getIoCompressionThreads(), 1);
+		synchronized (COMPRESSION_EXECUTOR) {
+			if (threads > COMPRESSION_EXECUTOR.getMaximumPoolSize()) {
+				COMPRESSION_EXECUTOR.setMaximumPoolSize(threads);
+				COMPRESSION_EXECUTOR.setCorePoolSize(threads);
+			} else {
+				COMPRESSION_EXECUTOR.setCorePoolSize(threads);
+				COMPRESSION_EXECUTOR.setMaximumPoolSize(threads);
+			}
+		}
 	}
 
 	public void flush() {
@@ -139,13 +401,26 @@ public class CubeIO implements IThreadedFileIO {
 		}
 		if (columnsToSave.size() != 0 || cubesToSave.size() != 0) {
 			err("Attempt to flush() CubeIO when there are remaining cubes to save! Saving remaining cubes to avoid corruption");
-			while (this.writeNextIO()) ;
+			while (this.writeQueued(true)) ;
 		}
 
-		if (!this.db.isClosed()) {
-			this.db.close();
-		} else {
-			err("DB already closed!");
+		closeStorage();
+	}
+
+	private synchronized void closeStorage() {
+		this.cache.clear();
+		try {
+			this.storage.close();
+		} catch (IOException e) {
+			err("Unable to close cube storage", e);
+		}
+		if (this.journal != null) {
+			try {
+				// anything still queued is left in the journal and written when the world is loaded again
+				this.journal.close();
+			} catch (IOException e) {
+				err("Unable to close save journal", e);
+			}
 		}
 	}
 
@@ -153,44 +428,148 @@ public class CubeIO implements IThreadedFileIO {
 		NBTTagCompound nbt;
 		SaveEntry saveEntry;
 		if ((saveEntry = columnsToSave.get(new ChunkPos(chunkX, chunkZ))) != null) {
-			nbt = saveEntry.nbt;
+			nbt = IONbtReader.readNbtBytes(saveEntry.getRaw());
 		} else {
-			// does the database have the column?
-			long address = AddressTools.getAddress(chunkX, chunkZ);
-			byte[] data = this.columns.get(address);
+			// does the storage have the column?
+			byte[] data = this.storage.readColumn(new ChunkPos(chunkX, chunkZ));
 			if (data == null) {
 				// returning null tells the world to generate a new column
 				return null;
 			}
 
 			// read the NBT
-			nbt = CompressedStreamTools.readCompressed(new ByteArrayInputStream(data));
+			nbt = IONbtReader.readNbtBytes(CompressionCodec.decode(data));
 		}
 
 		// restore the column
 		return IONbtReader.readColumn(world, chunkX, chunkZ, nbt);
 	}
 
+	@Nullable
 	public PartialCubeData loadCubeAsyncPart(Column column, int cubeY) throws IOException {
-		// TODO address is due for refactor
-		long address = AddressTools.getAddress(column.getX(), cubeY, column.getZ());
-
-		NBTTagCompound nbt;
-		SaveEntry saveEntry;
-		if ((saveEntry = this.cubesToSave.get(new CubePos(address))) != null) {
-			nbt = saveEntry.nbt;
-		} else {
-			// does the database have the cube?
-			byte[] data = this.cubes.get(address);
+		CubePos pos = new CubePos(column.getX(), cubeY, column.getZ());
+		byte[] raw = getRawFromMemory(pos);
+		if (raw == null) {
+			// does the storage have the cube?
+			byte[] data = this.storage.readCube(pos);
 			if (data == null) {
 				return null;
 			}
-			nbt = CompressedStreamTools.readCompressed(new ByteArrayInputStream(data));
+			raw = decompressAndCache(pos, data);
+		}
+		return readCubeAsyncPart(column, cubeY, raw);
+	}
+
+	/**
+	 * Load the async part of all cubes in a range of y coordinates in one column.
+	 *
+	 * @see #loadCubesAsyncPart(Collection, Function)
+	 */
+	public Map<CubePos, PartialCubeData> loadCubesAsyncPart(Column column, int minY, int maxY) throws IOException {
+		List<CubePos> positions = new ArrayList<>(maxY - minY + 1);
+		for (int y = minY; y <= maxY; y++) {
+			positions.add(new CubePos(column.getX(), y, column.getZ()));
+		}
+		return loadCubesAsyncPart(positions, pos -> column);
+	}
+
+	/**
+	 * Load the async part of many cubes at once. Cubes that aren't in memory are read from the storage in one call,
+	 * in the order the storage prefers, then all of them are decompressed and decoded in parallel.
+	 *
+	 * @param positions positions of the cubes to load
+	 * @param columns gives the column of each cube
+	 *
+	 * @return the cubes that exist, a cube that fails to load is logged and missing
+	 */
+	public Map<CubePos, PartialCubeData> loadCubesAsyncPart(Collection<CubePos> positions, Function<CubePos, Column> columns) throws IOException {
+		Map<CubePos, byte[]> raws = new HashMap<>();
+		List<CubePos> toRead = new ArrayList<>();
+		for (CubePos pos : positions) {
+			byte[] raw = getRawFromMemory(pos);
+			if (raw != null) {
+				raws.put(pos, raw);
+			} else {
+				toRead.add(pos);
+			}
+		}
+		Map<CubePos, byte[]> compressed = toRead.isEmpty() ? new HashMap<>() : this.storage.readCubes(toRead);
+
+		Map<CubePos, CompletableFuture<PartialCubeData>> futures = new HashMap<>();
+		for (CubePos pos : positions) {
+			byte[] raw = raws.get(pos);
+			byte[] data = compressed.get(pos);
+			if (raw == null && data == null) {
+				continue;
+			}
+			futures.put(pos, CompletableFuture.supplyAsync(() -> {
+				try {
+					return readCubeAsyncPart(columns.apply(pos), pos.getY(), raw != null ? raw : decompressAndCache(pos, data));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}, DECODE_EXECUTOR));
+		}
+
+		Map<CubePos, PartialCubeData> result = new HashMap<>(futures.size());
+		for (Map.Entry<CubePos, CompletableFuture<PartialCubeData>> entry : futures.entrySet()) {
+			try {
+				PartialCubeData cube = entry.getValue().join();
+				if (cube != null) {
+					result.put(entry.getKey(), cube);
+				}
+			} catch (CompletionException e) {
+				LOGGER.error("Could not load cube in {} @ {}", world, entry.getKey(), e.getCause());
+			}
 		}
+		return result;
+	}
+
+	/**
+	 * Get the uncompressed data of a cube that is waiting to be saved or cached
+	 */
+	@Nullable
+	private byte[] getRawFromMemory(CubePos pos) throws IOException {
+		SaveEntry saveEntry = this.cubesToSave.get(pos);
+		if (saveEntry != null) {
+			return saveEntry.getRaw();
+		}
+		return this.cache.get(pos);
+	}
 
+	private byte[] decompressAndCache(CubePos pos, byte[] data) throws IOException {
+		byte[] raw = CompressionCodec.decode(data);
+		synchronized (cache) {
+			// don't replace anything a save put there in the meantime
+			if (!cubesToSave.containsKey(pos) && !cache.contains(pos)) {
+				cache.put(pos, raw);
+			}
+		}
+		return raw;
+	}
+
+	@Nullable
+	private PartialCubeData readCubeAsyncPart(Column column, int cubeY, byte[] raw) throws IOException {
 		// restore the cube - async part
+		if (IOBinaryReader.isBinary(raw)) {
+			return IOBinaryReader.readCubeAsyncPart(column, column.getX(), cubeY, column.getZ(), raw);
+		}
+		NBTTagCompound nbt = IONbtReader.readNbtBytes(raw);
 		Cube cube = IONbtReader.readCubeAsyncPart(column, column.getX(), cubeY, column.getZ(), nbt);
-		return new PartialCubeData(cube, nbt);
+		return cube == null ? null : new PartialCubeData(cube, nbt);
+	}
+
+	/**
+	 * Check if a cube can be loaded without reading it from disk, either because it's waiting to be saved or because
+	 * it's cached
+	 */
+	public boolean isCubeInMemory(int cubeX, int cubeY, int cubeZ) {
+		CubePos pos = new CubePos(cubeX, cubeY, cubeZ);
+		return this.cubesToSave.containsKey(pos) || this.cache.contains(pos);
+	}
+
+	public CubeDataCache.Stats getCacheStats() {
+		return this.cache.getStats();
 	}
 
 	public void loadCubeSyncPart(PartialCubeData info) {
@@ -202,88 +581,182 @@ public class CubeIO implements IThreadedFileIO {
 		// make it as fast as possible by offloading processing to the IO thread
 		// except we have to write the NBT in this thread to avoid problems
 		// with concurrent access to world data structures
+		waitForQueue();
 
 		// add the column to the save queue
-		this.columnsToSave.put(column.getChunkCoordIntPair(), new SaveEntry(AddressTools.getAddress(column.getX(), column.getZ()), IONbtWriter.write(column)));
+		SaveEntry entry = new SaveEntry(AddressTools.getAddress(column.getX(), column.getZ()), IONbtWriter.write(column));
+		this.columnsToSave.put(column.getChunkCoordIntPair(), entry);
 		column.markSaved();
 
-		// signal the IO thread to process the save queue
-		ThreadedFileIOBase.getThreadedIOInstance().queueIO(this);
+		compressAndQueue(entry);
 	}
 
 	public void saveCube(Cube cube) {
 		// NOTE: this function blocks the world thread, so make it fast
-
-		this.cubesToSave.put(cube.getCoords(), new SaveEntry(cube.getAddress(), IONbtWriter.write(cube)));
+		waitForQueue();
+
+		// only entities, tile entities and scheduled ticks are written here,
+		// blocks are shared with the snapshot and encoded later on another thread
+		SaveEntry entry = new SaveEntry(cube.getAddress(), new CubeSnapshot(cube));
+		SaveEntry replaced = this.cubesToSave.put(cube.getCoords(), entry);
+		if (replaced != null) {
+			replaced.discard();
+		}
 		cube.markSaved();
 
+		compressAndQueue(entry);
+	}
+
+	private void compressAndQueue(SaveEntry entry) {
+		// entries are journaled once they are compressed, so with a journal they are compressed right away
+		// even when compression would otherwise be left to the writer thread
+		if (this.asyncCompression || this.journal != null) {
+			COMPRESSION_EXECUTOR.execute(entry::compressAsync);
+		}
 		// signal the IO thread to process the save queue
 		ThreadedFileIOBase.getThreadedIOInstance().queueIO(this);
 	}
 
+	/**
+	 * Block the calling thread while there are too many cubes and columns waiting to be written.
+	 * This keeps autosaves of large worlds from queueing more data than the writer can handle.
+	 */
+	private void waitForQueue() {
+		if (getPendingCount() < maxQueueSize) {
+			queueWaitTimedOut = false;
+			return;
+		}
+		if (queueWaitTimedOut) {
+			return; // the writer is stuck, waiting for each cube would hang the server
+		}
+		long start = System.currentTimeMillis();
+		long deadline = start + QUEUE_WAIT_TIMEOUT_MS;
+		synchronized (queueLock) {
+			while (getPendingCount() >= maxQueueSize) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					queueWaitTimedOut = true;
+					LOGGER.warn("The save queue didn't get shorter in {} ms, saving without waiting for it until it does",
+						QUEUE_WAIT_TIMEOUT_MS);
+					break;
+				}
+				// make sure the writer is running
+				ThreadedFileIOBase.getThreadedIOInstance().queueIO(this);
+				try {
+					queueLock.wait(Math.min(remaining, 100));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+		LOGGER.debug("Waited {} ms for the save queue", System.currentTimeMillis() - start);
+	}
+
+	private int getPendingCount() {
+		return this.cubesToSave.size() + this.columnsToSave.size();
+	}
+
 	@Override
 	public boolean writeNextIO() {
-		try {
-			// NOTE: return true to redo this call (used for batching)
-
-			final int ColumnsBatchSize = 25;
-			final int CubesBatchSize = 250;
+		// NOTE: return true to redo this call
+		return writeQueued(false);
+	}
 
+	/**
+	 * Write a batch of queued entries and commit them
+	 *
+	 * @param retryNow if {@code true}, entries whose write failed are retried without waiting for their retry time
+	 *
+	 * @return {@code true} if there are more entries to write now
+	 */
+	private boolean writeQueued(boolean retryNow) {
+		// writes are grouped until either commitBytes are written or commitInterval ms pass, then committed at once
+		try {
 			int numColumnsSaved = 0;
-			int numColumnsRemaining = 0;
 			int numColumnBytesSaved = 0;
 			int numCubesSaved = 0;
-			int numCubesRemaining = 0;
 			int numCubeBytesSaved = 0;
 			long start = System.currentTimeMillis();
+			long commitBytes = this.commitBytes;
+			long commitEnd = start + this.commitInterval;
 
 			// save a batch of columns
-			Iterator<SaveEntry> it = columnsToSave.values().iterator();
-			for (SaveEntry entry; it.hasNext() && numColumnsSaved < ColumnsBatchSize; numColumnsSaved++) {
-				entry = it.next();
+			Iterator<Map.Entry<ChunkPos, SaveEntry>> columnIt = columnsToSave.entrySet().iterator();
+			while (columnIt.hasNext() && numColumnBytesSaved < commitBytes && System.currentTimeMillis() < commitEnd) {
+				Map.Entry<ChunkPos, SaveEntry> mapEntry = columnIt.next();
+				SaveEntry entry = mapEntry.getValue();
+				if (!retryNow && entry.retryTime > System.currentTimeMillis()) {
+					continue;
+				}
+				byte[] data;
+				try {
+					data = entry.getData();
+				} catch (Throwable t) {
+					// encoding fails the same way every time, so there is no point in keeping it queued
+					err(String.format("Unable to encode column (%d, %d)", getX(entry.address), getZ(entry.address)), t);
+					columnsToSave.remove(mapEntry.getKey(), entry);
+					continue;
+				}
 				try {
 					// save the column
-					byte[] data = IONbtWriter.writeNbtBytes(entry.nbt);
-					this.columns.put(entry.address, data);
+					this.storage.writeColumn(mapEntry.getKey(), data);
 					//column can be removed from toSave queue only after writing to disk
-					//to avoid race conditions
-					it.remove();
+					//to avoid race conditions. Don't remove it if it has been replaced by newer data.
+					//If writing failed, it stays queued and is retried later, see onWriteFailed.
+					columnsToSave.remove(mapEntry.getKey(), entry);
 					numColumnBytesSaved += data.length;
+					numColumnsSaved++;
 				} catch (Throwable t) {
-					err(String.format("Unable to write column (%d, %d)", getX(entry.address), getZ(entry.address)), t);
+					String pos = String.format("column (%d, %d)", getX(entry.address), getZ(entry.address));
+					if (onWriteFailed(entry, pos, t)) {
+						columnsToSave.remove(mapEntry.getKey(), entry);
+					}
 				}
 			}
 
-			boolean hasMoreColumns = it.hasNext();
-
-			it = cubesToSave.values().iterator();
 			// save a batch of cubes
-
-			for (SaveEntry entry; it.hasNext() && numCubesSaved < CubesBatchSize; numCubesSaved++) {
-				entry = it.next();
+			Iterator<Map.Entry<CubePos, SaveEntry>> cubeIt = cubesToSave.entrySet().iterator();
+			while (cubeIt.hasNext() && numColumnBytesSaved + numCubeBytesSaved < commitBytes && System.currentTimeMillis() < commitEnd) {
+				Map.Entry<CubePos, SaveEntry> mapEntry = cubeIt.next();
+				SaveEntry entry = mapEntry.getValue();
+				if (!retryNow && entry.retryTime > System.currentTimeMillis()) {
+					continue;
+				}
+				byte[] data;
+				try {
+					data = entry.getData();
+				} catch (Throwable t) {
+					err(String.format("Unable to encode cube %d, %d, %d", getX(entry.address), getY(entry.address), getZ(entry.address)), t);
+					cubesToSave.remove(mapEntry.getKey(), entry);
+					continue;
+				}
 				try {
 					// save the cube
-					byte[] data = IONbtWriter.writeNbtBytes(entry.nbt);
-					try {
-						this.cubes.put(entry.address, data);
-					} finally {
-						//cube can be removed from toSave queue only after writing to disk
-						//to avoid race conditions
-						it.remove();
-					}
-
+					this.storage.writeCube(mapEntry.getKey(), data);
+					//cube can be removed from toSave queue only after writing to disk
+					//to avoid race conditions. If writing failed, it stays queued and is retried later.
+					cubesToSave.remove(mapEntry.getKey(), entry);
 					numCubeBytesSaved += data.length;
+					numCubesSaved++;
 				} catch (Throwable t) {
-					err(String.format("Unable to write cube %d, %d, %d", getX(entry.address), getY(entry.address), getZ(entry.address)), t);
+					String pos = String.format("cube %d, %d, %d", getX(entry.address), getY(entry.address), getZ(entry.address));
+					if (onWriteFailed(entry, pos, t)) {
+						cubesToSave.remove(mapEntry.getKey(), entry);
+					}
 				}
 			}
-			boolean hasMoreCubes = it.hasNext();
-
-			numColumnsRemaining = this.columnsToSave.size();
-			numCubesRemaining = this.cubesToSave.size();
 
 			// flush changes to disk
-			this.db.commit();
+			this.storage.flush();
+			compactJournal();
+
+			synchronized (queueLock) {
+				queueLock.notifyAll();
+			}
+
+			int numColumnsRemaining = this.columnsToSave.size();
+			int numCubesRemaining = this.cubesToSave.size();
 
 			long diff = System.currentTimeMillis() - start;
 			LOGGER.debug("Wrote {} columns ({} remaining) ({}k) and {} cubes ({} remaining) ({}k) in {} ms",
@@ -291,13 +764,109 @@ public class CubeIO implements IThreadedFileIO {
 				numCubesSaved, numCubesRemaining, numCubeBytesSaved/1024, diff
 			);
 
-			return hasMoreColumns || hasMoreCubes;
+			return hasEntriesToWrite(retryNow);
 		} catch (Throwable t) {
 			err("Exception occurred when saving cubes", t);
-			return cubesToSave.size() != 0 || columnsToSave.size() != 0;
+			return hasEntriesToWrite(retryNow);
+		}
+	}
+
+	/**
+	 * Schedule another attempt to write an entry whose write failed, or give up on it
+	 *
+	 * @return {@code true} if the entry should be dropped
+	 */
+	private boolean onWriteFailed(SaveEntry entry, String pos, Throwable t) {
+		entry.failedWrites++;
+		if (entry.failedWrites >= MAX_WRITE_ATTEMPTS) {
+			err(String.format("Unable to write %s after %d attempts, it will not be saved", pos, entry.failedWrites), t);
+			return true;
+		}
+		long delay = RETRY_DELAY_MS << (entry.failedWrites - 1);
+		entry.retryTime = System.currentTimeMillis() + delay;
+		err(String.format("Unable to write %s, trying again in %d ms", pos, delay), t);
+		return false;
+	}
+
+	/**
+	 * Check if there are entries that can be written now. When only entries waiting to retry a failed write are left,
+	 * the writer stops until something new is saved.
+	 */
+	private boolean hasEntriesToWrite(boolean retryNow) {
+		if (retryNow) {
+			return !cubesToSave.isEmpty() || !columnsToSave.isEmpty();
+		}
+		long now = System.currentTimeMillis();
+		for (SaveEntry entry : columnsToSave.values()) {
+			if (entry.retryTime <= now) {
+				return true;
+			}
+		}
+		for (SaveEntry entry : cubesToSave.values()) {
+			if (entry.retryTime <= now) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	/**
+	 * Record the data of an entry in the journal, unless it has already been replaced by a newer entry
+	 */
+	private void appendToJournal(SaveEntry entry) {
+		if (this.journal == null) {
+			return;
+		}
+		synchronized (this.journal) {
+			// an older entry finishing late must not be replayed after a newer one
+			if (!entry.isQueued()) {
+				return;
+			}
+			try {
+				this.journal.append(entry.type, entry.address, entry.data);
+			} catch (IOException e) {
+				err("Unable to write to save journal", e);
+			}
 		}
 	}
 
+	/**
+	 * Drop journal records of saves that have been committed. Called after a commit, from the writer thread.
+	 */
+	private void compactJournal() throws IOException {
+		if (this.journal == null) {
+			return;
+		}
+		// entries are appended while holding the journal lock, so nothing can be appended between checking the
+		// queues and truncating the journal
+		synchronized (this.journal) {
+			if (this.columnsToSave.isEmpty() && this.cubesToSave.isEmpty()) {
+				this.journal.clear();
+				this.journalCompactSize = JOURNAL_COMPACT_SIZE;
+				return;
+			}
+			if (this.journal.size() < this.journalCompactSize) {
+				return;
+			}
+			// entries that aren't compressed yet will be appended to the new journal when they are
+			List<SaveJournal.Record> records = new ArrayList<>();
+			for (SaveEntry entry : this.columnsToSave.values()) {
+				byte[] data = entry.data;
+				if (data != null) {
+					records.add(new SaveJournal.Record(entry.type, entry.address, data));
+				}
+			}
+			for (SaveEntry entry : this.cubesToSave.values()) {
+				byte[] data = entry.data;
+				if (data != null) {
+					records.add(new SaveJournal.Record(entry.type, entry.address, data));
+				}
+			}
+			this.journal.rewrite(records);
+			this.journalCompactSize = Math.max(JOURNAL_COMPACT_SIZE, this.journal.size()*2);
+		}
+	}
 
 	/**
 	 * Method that prints error message even when shutting down (ie. LOGGER is disabled)
@@ -0,0 +1,93 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import javax.annotation.Nullable;
+
+import cubicchunks.world.cube.Cube;
+
+/**
+ * Everything needed to save a cube, captured on the server thread so that it can be encoded on any thread.
+ * <p>
+ * Entities, tile entities and scheduled ticks are written to NBT right away, because they can only be accessed from
+ * the server thread. Block storage is shared with the cube until the snapshot is released, the cube copies it
+ * if it's modified before that.
+ */
+class CubeSnapshot {
+	final int x, y, z;
+	final boolean populated;
+	final boolean fullyPopulated;
+	final boolean initialLightingDone;
+	final boolean hasSky;
+	final int[] heightMap;
+	/**
+	 * Block state of every block if the cube is uniform, see {@link Cube#isUniform()}
+	 */
+	@Nullable final IBlockState uniformState;
+	final int uniformSkylight;
+	/**
+	 * Entities, tile entities and scheduled ticks
+	 */
+	final NBTTagCompound nbt;
+	private final Cube.SharedStorage storage;
+
+	CubeSnapshot(Cube cube) {
+		this.x = cube.getX();
+		this.y = cube.getY();
+		this.z = cube.getZ();
+		this.populated = cube.isPopulated();
+		this.fullyPopulated = cube.isFullyPopulated();
+		this.initialLightingDone = cube.isInitialLightingDone();
+		this.hasSky = !cube.getCubicWorld().getProvider().getHasNoSky();
+		this.heightMap = cube.getColumn().getHeightMap().clone();
+
+		this.nbt = new NBTTagCompound();
+		IONbtWriter.writeEntities(cube, nbt);
+		IONbtWriter.writeTileEntities(cube, nbt);
+		IONbtWriter.writeScheduledTicks(cube, nbt);
+
+		this.uniformState = cube.getUniformState();
+		this.uniformSkylight = cube.getUniformSkylight();
+		this.storage = cube.shareStorage();
+	}
+
+	/**
+	 * @return block storage of the cube at the time of the snapshot. It must not be modified.
+	 */
+	@Nullable
+	ExtendedBlockStorage getStorage() {
+		return storage.getStorage();
+	}
+
+	/**
+	 * Release the block storage, the snapshot can't be used after this
+	 */
+	void release() {
+		storage.release();
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import net.minecraft.util.math.ChunkPos;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import cubicchunks.util.CubePos;
+
+/**
+ * Backend that stores serialized columns and cubes on disk. Data passed in and returned is already encoded,
+ * the storage only has to map positions to byte arrays.
+ * <p>
+ * Writes don't have to be durable until {@link #flush()} is called.
+ */
+public interface ICubeStorage extends Closeable {
+
+	/**
+	 * Read the data of a column
+	 *
+	 * @param pos position of the column
+	 * @return the data that was written for this column, or null if it doesn't exist
+	 */
+	@Nullable
+	byte[] readColumn(ChunkPos pos) throws IOException;
+
+	/**
+	 * Read the data of a cube
+	 *
+	 * @param pos position of the cube
+	 * @return the data that was written for this cube, or null if it doesn't exist
+	 */
+	@Nullable
+	byte[] readCube(CubePos pos) throws IOException;
+
+	/**
+	 * Read the data of many cubes at once. Storages should read them in the order that is the fastest for them.
+	 *
+	 * @param positions positions of the cubes
+	 * @return the data of the cubes that exist
+	 */
+	default Map<CubePos, byte[]> readCubes(Collection<CubePos> positions) throws IOException {
+		Map<CubePos, byte[]> result = new HashMap<>(positions.size());
+		for (CubePos pos : positions) {
+			byte[] data = readCube(pos);
+			if (data != null) {
+				result.put(pos, data);
+			}
+		}
+		return result;
+	}
+
+	void writeColumn(ChunkPos pos, byte[] data) throws IOException;
+
+	void writeCube(CubePos pos, byte[] data) throws IOException;
+
+	/**
+	 * Make all previous writes durable
+	 */
+	void flush() throws IOException;
+
+	/**
+	 * Flush and release all resources. The storage can't be used after it's closed.
+	 */
+	@Override
+	void close() throws IOException;
+}
@@ -0,0 +1,153 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nullable;
+
+import cubicchunks.CubicChunks;
+import cubicchunks.util.Coords;
+import cubicchunks.world.ICubicWorldServer;
+import cubicchunks.world.column.Column;
+import cubicchunks.world.cube.Cube;
+
+import static cubicchunks.server.chunkio.IOBinaryWriter.FLAG_ADD;
+import static cubicchunks.server.chunkio.IOBinaryWriter.FLAG_BLOCKS;
+import static cubicchunks.server.chunkio.IOBinaryWriter.FLAG_FULLY_POPULATED;
+import static cubicchunks.server.chunkio.IOBinaryWriter.FLAG_INIT_LIGHT_DONE;
+import static cubicchunks.server.chunkio.IOBinaryWriter.FLAG_POPULATED;
+import static cubicchunks.server.chunkio.IOBinaryWriter.FLAG_SKYLIGHT;
+import static cubicchunks.server.chunkio.IOBinaryWriter.FLAG_UNIFORM;
+import static cubicchunks.server.chunkio.IOBinaryWriter.HEIGHTMAP_SIZE;
+
+/**
+ * Reads cubes written by {@link IOBinaryWriter}
+ */
+class IOBinaryReader {
+
+	private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+	static boolean isBinary(byte[] raw) {
+		return raw.length > 0 && raw[0] == IOBinaryWriter.MAGIC;
+	}
+
+	/**
+	 * Read blocks and cube properties. The NBT needed by {@link IONbtReader#readCubeSyncPart} is returned as part
+	 * of the result, with the heightmap stored the same way the NBT format stores it.
+	 */
+	@Nullable
+	static CubeIO.PartialCubeData readCubeAsyncPart(Column column, int cubeX, int cubeY, int cubeZ, byte[] raw) throws IOException {
+		if (column.getX() != cubeX || column.getZ() != cubeZ) {
+			throw new IllegalArgumentException(String.format("Invalid column (%d, %d) for cube at (%d, %d, %d)",
+				column.getX(), column.getZ(), cubeX, cubeY, cubeZ));
+		}
+		ICubicWorldServer world = (ICubicWorldServer) column.getWorld();
+		Buffers buffers = BUFFERS.get();
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(raw));
+
+		in.readByte(); // magic
+		byte version = in.readByte();
+		if (version != IOBinaryWriter.VERSION) {
+			throw new IllegalArgumentException("Cube has wrong version! " + version);
+		}
+
+		// check the coordinates
+		int xCheck = in.readInt();
+		int yCheck = in.readInt();
+		int zCheck = in.readInt();
+		if (xCheck != cubeX || yCheck != cubeY || zCheck != cubeZ) {
+			CubicChunks.LOGGER.error(String.format("Cube is corrupted! Expected (%d,%d,%d) but got (%d,%d,%d). Cube will be regenerated.", cubeX, cubeY, cubeZ, xCheck, yCheck, zCheck));
+			return null;
+		}
+
+		int flags = in.readUnsignedByte();
+
+		final Cube cube = new Cube(column, cubeY);
+		cube.setPopulated((flags & FLAG_POPULATED) != 0);
+		cube.setFullyPopulated((flags & FLAG_FULLY_POPULATED) != 0);
+		cube.setInitialLightingDone((flags & FLAG_INIT_LIGHT_DONE) != 0);
+
+		if ((flags & FLAG_BLOCKS) != 0) {
+			boolean hasSky = !world.getProvider().getHasNoSky();
+			ExtendedBlockStorage ebs = new ExtendedBlockStorage(Coords.cubeToMinBlock(cubeY), hasSky);
+
+			in.readFully(buffers.blocks);
+			in.readFully(buffers.data.getData());
+			NibbleArray add = (flags & FLAG_ADD) != 0 ? readNibbleArray(in) : null;
+			ebs.getData().setDataFromNBT(buffers.blocks, buffers.data, add);
+
+			ebs.setBlocklightArray(readNibbleArray(in));
+			if ((flags & FLAG_SKYLIGHT) != 0) {
+				NibbleArray skyLight = readNibbleArray(in);
+				if (hasSky) {
+					ebs.setSkylightArray(skyLight);
+				}
+			}
+
+			ebs.removeInvalidBlocks();
+			cube.setStorage(ebs);
+		} else if ((flags & FLAG_UNIFORM) != 0) {
+			IBlockState state = Block.BLOCK_STATE_IDS.getByValue(in.readInt());
+			int skyLight = in.readUnsignedByte();
+			if (state != null) {
+				cube.setUniform(state, skyLight);
+			}
+		}
+
+		in.readFully(buffers.heightMap.array());
+		buffers.heightMap.clear();
+		int[] lastHeightMap = new int[HEIGHTMAP_SIZE];
+		buffers.heightMap.asIntBuffer().get(lastHeightMap);
+
+		NBTTagCompound nbt = CompressedStreamTools.read(in);
+		NBTTagCompound lightingInfo = new NBTTagCompound();
+		lightingInfo.setIntArray("LastHeightMap", lastHeightMap);
+		nbt.setTag("LightingInfo", lightingInfo);
+
+		return new CubeIO.PartialCubeData(cube, nbt);
+	}
+
+	private static NibbleArray readNibbleArray(DataInputStream in) throws IOException {
+		byte[] data = new byte[Cube.SIZE*Cube.SIZE*Cube.SIZE/2];
+		in.readFully(data);
+		return new NibbleArray(data);
+	}
+
+	private static class Buffers {
+		final byte[] blocks = new byte[Cube.SIZE*Cube.SIZE*Cube.SIZE];
+		final NibbleArray data = new NibbleArray();
+		final ByteBuffer heightMap = ByteBuffer.allocate(HEIGHTMAP_SIZE*Integer.BYTES);
+	}
+}
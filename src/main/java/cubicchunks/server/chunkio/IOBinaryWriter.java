@@ -0,0 +1,134 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import net.minecraft.block.Block;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.world.chunk.NibbleArray;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import cubicchunks.world.cube.Cube;
+
+/**
+ * Writes cubes in the binary format. Block, light and heightmap arrays are written directly,
+ * only entities, tile entities and scheduled ticks are stored as NBT.
+ * <p>
+ * Format (version 1):
+ * <pre>
+ * byte    magic ({@link #MAGIC}), never the id of an NBT compound
+ * byte    version
+ * int     x, y, z
+ * byte    flags, see FLAG_*
+ * byte[]  block ids (4096), metadata (2048), [add (2048)], block light (2048), [sky light (2048)], if FLAG_BLOCKS
+ * int     block state id, byte sky light, if FLAG_UNIFORM
+ * int[]   last heightmap (256)
+ * NBT     compound with Entities, TileEntities and TileTicks
+ * </pre>
+ */
+class IOBinaryWriter {
+
+	static final byte MAGIC = (byte) 0xCC;
+	static final byte VERSION = 1;
+
+	static final int FLAG_POPULATED = 1;
+	static final int FLAG_FULLY_POPULATED = 1 << 1;
+	static final int FLAG_INIT_LIGHT_DONE = 1 << 2;
+	static final int FLAG_BLOCKS = 1 << 3;
+	static final int FLAG_ADD = 1 << 4;
+	static final int FLAG_SKYLIGHT = 1 << 5;
+	static final int FLAG_UNIFORM = 1 << 6;
+
+	static final int HEIGHTMAP_SIZE = Cube.SIZE*Cube.SIZE;
+
+	private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+	/**
+	 * Write a cube snapshot. Entities, tile entities and scheduled ticks are already in the snapshot's NBT,
+	 * so this can be called from any thread.
+	 */
+	static byte[] write(CubeSnapshot cube) throws IOException {
+		Buffers buffers = BUFFERS.get();
+		buffers.out.reset();
+		DataOutputStream out = new DataOutputStream(buffers.out);
+
+		out.writeByte(MAGIC);
+		out.writeByte(VERSION);
+
+		out.writeInt(cube.x);
+		out.writeInt(cube.y);
+		out.writeInt(cube.z);
+
+		ExtendedBlockStorage ebs = cube.getStorage();
+		NibbleArray add = null;
+		if (ebs != null) {
+			add = ebs.getData().getDataForNBT(buffers.blocks, buffers.data);
+		}
+		boolean hasSkyLight = ebs != null && cube.hasSky;
+
+		int flags = 0;
+		flags |= cube.populated ? FLAG_POPULATED : 0;
+		flags |= cube.fullyPopulated ? FLAG_FULLY_POPULATED : 0;
+		flags |= cube.initialLightingDone ? FLAG_INIT_LIGHT_DONE : 0;
+		flags |= ebs != null ? FLAG_BLOCKS : 0;
+		flags |= add != null ? FLAG_ADD : 0;
+		flags |= hasSkyLight ? FLAG_SKYLIGHT : 0;
+		flags |= ebs == null && cube.uniformState != null ? FLAG_UNIFORM : 0;
+		out.writeByte(flags);
+
+		if (ebs != null) {
+			out.write(buffers.blocks);
+			out.write(buffers.data.getData());
+			if (add != null) {
+				out.write(add.getData());
+			}
+			out.write(ebs.getBlocklightArray().getData());
+			if (hasSkyLight) {
+				out.write(ebs.getSkylightArray().getData());
+			}
+		} else if (cube.uniformState != null) {
+			out.writeInt(Block.BLOCK_STATE_IDS.get(cube.uniformState));
+			out.writeByte(cube.uniformSkylight);
+		}
+
+		buffers.heightMap.clear();
+		buffers.heightMap.asIntBuffer().put(cube.heightMap);
+		out.write(buffers.heightMap.array());
+
+		CompressedStreamTools.write(cube.nbt, out);
+
+		return buffers.out.toByteArray();
+	}
+
+	private static class Buffers {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(16*1024);
+		final byte[] blocks = new byte[Cube.SIZE*Cube.SIZE*Cube.SIZE];
+		final NibbleArray data = new NibbleArray();
+		final ByteBuffer heightMap = ByteBuffer.allocate(HEIGHTMAP_SIZE*Integer.BYTES);
+	}
+}
@@ -24,6 +24,8 @@
 package cubicchunks.server.chunkio;
 
 import net.minecraft.block.Block;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.nbt.CompressedStreamTools;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.nbt.NBTTagList;
 import net.minecraft.tileentity.TileEntity;
@@ -33,6 +35,10 @@ import net.minecraft.world.chunk.NibbleArray;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import net.minecraftforge.common.util.Constants;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
 import javax.annotation.Nullable;
 
 import cubicchunks.CubicChunks;
@@ -45,6 +51,10 @@ import cubicchunks.world.column.Column;
 import cubicchunks.world.cube.Cube;
 
 public class IONbtReader {
+	static NBTTagCompound readNbtBytes(byte[] raw) throws IOException {
+		return CompressedStreamTools.read(new DataInputStream(new ByteArrayInputStream(raw)));
+	}
+
 	@Nullable
 	static Column readColumn(ICubicWorld world, int x, int z, NBTTagCompound nbt) {
 		Column column = readBaseColumn(world, x, z, nbt);
@@ -163,6 +173,11 @@ public class IONbtReader {
 
 			ebs.removeInvalidBlocks();
 			cube.setStorage(ebs);
+		} else if (nbt.hasKey("UniformBlock")) {
+			IBlockState state = Block.BLOCK_STATE_IDS.getByValue(nbt.getInteger("UniformBlock"));
+			if (state != null) {
+				cube.setUniform(state, nbt.getByte("UniformSkyLight"));
+			}
 		}
 	}
 
@@ -35,6 +35,7 @@ import net.minecraft.world.chunk.NibbleArray;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -52,7 +53,7 @@ import static cubicchunks.util.WorldServerAccess.getPendingTickListEntriesThisTi
 class IONbtWriter {
 	static byte[] writeNbtBytes(NBTTagCompound nbt) throws IOException {
 		ByteArrayOutputStream buf = new ByteArrayOutputStream();
-		CompressedStreamTools.writeCompressed(nbt, buf);
+		CompressedStreamTools.write(nbt, new DataOutputStream(buf));
 		return buf.toByteArray();
 	}
 
@@ -64,15 +65,16 @@ class IONbtWriter {
 		return nbt;
 	}
 
-	static NBTTagCompound write(final Cube cube) {
-		NBTTagCompound cubeNbt = new NBTTagCompound();
+	/**
+	 * Write a cube snapshot. Entities, tile entities and scheduled ticks are already in the snapshot's NBT,
+	 * so this can be called from any thread.
+	 */
+	static NBTTagCompound write(final CubeSnapshot cube) {
+		NBTTagCompound cubeNbt = cube.nbt;
 
 		writeBaseCube(cube, cubeNbt);
 
 		writeBlocks(cube, cubeNbt);
-		writeEntities(cube, cubeNbt);
-		writeTileEntities(cube, cubeNbt);
-		writeScheduledTicks(cube, cubeNbt);
 
 		writeLightingInfo(cube, cubeNbt);
 
@@ -96,25 +98,31 @@ class IONbtWriter {
 		nbt.setByteArray("OpacityIndex", ((ServerHeightMap) column.getOpacityIndex()).getData());
 	}
 
-	private static void writeBaseCube(Cube cube, NBTTagCompound cubeNbt) {
+	private static void writeBaseCube(CubeSnapshot cube, NBTTagCompound cubeNbt) {
 		cubeNbt.setByte("v", (byte) 1);
 
 		// coords
-		cubeNbt.setInteger("x", cube.getX());
-		cubeNbt.setInteger("y", cube.getY());
-		cubeNbt.setInteger("z", cube.getZ());
+		cubeNbt.setInteger("x", cube.x);
+		cubeNbt.setInteger("y", cube.y);
+		cubeNbt.setInteger("z", cube.z);
 
 		// save the worldgen stage and the target stage
-		cubeNbt.setBoolean("populated", cube.isPopulated());
-		cubeNbt.setBoolean("fullyPopulated", cube.isFullyPopulated());
+		cubeNbt.setBoolean("populated", cube.populated);
+		cubeNbt.setBoolean("fullyPopulated", cube.fullyPopulated);
 
-		cubeNbt.setBoolean("initLightDone", cube.isInitialLightingDone());
+		cubeNbt.setBoolean("initLightDone", cube.initialLightingDone);
 	}
 
-	private static void writeBlocks(Cube cube, NBTTagCompound cubeNbt) {
+	private static void writeBlocks(CubeSnapshot cube, NBTTagCompound cubeNbt) {
 		ExtendedBlockStorage ebs = cube.getStorage();
 		if (ebs == null) {
-			return; // no data to save anyway
+			if (cube.uniformState != null) {
+				cubeNbt.setInteger("UniformBlock", Block.BLOCK_STATE_IDS.get(cube.uniformState));
+				if (cube.hasSky) {
+					cubeNbt.setByte("UniformSkyLight", (byte) cube.uniformSkylight);
+				}
+			}
+			return; // no other data to save
 		}
 
 		byte[] abyte = new byte[Cube.SIZE*Cube.SIZE*Cube.SIZE];
@@ -130,12 +138,12 @@ class IONbtWriter {
 
 		cubeNbt.setByteArray("BlockLight", ebs.getBlocklightArray().getData());
 
-		if (!cube.getCubicWorld().getProvider().getHasNoSky()) {
+		if (cube.hasSky) {
 			cubeNbt.setByteArray("SkyLight", ebs.getSkylightArray().getData());
 		}
 	}
 
-	private static void writeEntities(Cube cube, NBTTagCompound cubeNbt) {// entities
+	static void writeEntities(Cube cube, NBTTagCompound cubeNbt) {// entities
 		cube.getEntityContainer().writeToNbt(cubeNbt, "Entities", entity -> {
 			// make sure this entity is really in the chunk
 			int cubeX = Coords.getCubeXForEntity(entity);
@@ -152,7 +160,7 @@ class IONbtWriter {
 		});
 	}
 
-	private static void writeTileEntities(Cube cube, NBTTagCompound cubeNbt) {// tile entities
+	static void writeTileEntities(Cube cube, NBTTagCompound cubeNbt) {// tile entities
 		NBTTagList nbtTileEntities = new NBTTagList();
 		cubeNbt.setTag("TileEntities", nbtTileEntities);
 		for (TileEntity blockEntity : cube.getTileEntityMap().values()) {
@@ -162,7 +170,7 @@ class IONbtWriter {
 		}
 	}
 
-	private static void writeScheduledTicks(Cube cube, NBTTagCompound cubeNbt) {// scheduled block ticks
+	static void writeScheduledTicks(Cube cube, NBTTagCompound cubeNbt) {// scheduled block ticks
 		Iterable<NextTickListEntry> scheduledTicks = getScheduledTicks(cube);
 		if (scheduledTicks != null) {
 			long time = cube.getCubicWorld().getTotalWorldTime();
@@ -183,11 +191,11 @@ class IONbtWriter {
 		}
 	}
 
-	private static void writeLightingInfo(Cube cube, NBTTagCompound cubeNbt) {
+	private static void writeLightingInfo(CubeSnapshot cube, NBTTagCompound cubeNbt) {
 		NBTTagCompound lightingInfo = new NBTTagCompound();
 		cubeNbt.setTag("LightingInfo", lightingInfo);
 
-		int[] lastHeightmap = cube.getColumn().getHeightMap();
+		int[] lastHeightmap = cube.heightMap;
 		lightingInfo.setIntArray("LastHeightMap", lastHeightmap); //TODO: why are we storing the height map on a Cube???
 	}
 
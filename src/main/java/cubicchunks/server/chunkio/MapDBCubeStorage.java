@@ -0,0 +1,137 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import net.minecraft.util.math.ChunkPos;
+
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.mapdb.Serializer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+
+import javax.annotation.Nullable;
+
+import cubicchunks.util.AddressTools;
+import cubicchunks.util.CubePos;
+
+import static cubicchunks.util.AddressTools.getX;
+import static cubicchunks.util.AddressTools.getY;
+import static cubicchunks.util.AddressTools.getZ;
+
+/**
+ * The original storage format, all columns and cubes of a dimension are stored in a single MapDB database file.
+ */
+public class MapDBCubeStorage implements ICubeStorage {
+
+	private static final long kB = 1024;
+	private static final long MB = kB*1024;
+
+	private final DB db;
+	private final ConcurrentMap<Long, byte[]> columns;
+	private final ConcurrentMap<Long, byte[]> cubes;
+
+	public MapDBCubeStorage(File file) {
+		file.getParentFile().mkdirs();
+
+		this.db = DBMaker.
+			fileDB(file).
+			fileMmapEnable().
+			allocateStartSize(5*MB).
+			allocateIncrement(1*MB).
+			make();
+		// NOTE: could set different cache settings
+		// the default is a hash map cache with 32768 entries
+		// see: http://www.mapdb.org/features.html
+
+		this.columns = this.db.hashMap("columns", Serializer.LONG_PACKED, Serializer.BYTE_ARRAY).createOrOpen();
+		this.cubes = this.db.hashMap("chunks", Serializer.LONG, Serializer.BYTE_ARRAY).createOrOpen();
+	}
+
+	@Nullable
+	@Override
+	public byte[] readColumn(ChunkPos pos) throws IOException {
+		return this.columns.get(AddressTools.getAddress(pos.chunkXPos, pos.chunkZPos));
+	}
+
+	@Nullable
+	@Override
+	public byte[] readCube(CubePos pos) throws IOException {
+		return this.cubes.get(pos.getAddress());
+	}
+
+	@Override
+	public void writeColumn(ChunkPos pos, byte[] data) throws IOException {
+		this.columns.put(AddressTools.getAddress(pos.chunkXPos, pos.chunkZPos), data);
+	}
+
+	@Override
+	public void writeCube(CubePos pos, byte[] data) throws IOException {
+		this.cubes.put(pos.getAddress(), data);
+	}
+
+	/**
+	 * Iterate over all columns stored in this database, used to convert it to another format
+	 */
+	public void forEachColumn(BiConsumer<ChunkPos, byte[]> consumer) {
+		for (Map.Entry<Long, byte[]> entry : this.columns.entrySet()) {
+			long address = entry.getKey();
+			consumer.accept(new ChunkPos(getX(address), getZ(address)), entry.getValue());
+		}
+	}
+
+	/**
+	 * Iterate over all cubes stored in this database, used to convert it to another format
+	 */
+	public void forEachCube(BiConsumer<CubePos, byte[]> consumer) {
+		for (Map.Entry<Long, byte[]> entry : this.cubes.entrySet()) {
+			long address = entry.getKey();
+			consumer.accept(new CubePos(getX(address), getY(address), getZ(address)), entry.getValue());
+		}
+	}
+
+	public int getColumnCount() {
+		return this.columns.size();
+	}
+
+	public int getCubeCount() {
+		return this.cubes.size();
+	}
+
+	@Override
+	public void flush() throws IOException {
+		this.db.commit();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!this.db.isClosed()) {
+			this.db.close();
+		}
+	}
+}
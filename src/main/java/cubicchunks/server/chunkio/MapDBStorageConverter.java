@@ -0,0 +1,77 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import cubicchunks.CubicChunks;
+
+/**
+ * Copies all columns and cubes from a MapDB database into another storage. The data itself is copied as is.
+ */
+class MapDBStorageConverter {
+
+	private static final Logger LOGGER = CubicChunks.LOGGER;
+
+	static void convert(MapDBCubeStorage from, ICubeStorage to) throws IOException {
+		int columnCount = from.getColumnCount();
+		int cubeCount = from.getCubeCount();
+		LOGGER.info("Converting {} columns and {} cubes to the new storage format...", columnCount, cubeCount);
+
+		int[] done = {0};
+		try {
+			from.forEachColumn((pos, data) -> {
+				try {
+					to.writeColumn(pos, data);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				logProgress("columns", ++done[0], columnCount);
+			});
+			done[0] = 0;
+			from.forEachCube((pos, data) -> {
+				try {
+					to.writeCube(pos, data);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				logProgress("cubes", ++done[0], cubeCount);
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		to.flush();
+		LOGGER.info("Storage conversion done");
+	}
+
+	private static void logProgress(String what, int done, int total) {
+		int step = Math.max(total/10, 1);
+		if (done%step == 0 || done == total) {
+			LOGGER.info("Converted {}/{} {} ({}%)", done, total, what, done*100L/Math.max(total, 1));
+		}
+	}
+}
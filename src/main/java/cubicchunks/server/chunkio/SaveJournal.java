@@ -0,0 +1,212 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the data of pending saves, so that saves that were queued but not written to the storage yet
+ * aren't lost if the server stops without saving.
+ * <p>
+ * Each record is the entry type, the address, the data length, a CRC32 of the data and the data itself. Records are
+ * written to the file directly without buffering, so they survive the JVM dying. Reading stops at the first
+ * incomplete or corrupted record, which is what an interrupted append leaves behind.
+ */
+public class SaveJournal implements Closeable {
+
+	public static final byte TYPE_COLUMN = 0;
+	public static final byte TYPE_CUBE = 1;
+
+	private static final int HEADER_SIZE = 1 + 8 + 4 + 4;
+	// anything bigger than this is a corrupted length
+	private static final int MAX_DATA_SIZE = 64*1024*1024;
+
+	private final Path path;
+	private FileChannel channel;
+	private long size;
+
+	public SaveJournal(Path path) throws IOException {
+		this.path = path;
+		this.channel = open(path);
+		this.size = channel.size();
+	}
+
+	private static FileChannel open(Path path) throws IOException {
+		return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * Read all records in the order they were appended. A corrupted tail of the journal is cut off.
+	 *
+	 * @param consumer called for every valid record
+	 * @return the number of records read
+	 */
+	public synchronized int replay(RecordConsumer consumer) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		CRC32 crc = new CRC32();
+		long position = 0;
+		int count = 0;
+		while (position + HEADER_SIZE <= size) {
+			header.clear();
+			readFully(header, position);
+			header.flip();
+			byte type = header.get();
+			long address = header.getLong();
+			int length = header.getInt();
+			int checksum = header.getInt();
+			if ((type != TYPE_COLUMN && type != TYPE_CUBE) || length < 0 || length > MAX_DATA_SIZE
+				|| position + HEADER_SIZE + length > size) {
+				break;
+			}
+			byte[] data = new byte[length];
+			readFully(ByteBuffer.wrap(data), position + HEADER_SIZE);
+			crc.reset();
+			crc.update(data);
+			if ((int) crc.getValue() != checksum) {
+				break;
+			}
+			consumer.accept(type, address, data);
+			position += HEADER_SIZE + length;
+			count++;
+		}
+		if (position < size) {
+			channel.truncate(position);
+			size = position;
+		}
+		return count;
+	}
+
+	/**
+	 * Append a record to the end of the journal
+	 */
+	public synchronized void append(byte type, long address, byte[] data) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + data.length);
+		buffer.put(type).putLong(address).putInt(data.length).putInt((int) crc.getValue()).put(data).flip();
+		writeFully(buffer, size);
+		size += HEADER_SIZE + data.length;
+	}
+
+	/**
+	 * Replace the journal with one that contains only the given records. The new journal is written to a temporary
+	 * file first, so the old records are still there if this is interrupted.
+	 */
+	public synchronized void rewrite(Collection<Record> records) throws IOException {
+		Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+		FileChannel oldChannel = channel;
+		long oldSize = size;
+		channel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+			StandardOpenOption.READ, StandardOpenOption.WRITE);
+		size = 0;
+		try {
+			for (Record record : records) {
+				append(record.type, record.address, record.data);
+			}
+			channel.force(false);
+			channel.close();
+			oldChannel.close();
+			Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			channel = open(path);
+		} catch (IOException e) {
+			// keep using the old journal
+			channel.close();
+			Files.deleteIfExists(tempPath);
+			channel = oldChannel.isOpen() ? oldChannel : open(path);
+			size = oldSize;
+			throw e;
+		}
+	}
+
+	/**
+	 * Remove all records, after everything in the journal has been committed to the storage
+	 */
+	public synchronized void clear() throws IOException {
+		if (size != 0) {
+			channel.truncate(0);
+			size = 0;
+		}
+	}
+
+	/**
+	 * @return the size of the journal in bytes
+	 */
+	public synchronized long size() {
+		return size;
+	}
+
+	/**
+	 * Force all records to the disk
+	 */
+	public synchronized void flush() throws IOException {
+		channel.force(false);
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		channel.close();
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				throw new IOException("Unexpected end of journal at " + position);
+			}
+			position += read;
+		}
+	}
+
+	private void writeFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	public static class Record {
+		final byte type;
+		final long address;
+		final byte[] data;
+
+		public Record(byte type, long address, byte[] data) {
+			this.type = type;
+			this.address = address;
+			this.data = data;
+		}
+	}
+
+	@FunctionalInterface
+	public interface RecordConsumer {
+		void accept(byte type, long address, byte[] data) throws IOException;
+	}
+}
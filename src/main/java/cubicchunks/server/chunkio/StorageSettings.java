@@ -0,0 +1,94 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio;
+
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.world.World;
+import net.minecraft.world.WorldSavedData;
+import net.minecraft.world.storage.MapStorage;
+
+import cubicchunks.CubicChunks;
+import cubicchunks.world.ICubicWorld;
+
+/**
+ * Per-world storage settings. They are initialized from the config when the world is first loaded with cubic chunks
+ * and stay the same after that, unless changed in the world's data file.
+ */
+public class StorageSettings extends WorldSavedData {
+
+	private static final String STORAGE = CubicChunks.MODID + "_storage";
+
+	private CompressionCodec compression = CompressionCodec.fromName(CubicChunks.Config.DEFAULT_IO_COMPRESSION);
+	private int compressionLevel = CubicChunks.Config.DEFAULT_IO_COMPRESSION_LEVEL;
+
+	public StorageSettings() {
+		this(STORAGE);
+	}
+
+	public StorageSettings(String storage) {
+		super(storage);
+	}
+
+	public CompressionCodec getCompression() {
+		return compression;
+	}
+
+	public int getCompressionLevel() {
+		return compressionLevel;
+	}
+
+	@Override
+	public void readFromNBT(NBTTagCompound nbt) {
+		try {
+			this.compression = CompressionCodec.fromName(nbt.getString("compression"));
+		} catch (IllegalArgumentException e) {
+			CubicChunks.LOGGER.error("Invalid compression in world storage settings, using " + this.compression, e);
+		}
+		this.compressionLevel = nbt.getInteger("compressionLevel");
+	}
+
+	@Override
+	public NBTTagCompound writeToNBT(NBTTagCompound nbt) {
+		nbt.setString("compression", this.compression.name().toLowerCase());
+		nbt.setInteger("compressionLevel", this.compressionLevel);
+		return nbt;
+	}
+
+	public static StorageSettings get(ICubicWorld world) {
+		MapStorage storage = ((World) world).getPerWorldStorage();
+		StorageSettings settings = (StorageSettings) storage.getOrLoadData(StorageSettings.class, STORAGE);
+
+		if (settings == null) {
+			settings = new StorageSettings();
+			CubicChunks.Config config = CubicChunks.getConfig();
+			if (config != null) {
+				settings.compression = CompressionCodec.fromName(config.getIoCompression());
+				settings.compressionLevel = config.getIoCompressionLevel();
+			}
+			settings.markDirty();
+			storage.setData(STORAGE, settings);
+		}
+		return settings;
+	}
+}
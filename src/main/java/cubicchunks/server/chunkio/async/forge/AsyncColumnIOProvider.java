@@ -25,6 +25,8 @@ import cubicchunks.CubicChunks;
 import cubicchunks.server.chunkio.CubeIO;
 import cubicchunks.world.column.Column;
 
+import static cubicchunks.util.Coords.cubeToMinBlock;
+
 /**
  * Async loading of columns. Roughly equivalent to Forge's ChunkIOProvider
  */
@@ -51,7 +53,13 @@ class AsyncColumnIOProvider extends AsyncIOProvider<Column> {
 		return column;
 	}
 
-	@Override public void run() {
+	@Override double computePriority() {
+		// horizontal distance only, so a column is never loaded after the cubes waiting for it
+		return AsyncWorldIOExecutor.distanceSqToNearestPlayer(this.colInfo.world,
+			cubeToMinBlock(this.colInfo.x) + 8, cubeToMinBlock(this.colInfo.z) + 8);
+	}
+
+	@Override void load() {
 		synchronized (this) {
 			try {
 				this.column = this.loader.loadColumn(this.colInfo.x, this.colInfo.z);
@@ -21,15 +21,22 @@ package cubicchunks.server.chunkio.async.forge;
 
 import java.io.IOException;
 import java.util.concurrent.CompletableFuture;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
 import javax.annotation.Nonnull;
 
 import cubicchunks.CubicChunks;
 import cubicchunks.server.chunkio.CubeIO;
+import cubicchunks.util.CubePos;
 import cubicchunks.world.column.Column;
 import cubicchunks.world.cube.Cube;
 
+import static cubicchunks.util.Coords.cubeToMinBlock;
+
 /**
  * Async loading of cubes
  */
@@ -46,9 +53,32 @@ class AsyncCubeIOProvider extends AsyncIOProvider<Cube> {
 	}
 
 	@Override
-	public synchronized void run() {
+	double computePriority() {
+		return AsyncWorldIOExecutor.distanceSqToNearestPlayer(this.cubeInfo.world,
+			cubeToMinBlock(this.cubeInfo.x) + 8, cubeToMinBlock(this.cubeInfo.y) + 8, cubeToMinBlock(this.cubeInfo.z) + 8);
+	}
+
+	@Override
+	synchronized void load() {
+		List<AsyncCubeIOProvider> batch = Collections.emptyList();
 		try {
-			cubeData = this.loader.loadCubeAsyncPart(futureColumn.get(), this.cubeInfo.y);
+			Column column = futureColumn.get();
+			// queued cubes right above and below this one are loaded in the same batch
+			batch = AsyncWorldIOExecutor.claimQueuedNeighbours(this.cubeInfo, column);
+			if (batch.isEmpty()) {
+				cubeData = this.loader.loadCubeAsyncPart(column, this.cubeInfo.y);
+			} else {
+				List<CubePos> positions = new ArrayList<>(batch.size() + 1);
+				positions.add(getPos());
+				for (AsyncCubeIOProvider task : batch) {
+					positions.add(task.getPos());
+				}
+				Map<CubePos, CubeIO.PartialCubeData> loaded = this.loader.loadCubesAsyncPart(positions, pos -> column);
+				cubeData = loaded.get(getPos());
+				for (AsyncCubeIOProvider task : batch) {
+					task.complete(loaded.get(task.getPos()));
+				}
+			}
 		} catch (IOException e) {
 			CubicChunks.LOGGER.error("Could not load cube in {} @ ({}, {}, {})", this.cubeInfo.world, this.cubeInfo.x, this.cubeInfo.y, this.cubeInfo.z, e);
 		} catch (InterruptedException e) {
@@ -56,11 +86,37 @@ class AsyncCubeIOProvider extends AsyncIOProvider<Cube> {
 		} catch (ExecutionException e) {
 			throw new RuntimeException(e);
 		} finally {
+			// nothing else will finish the claimed cubes, and the main thread may be waiting for them
+			for (AsyncCubeIOProvider task : batch) {
+				if (!task.isFinished()) {
+					task.complete(null);
+				}
+			}
 			this.finished = true;
 			this.notifyAll();
 		}
 	}
 
+	/**
+	 * Finish a load claimed by another task that loaded this cube together with its own
+	 */
+	synchronized void complete(CubeIO.PartialCubeData data) {
+		this.cubeData = data;
+		this.finished = true;
+		this.notifyAll();
+	}
+
+	/**
+	 * Check if this cube is going to be loaded into the given column
+	 */
+	boolean hasColumn(Column column) {
+		return futureColumn.getNow(null) == column;
+	}
+
+	CubePos getPos() {
+		return new CubePos(this.cubeInfo.x, this.cubeInfo.y, this.cubeInfo.z);
+	}
+
 	// sync stuff
 	@Override
 	public void runSynchronousPart() {
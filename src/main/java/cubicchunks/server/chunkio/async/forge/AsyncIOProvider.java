@@ -20,6 +20,7 @@
 package cubicchunks.server.chunkio.async.forge;
 
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 import javax.annotation.Nullable;
@@ -29,7 +30,15 @@ import javax.annotation.Nullable;
  * after loading finishes
  */
 abstract class AsyncIOProvider<T> implements Runnable {
+	private static final int QUEUED = 0;
+	private static final int RUNNING = 1;
+	private static final int CANCELLED = 2;
+
 	private final ConcurrentLinkedQueue<Consumer<T>> callbacks = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger state = new AtomicInteger(QUEUED);
+	private final long queuedTime = System.nanoTime();
+	// only changed while the task is not in the executor queue, see AsyncWorldIOExecutor.reprioritize
+	private volatile double priority;
 	volatile boolean finished = false;
 
 	/**
@@ -44,10 +53,10 @@ abstract class AsyncIOProvider<T> implements Runnable {
 	/**
 	 * Remove a callback. It will no longer be executed when the load finshes
 	 *
-	 * @param callback The callback to remove
+	 * @param callback The callback to remove, or the callback wrapped by it
 	 */
 	void removeCallback(Consumer<T> callback) {
-		this.callbacks.remove(callback);
+		this.callbacks.removeIf(c -> c == callback || (c instanceof WrappedCallback && ((WrappedCallback<?>) c).wraps(callback)));
 	}
 
 	/**
@@ -82,6 +91,62 @@ abstract class AsyncIOProvider<T> implements Runnable {
 		return !callbacks.isEmpty();
 	}
 
+	/**
+	 * Run the asynchronous part of the load, unless it has already been started or it has been cancelled
+	 */
+	@Override
+	public final void run() {
+		if (tryClaim()) {
+			AsyncWorldIOExecutor.recordQueueLatency(System.nanoTime() - queuedTime);
+			load();
+		}
+	}
+
+	/**
+	 * Take over running the asynchronous part. If this returns true the caller has to call {@link #load()}, otherwise
+	 * it's already running, finished or cancelled.
+	 *
+	 * @return <code>true</code> if the calling thread is now responsible for loading
+	 */
+	boolean tryClaim() {
+		return state.compareAndSet(QUEUED, RUNNING);
+	}
+
+	/**
+	 * Cancel this load if it hasn't started yet. A cancelled task stays in the executor queue and is skipped when
+	 * it's polled, which is much cheaper than removing it from the queue.
+	 *
+	 * @return <code>true</code> if the load will not run
+	 */
+	boolean cancel() {
+		return state.compareAndSet(QUEUED, CANCELLED);
+	}
+
+	boolean isCancelled() {
+		return state.get() == CANCELLED;
+	}
+
+	double getPriority() {
+		return priority;
+	}
+
+	/**
+	 * Recalculate the priority. Must be called from the main thread, and only when the task isn't in the queue.
+	 */
+	void updatePriority() {
+		this.priority = computePriority();
+	}
+
+	/**
+	 * Calculate the priority of this load, lower values are loaded first.
+	 */
+	abstract double computePriority();
+
+	/**
+	 * Do the asynchronous part of the load.
+	 */
+	abstract void load();
+
 	/**
 	 * Finalize the loading operating synchronously from the main thread.
 	 */
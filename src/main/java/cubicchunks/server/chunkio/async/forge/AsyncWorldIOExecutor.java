@@ -21,18 +21,26 @@ package cubicchunks.server.chunkio.async.forge;
 
 import com.google.common.collect.Maps;
 
-import net.minecraft.server.MinecraftServer;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.util.math.ChunkPos;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
-import net.minecraftforge.fml.common.gameevent.PlayerEvent;
 import net.minecraftforge.fml.common.gameevent.TickEvent;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 import javax.annotation.Nullable;
@@ -40,6 +48,7 @@ import javax.annotation.Nullable;
 import cubicchunks.CubicChunks;
 import cubicchunks.server.CubeProviderServer;
 import cubicchunks.server.chunkio.CubeIO;
+import cubicchunks.util.CubePos;
 import cubicchunks.world.ICubicWorld;
 import cubicchunks.world.IProviderExtras;
 import cubicchunks.world.column.Column;
@@ -51,15 +60,30 @@ import cubicchunks.world.cube.Cube;
  */
 public class AsyncWorldIOExecutor {
 
-	private static final int BASE_THREADS = 1;
-	private static final int PLAYERS_PER_THREAD = 50;
+	private static final int MIN_THREADS = 1;
+	private static final int MAX_THREADS = Math.max(MIN_THREADS, Runtime.getRuntime().availableProcessors() - 1);
+	// the pool grows while loads wait in the queue longer than this on average, and shrinks when they wait much less
+	private static final long TARGET_QUEUE_LATENCY = TimeUnit.MILLISECONDS.toNanos(50);
+	private static final long ADJUST_INTERVAL = TimeUnit.MILLISECONDS.toNanos(500);
+	private static final long REPRIORITIZE_INTERVAL = TimeUnit.MILLISECONDS.toNanos(250);
+	// how many queued cubes above and below a cube are loaded in the same batch
+	private static final int MAX_BATCH_RADIUS = 4;
 
 	private static final Map<QueuedCube, AsyncCubeIOProvider> cubeTasks = Maps.newConcurrentMap();
 	private static final Map<QueuedColumn, AsyncColumnIOProvider> columnTasks = Maps.newConcurrentMap();
 
+	// exponential moving average of the time between queueing a load and starting it, in nanoseconds
+	private static final AtomicLong queueLatency = new AtomicLong();
+	private static long lastReprioritize = System.nanoTime();
+	private static long lastAdjust = System.nanoTime();
+
+	// loads closest to a player come first. The priorities are only changed while the tasks are out of the queue
+	private static final PriorityBlockingQueue<Runnable> queue = new PriorityBlockingQueue<>(64,
+		Comparator.comparingDouble(task -> ((AsyncIOProvider<?>) task).getPriority()));
+
 	private static final AtomicInteger threadCounter = new AtomicInteger();
-	private static final ThreadPoolExecutor pool = new ThreadPoolExecutor(BASE_THREADS, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
-		new LinkedBlockingQueue<>(),
+	private static final ThreadPoolExecutor pool = new ThreadPoolExecutor(MIN_THREADS, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
+		queue,
 
 		// Sponge start: Use lambda
 		r -> {
@@ -98,6 +122,89 @@ public class AsyncWorldIOExecutor {
 		return task.get();
 	}
 
+	/**
+	 * Load many cubes directly, in one batch. Cubes that are already queued and haven't started loading yet are
+	 * loaded in the batch too, their callbacks are called as usual.
+	 *
+	 * @param world The world in which the cubes lie
+	 * @param loader The file loader for cubes
+	 * @param cache the cube cache used to load cubes and columns
+	 * @param positions the cubes to load, none of them can be loaded already
+	 *
+	 * @return The loaded cubes, cubes that are not present or failed to load are missing
+	 */
+	public static Map<CubePos, Cube> syncCubesLoad(ICubicWorld world, CubeIO loader, CubeProviderServer cache, Collection<CubePos> positions) {
+		Map<ChunkPos, Column> columns = new HashMap<>();
+		Map<CubePos, AsyncCubeIOProvider> batch = new HashMap<>();
+		List<AsyncCubeIOProvider> tasks = new ArrayList<>(positions.size());
+		for (CubePos pos : positions) {
+			ChunkPos chunkPos = pos.chunkPos();
+			if (!columns.containsKey(chunkPos)) {
+				// computeIfAbsent would try again for every cube of a missing column
+				columns.put(chunkPos, cache.loadChunk(chunkPos.chunkXPos, chunkPos.chunkZPos));
+			}
+			if (columns.get(chunkPos) == null) {
+				continue; // no column, so there can't be any cubes in it
+			}
+			QueuedCube key = new QueuedCube(pos.getX(), pos.getY(), pos.getZ(), world);
+			AsyncCubeIOProvider task = cubeTasks.remove(key); // Remove task because we will call the sync callbacks directly
+			if (task == null) {
+				task = new AsyncCubeIOProvider(key, loader);
+				task.tryClaim();
+				batch.put(pos, task);
+			} else if (task.tryClaim()) {
+				batch.put(pos, task);
+			} else {
+				runTask(task); // already loading, wait for it
+			}
+			tasks.add(task);
+		}
+
+		Map<CubePos, CubeIO.PartialCubeData> loaded;
+		try {
+			loaded = loader.loadCubesAsyncPart(batch.keySet(), pos -> columns.get(pos.chunkPos()));
+		} catch (IOException e) {
+			CubicChunks.LOGGER.error("Could not load {} cubes in {}", batch.size(), world, e);
+			loaded = Collections.emptyMap();
+		}
+		for (Map.Entry<CubePos, AsyncCubeIOProvider> entry : batch.entrySet()) {
+			entry.getValue().complete(loaded.get(entry.getKey()));
+		}
+
+		Map<CubePos, Cube> cubes = new HashMap<>();
+		for (AsyncCubeIOProvider task : tasks) {
+			task.runSynchronousPart();
+			Cube cube = task.get();
+			if (cube != null) {
+				cubes.put(task.getPos(), cube);
+			}
+		}
+		return cubes;
+	}
+
+	/**
+	 * Claim the queued loads of cubes right above and below the given one, so that they can be loaded in one batch.
+	 * Stops at the first cube in each direction that isn't queued or already started loading.
+	 *
+	 * @param cube The cube being loaded
+	 * @param column The column the cube is loaded into
+	 *
+	 * @return The claimed loads, the caller has to complete all of them
+	 */
+	static List<AsyncCubeIOProvider> claimQueuedNeighbours(QueuedCube cube, Column column) {
+		List<AsyncCubeIOProvider> claimed = new ArrayList<>();
+		for (int dir = -1; dir <= 1; dir += 2) {
+			for (int i = 1; i <= MAX_BATCH_RADIUS; i++) {
+				AsyncCubeIOProvider task = cubeTasks.get(new QueuedCube(cube.x, cube.y + i*dir, cube.z, cube.world));
+				if (task == null || !task.hasColumn(column) || !task.tryClaim()) {
+					break;
+				}
+				claimed.add(task);
+			}
+		}
+		return claimed;
+	}
+
 	/**
 	 * Load a column, directly
 	 *
@@ -125,7 +232,7 @@ public class AsyncWorldIOExecutor {
 	 * Runs the async part in current thread or blocks until already running async part is finished
 	 */
 	private static void runTask(AsyncIOProvider task) {
-		if (!pool.remove(task)) // If it wasn't in the pool, and run hasn't isFinished, then wait for the async thread.
+		if (!task.tryClaim()) // If it was already started, and run hasn't isFinished, then wait for the async thread.
 		{
 			synchronized (task) // Warn incorrect - task shared via map
 			{
@@ -139,8 +246,8 @@ public class AsyncWorldIOExecutor {
 				}
 			}
 		} else {
-			// If the task was not run yet we still need to load the Cube
-			task.run();
+			// If the task was not run yet we still need to load the Cube. The queued task will be skipped.
+			task.load();
 		}
 	}
 
@@ -165,15 +272,15 @@ public class AsyncWorldIOExecutor {
 		QueuedCube key = new QueuedCube(x, y, z, world);
 		AsyncCubeIOProvider task = cubeTasks.get(key);
 
-		if (task == null) {
-			task = new AsyncCubeIOProvider(key, loader);
-			task.addCallback(runnable); // Add before calling execute for thread safety
-			cubeTasks.put(key, task);
-			pool.execute(task);
-		} else {
+		if (task != null) {
 			task.addCallback(runnable);
+			return;
 		}
+		task = new AsyncCubeIOProvider(key, loader);
+		task.addCallback(runnable); // Add before calling execute for thread safety
+		cubeTasks.put(key, task);
 
+		// request the column before queueing the cube, so that a worker doesn't wait for a column that isn't queued yet
 		Column loadedColumn;
 		if ((loadedColumn = cache.getLoadedColumn(x, z)) == null) {
 			cache.asyncGetColumn(x, z, IProviderExtras.Requirement.LIGHT, task::setColumn);
@@ -182,6 +289,8 @@ public class AsyncWorldIOExecutor {
 			task.setColumn(loadedColumn);
 		}
 
+		task.updatePriority();
+		pool.execute(task);
 	}
 
 	/**
@@ -200,6 +309,7 @@ public class AsyncWorldIOExecutor {
 			task = new AsyncColumnIOProvider(key, loader);
 			task.addCallback(runnable); // Add before calling execute for thread safety
 			columnTasks.put(key, task);
+			task.updatePriority();
 			pool.execute(task);
 		} else {
 			task.addCallback(runnable);
@@ -228,7 +338,7 @@ public class AsyncWorldIOExecutor {
 		// TODO this is not threadsafe
 		if (!task.hasCallbacks()) {
 			cubeTasks.remove(key);
-			pool.remove(task);
+			task.cancel();
 		}
 	}
 
@@ -252,7 +362,7 @@ public class AsyncWorldIOExecutor {
 
 		if (!task.hasCallbacks()) {
 			columnTasks.remove(key);
-			pool.remove(task);
+			task.cancel();
 		}
 
 		//TODO: remove all queued cube tasks for that column
@@ -262,6 +372,16 @@ public class AsyncWorldIOExecutor {
 	 * Run a synchronous tick, finishing the loading process for load tasks that are ready
 	 */
 	public static void tick() {
+		long now = System.nanoTime();
+		if (now - lastReprioritize > REPRIORITIZE_INTERVAL) {
+			lastReprioritize = now;
+			reprioritize();
+		}
+		if (now - lastAdjust > ADJUST_INTERVAL) {
+			lastAdjust = now;
+			adjustPoolSize();
+		}
+
 		Iterator<AsyncCubeIOProvider> cubeItr = cubeTasks.values().iterator();
 		while (cubeItr.hasNext()) {
 			AsyncCubeIOProvider task = cubeItr.next();
@@ -284,30 +404,68 @@ public class AsyncWorldIOExecutor {
 	}
 
 	/**
-	 * Resize async loading pool thread count when players join or leave
+	 * Recalculate the priorities of all queued loads, as players have moved since they were queued. Cancelled loads
+	 * are dropped from the queue here.
+	 */
+	private static void reprioritize() {
+		List<Runnable> tasks = new ArrayList<>(queue.size());
+		queue.drainTo(tasks);
+		tasks.removeIf(task -> ((AsyncIOProvider<?>) task).isCancelled());
+		for (Runnable task : tasks) {
+			((AsyncIOProvider<?>) task).updatePriority();
+		}
+		queue.addAll(tasks);
+	}
+
+	/**
+	 * Resize async loading pool thread count, between one thread and one less than the number of cores, depending on
+	 * how long loads wait in the queue
+	 */
+	private static void adjustPoolSize() {
+		long latency = queueLatency.get();
+		int threads = pool.getCorePoolSize();
+		if (latency > TARGET_QUEUE_LATENCY && !queue.isEmpty() && threads < MAX_THREADS) {
+			pool.setCorePoolSize(threads + 1);
+		} else if (latency < TARGET_QUEUE_LATENCY/4 && threads > MIN_THREADS) {
+			pool.setCorePoolSize(threads - 1);
+		}
+	}
+
+	static void recordQueueLatency(long nanos) {
+		queueLatency.accumulateAndGet(nanos, (average, latency) -> average + (latency - average)/8);
+	}
+
+	/**
+	 * Get the squared distance from the given position to the closest player in the world
+	 *
+	 * @return the squared distance, or {@link Double#MAX_VALUE} if there are no players
+	 */
+	static double distanceSqToNearestPlayer(ICubicWorld world, double x, double y, double z) {
+		double min = Double.MAX_VALUE;
+		for (EntityPlayer player : world.getPlayerEntities()) {
+			min = Math.min(min, player.getDistanceSq(x, y, z));
+		}
+		return min;
+	}
+
+	/**
+	 * Get the squared horizontal distance from the given position to the closest player in the world
 	 *
-	 * @param players New player count
+	 * @return the squared distance, or {@link Double#MAX_VALUE} if there are no players
 	 */
-	private static void adjustPoolSize(int players) {
-		pool.setCorePoolSize(Math.max(BASE_THREADS, players/PLAYERS_PER_THREAD));
+	static double distanceSqToNearestPlayer(ICubicWorld world, double x, double z) {
+		double min = Double.MAX_VALUE;
+		for (EntityPlayer player : world.getPlayerEntities()) {
+			double dx = player.posX - x;
+			double dz = player.posZ - z;
+			min = Math.min(min, dx*dx + dz*dz);
+		}
+		return min;
 	}
 
 	public static void registerListeners() {
 		MinecraftForge.EVENT_BUS.register(new Object() {
 
-			// Resize thread pool based on player count
-			@SubscribeEvent
-			public void onPlayerLoggedIn(PlayerEvent.PlayerLoggedInEvent evt) {
-				MinecraftServer server = evt.player.getServer();
-				if (server != null) adjustPoolSize(server.getCurrentPlayerCount());
-			}
-
-			@SubscribeEvent
-			public void onPlayerLoggedOut(PlayerEvent.PlayerLoggedOutEvent evt) {
-				MinecraftServer server = evt.player.getServer();
-				if (server != null) adjustPoolSize(server.getCurrentPlayerCount());
-			}
-
 			// Sync completion of loading
 			@SubscribeEvent
 			public void onWorldTick(TickEvent.WorldTickEvent evt) {
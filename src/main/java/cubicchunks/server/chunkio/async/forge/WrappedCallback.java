@@ -0,0 +1,52 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio.async.forge;
+
+import java.util.function.Consumer;
+
+/**
+ * A load callback that does some work before calling another callback. Dropping a queued load with the wrapped
+ * callback also drops this one.
+ */
+public class WrappedCallback<T> implements Consumer<T> {
+	private final Consumer<T> wrapped;
+	private final Consumer<T> callback;
+
+	/**
+	 * @param wrapped The callback that identifies this one when dropping a queued load
+	 * @param callback The callback that is actually run, usually calls <code>wrapped</code>
+	 */
+	public WrappedCallback(Consumer<T> wrapped, Consumer<T> callback) {
+		this.wrapped = wrapped;
+		this.callback = callback;
+	}
+
+	@Override public void accept(T value) {
+		callback.accept(value);
+	}
+
+	boolean wraps(Consumer<?> other) {
+		return wrapped == other;
+	}
+}
@@ -0,0 +1,211 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio.region;
+
+import net.minecraft.util.math.ChunkPos;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import cubicchunks.server.chunkio.ICubeStorage;
+import cubicchunks.util.CubePos;
+
+/**
+ * Stores cubes in region files of 16x16x16 cubes and columns in region files of 32x32 columns.
+ * <p>
+ * Unlike a single database file, a write only touches the region file it belongs to and space freed by
+ * rewritten entries is reused, so the storage doesn't grow unbounded and corruption is limited to one region.
+ */
+public class RegionCubeStorage implements ICubeStorage {
+
+	private static final int CUBE_REGION_BITS = 4;
+	private static final int CUBE_REGION_SIZE = 1 << CUBE_REGION_BITS;
+	private static final int CUBE_REGION_MASK = CUBE_REGION_SIZE - 1;
+
+	private static final int COLUMN_REGION_BITS = 5;
+	private static final int COLUMN_REGION_SIZE = 1 << COLUMN_REGION_BITS;
+	private static final int COLUMN_REGION_MASK = COLUMN_REGION_SIZE - 1;
+
+	private static final int MAX_OPEN_FILES = 256;
+
+	private final Path cubeDir;
+	private final Path columnDir;
+
+	// access ordered, the least recently used region is closed when there are too many open files
+	private final Map<Path, RegionFile> openFiles = new LinkedHashMap<>(MAX_OPEN_FILES, 0.75f, true);
+
+	public RegionCubeStorage(File directory) throws IOException {
+		this.cubeDir = directory.toPath().resolve("region3d");
+		this.columnDir = directory.toPath().resolve("region2d");
+		Files.createDirectories(cubeDir);
+		Files.createDirectories(columnDir);
+	}
+
+	/**
+	 * Check whether region storage has already been created in the given directory
+	 */
+	public static boolean exists(File directory) {
+		return new File(directory, "region3d").isDirectory();
+	}
+
+	@Nullable
+	@Override
+	public synchronized byte[] readColumn(ChunkPos pos) throws IOException {
+		RegionFile region = getColumnRegion(pos, false);
+		return region == null ? null : region.read(columnIndex(pos));
+	}
+
+	@Nullable
+	@Override
+	public synchronized byte[] readCube(CubePos pos) throws IOException {
+		RegionFile region = getCubeRegion(pos, false);
+		return region == null ? null : region.read(cubeIndex(pos));
+	}
+
+	@Override
+	public synchronized Map<CubePos, byte[]> readCubes(Collection<CubePos> positions) throws IOException {
+		// group the cubes by region, then read each region front to back
+		Map<Path, List<CubePos>> byRegion = new HashMap<>();
+		for (CubePos pos : positions) {
+			byRegion.computeIfAbsent(cubeRegionPath(pos), p -> new ArrayList<>()).add(pos);
+		}
+		Map<CubePos, byte[]> result = new HashMap<>(positions.size());
+		for (Map.Entry<Path, List<CubePos>> entry : byRegion.entrySet()) {
+			RegionFile region = getRegion(entry.getKey(), CUBE_REGION_SIZE*CUBE_REGION_SIZE*CUBE_REGION_SIZE, false);
+			if (region == null) {
+				continue;
+			}
+			List<CubePos> cubes = entry.getValue();
+			cubes.sort(Comparator.comparingInt(pos -> region.getSectorOffset(cubeIndex(pos))));
+			for (CubePos pos : cubes) {
+				byte[] data = region.read(cubeIndex(pos));
+				if (data != null) {
+					result.put(pos, data);
+				}
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public synchronized void writeColumn(ChunkPos pos, byte[] data) throws IOException {
+		getColumnRegion(pos, true).write(columnIndex(pos), data);
+	}
+
+	@Override
+	public synchronized void writeCube(CubePos pos, byte[] data) throws IOException {
+		getCubeRegion(pos, true).write(cubeIndex(pos), data);
+	}
+
+	@Override
+	public synchronized void flush() throws IOException {
+		IOException exception = null;
+		for (RegionFile region : openFiles.values()) {
+			try {
+				region.flush();
+			} catch (IOException e) {
+				exception = e;
+			}
+		}
+		if (exception != null) {
+			throw exception;
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		IOException exception = null;
+		for (RegionFile region : openFiles.values()) {
+			try {
+				region.close();
+			} catch (IOException e) {
+				exception = e;
+			}
+		}
+		openFiles.clear();
+		if (exception != null) {
+			throw exception;
+		}
+	}
+
+	@Nullable
+	private RegionFile getCubeRegion(CubePos pos, boolean create) throws IOException {
+		return getRegion(cubeRegionPath(pos), CUBE_REGION_SIZE*CUBE_REGION_SIZE*CUBE_REGION_SIZE, create);
+	}
+
+	private Path cubeRegionPath(CubePos pos) {
+		String name = String.format("%d.%d.%d.3dr",
+			pos.getX() >> CUBE_REGION_BITS, pos.getY() >> CUBE_REGION_BITS, pos.getZ() >> CUBE_REGION_BITS);
+		return cubeDir.resolve(name);
+	}
+
+	@Nullable
+	private RegionFile getColumnRegion(ChunkPos pos, boolean create) throws IOException {
+		String name = String.format("%d.%d.2dr",
+			pos.chunkXPos >> COLUMN_REGION_BITS, pos.chunkZPos >> COLUMN_REGION_BITS);
+		return getRegion(columnDir.resolve(name), COLUMN_REGION_SIZE*COLUMN_REGION_SIZE, create);
+	}
+
+	@Nullable
+	private RegionFile getRegion(Path path, int entryCount, boolean create) throws IOException {
+		RegionFile region = openFiles.get(path);
+		if (region != null) {
+			return region;
+		}
+		if (!create && !Files.exists(path)) {
+			return null;
+		}
+		if (openFiles.size() >= MAX_OPEN_FILES) {
+			Iterator<RegionFile> it = openFiles.values().iterator();
+			RegionFile eldest = it.next();
+			it.remove();
+			eldest.close();
+		}
+		region = new RegionFile(path, entryCount);
+		openFiles.put(path, region);
+		return region;
+	}
+
+	private static int cubeIndex(CubePos pos) {
+		return (pos.getX() & CUBE_REGION_MASK) << (CUBE_REGION_BITS*2)
+			| (pos.getZ() & CUBE_REGION_MASK) << CUBE_REGION_BITS
+			| (pos.getY() & CUBE_REGION_MASK);
+	}
+
+	private static int columnIndex(ChunkPos pos) {
+		return (pos.chunkXPos & COLUMN_REGION_MASK) << COLUMN_REGION_BITS | (pos.chunkZPos & COLUMN_REGION_MASK);
+	}
+}
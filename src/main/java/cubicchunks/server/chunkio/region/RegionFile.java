@@ -0,0 +1,263 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server.chunkio.region;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+import javax.annotation.Nullable;
+
+/**
+ * A file holding a fixed number of variable length entries.
+ * <p>
+ * The file starts with a header containing the location of each entry (sector offset and length in bytes,
+ * 0 if the entry doesn't exist), followed by entry data aligned to {@link #SECTOR_SIZE} byte sectors.
+ * <p>
+ * New data is always written to free sectors. The header is updated only in {@link #flush()}, after the data has
+ * been forced to the disk, and the old sectors can be reused only after the updated header has been forced too. So
+ * after a crash the header on disk always points to complete data, either the previous or the new version.
+ */
+public class RegionFile implements Closeable {
+
+	public static final int SECTOR_SIZE = 512;
+	private static final int LOCATION_SIZE = 8;
+
+	private final FileChannel channel;
+	private final int entryCount;
+	private final int headerSectors;
+	private final int[] sectorOffsets;
+	private final int[] lengths;
+	private final BitSet usedSectors = new BitSet();
+	// sectors of replaced and removed entries, the header on disk may still point to them until the next flush
+	private final BitSet sectorsToFree = new BitSet();
+	// entries whose location hasn't been written to the header yet
+	private final BitSet changedLocations = new BitSet();
+	private boolean dirty;
+
+	public RegionFile(Path path, int entryCount) throws IOException {
+		this.entryCount = entryCount;
+		this.headerSectors = sectorsFor(entryCount*LOCATION_SIZE);
+		this.sectorOffsets = new int[entryCount];
+		this.lengths = new int[entryCount];
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			readHeader();
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private void readHeader() throws IOException {
+		usedSectors.set(0, headerSectors);
+		long size = channel.size();
+		if (size < entryCount*LOCATION_SIZE) {
+			// new or truncated file, start with empty header
+			ByteBuffer empty = ByteBuffer.allocate(headerSectors*SECTOR_SIZE);
+			writeFully(empty, 0);
+			dirty = true;
+			return;
+		}
+		ByteBuffer header = ByteBuffer.allocate(entryCount*LOCATION_SIZE);
+		readFully(header, 0);
+		header.flip();
+		long fileSectors = (size + SECTOR_SIZE - 1)/SECTOR_SIZE;
+		for (int i = 0; i < entryCount; i++) {
+			int offset = header.getInt();
+			int length = header.getInt();
+			if (offset == 0 || length <= 0) {
+				continue;
+			}
+			int sectors = sectorsFor(length);
+			int nextUsed = usedSectors.nextSetBit(offset);
+			// ignore corrupted locations instead of failing to read the whole region
+			if (offset < headerSectors || offset + sectors > fileSectors || (nextUsed >= 0 && nextUsed < offset + sectors)) {
+				continue;
+			}
+			sectorOffsets[i] = offset;
+			lengths[i] = length;
+			usedSectors.set(offset, offset + sectors);
+		}
+	}
+
+	public int getEntryCount() {
+		return entryCount;
+	}
+
+	public synchronized boolean hasEntry(int index) {
+		return sectorOffsets[index] != 0;
+	}
+
+	/**
+	 * Get the sector where the data of an entry starts, reading entries in this order avoids seeking back and forth
+	 *
+	 * @param index the entry index
+	 * @return the sector offset, or 0 if there is no data for the entry
+	 */
+	public synchronized int getSectorOffset(int index) {
+		return sectorOffsets[index];
+	}
+
+	/**
+	 * Read the data of an entry
+	 *
+	 * @param index the entry index
+	 * @return the data of the entry, or null if there is no data for the entry
+	 */
+	@Nullable
+	public synchronized byte[] read(int index) throws IOException {
+		int offset = sectorOffsets[index];
+		if (offset == 0) {
+			return null;
+		}
+		byte[] data = new byte[lengths[index]];
+		readFully(ByteBuffer.wrap(data), (long) offset*SECTOR_SIZE);
+		return data;
+	}
+
+	/**
+	 * Write the data of an entry, replacing the previous data. The previous data stays on disk until the next
+	 * {@link #flush()}.
+	 *
+	 * @param index the entry index
+	 * @param data the data to write, can't be empty
+	 */
+	public synchronized void write(int index, byte[] data) throws IOException {
+		if (data.length == 0) {
+			throw new IllegalArgumentException("Can't write empty entry " + index);
+		}
+		int sectors = sectorsFor(data.length);
+		int offset = allocate(sectors);
+		writeFully(ByteBuffer.wrap(data), (long) offset*SECTOR_SIZE);
+
+		int oldOffset = sectorOffsets[index];
+		if (oldOffset != 0) {
+			sectorsToFree.set(oldOffset, oldOffset + sectorsFor(lengths[index]));
+		}
+		sectorOffsets[index] = offset;
+		lengths[index] = data.length;
+		changedLocations.set(index);
+		dirty = true;
+	}
+
+	/**
+	 * Remove the data of an entry
+	 *
+	 * @param index the entry index
+	 */
+	public synchronized void remove(int index) throws IOException {
+		int oldOffset = sectorOffsets[index];
+		if (oldOffset == 0) {
+			return;
+		}
+		sectorsToFree.set(oldOffset, oldOffset + sectorsFor(lengths[index]));
+		sectorOffsets[index] = 0;
+		lengths[index] = 0;
+		changedLocations.set(index);
+		dirty = true;
+	}
+
+	/**
+	 * Force all written data to the disk, then update the header
+	 */
+	public synchronized void flush() throws IOException {
+		if (!dirty) {
+			return;
+		}
+		// the data has to be on the disk before the header points to it
+		channel.force(false);
+		if (!changedLocations.isEmpty()) {
+			for (int i = changedLocations.nextSetBit(0); i >= 0; i = changedLocations.nextSetBit(i + 1)) {
+				writeLocation(i, sectorOffsets[i], lengths[i]);
+			}
+			changedLocations.clear();
+			channel.force(false);
+		}
+		// nothing on the disk points to the old sectors anymore
+		usedSectors.andNot(sectorsToFree);
+		sectorsToFree.clear();
+		dirty = false;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (!channel.isOpen()) {
+			return;
+		}
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Find the first free range of sectors big enough and mark it as used. Sectors of replaced entries are still
+	 * marked as used until the next flush, so they will never be overwritten before that.
+	 */
+	private int allocate(int sectors) {
+		int start = usedSectors.nextClearBit(headerSectors);
+		while (true) {
+			int end = usedSectors.nextSetBit(start);
+			if (end < 0 || end - start >= sectors) {
+				break;
+			}
+			start = usedSectors.nextClearBit(end);
+		}
+		usedSectors.set(start, start + sectors);
+		return start;
+	}
+
+	private void writeLocation(int index, int offset, int length) throws IOException {
+		ByteBuffer location = ByteBuffer.allocate(LOCATION_SIZE);
+		location.putInt(offset).putInt(length).flip();
+		writeFully(location, (long) index*LOCATION_SIZE);
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				throw new EOFException("Unexpected end of region file at " + position);
+			}
+			position += read;
+		}
+	}
+
+	private void writeFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	private static int sectorsFor(int bytes) {
+		return (bytes + SECTOR_SIZE - 1)/SECTOR_SIZE;
+	}
+}
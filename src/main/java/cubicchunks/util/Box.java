@@ -37,6 +37,13 @@ public class Box {
 		this.z2 = z2;
 	}
 
+	/**
+	 * @return box containing the negated points of this box
+	 */
+	public Box negate() {
+		return new Box(-x2, -y2, -z2, -x1, -y1, -z1);
+	}
+
 	public void forEachPoint(XYZFunction function) {
 		for (int x = x1; x <= x2; x++) {
 			for (int y = y1; y <= y2; y++) {
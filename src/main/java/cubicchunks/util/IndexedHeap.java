@@ -0,0 +1,226 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.util;
+
+import com.carrotsearch.hppc.ObjectIntIdentityHashMap;
+import com.carrotsearch.hppc.ObjectIntMap;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+
+import javax.annotation.Nullable;
+
+/**
+ * A binary min-heap of values with cached priorities, where the lowest priority comes first. Values are compared by
+ * identity, and each value is in the heap at most once. The position of each value is tracked, so removing a value or
+ * changing its priority takes O(log n) time.
+ *
+ * @param <T> the type of values in this heap
+ */
+public class IndexedHeap<T> {
+
+	private Object[] values = new Object[16];
+	private double[] priorities = new double[16];
+	private int size = 0;
+	private final ObjectIntMap<T> indices = new ObjectIntIdentityHashMap<>();
+
+	/**
+	 * Add a value to this heap, or change its priority if it's already in it
+	 *
+	 * @param value the value
+	 * @param priority the priority of the value, lower priorities come first
+	 */
+	public void add(T value, double priority) {
+		int index = indices.getOrDefault(value, -1);
+		if (index >= 0) {
+			double oldPriority = priorities[index];
+			priorities[index] = priority;
+			if (priority < oldPriority) {
+				siftUp(index);
+			} else {
+				siftDown(index);
+			}
+			return;
+		}
+		if (size == values.length) {
+			values = Arrays.copyOf(values, size*2);
+			priorities = Arrays.copyOf(priorities, size*2);
+		}
+		set(size, value, priority);
+		size++;
+		siftUp(size - 1);
+	}
+
+	/**
+	 * @param value the value to check for
+	 *
+	 * @return {@code true} if this heap contains {@code value}
+	 */
+	public boolean contains(T value) {
+		return indices.containsKey(value);
+	}
+
+	/**
+	 * Remove a value from this heap if present
+	 *
+	 * @param value the value to remove
+	 *
+	 * @return {@code true} if the value was removed
+	 */
+	public boolean remove(T value) {
+		int index = indices.getOrDefault(value, -1);
+		if (index < 0) {
+			return false;
+		}
+		removeAt(index);
+		return true;
+	}
+
+	/**
+	 * @return the value with the lowest priority, or {@code null} if this heap is empty
+	 */
+	@Nullable
+	public T peek() {
+		return size == 0 ? null : valueAt(0);
+	}
+
+	/**
+	 * @return the priority of the value returned by {@link #peek()}
+	 *
+	 * @throws NoSuchElementException if this heap is empty
+	 */
+	public double peekPriority() {
+		if (size == 0) {
+			throw new NoSuchElementException();
+		}
+		return priorities[0];
+	}
+
+	/**
+	 * Remove and return the value with the lowest priority
+	 *
+	 * @return the removed value
+	 *
+	 * @throws NoSuchElementException if this heap is empty
+	 */
+	public T poll() {
+		if (size == 0) {
+			throw new NoSuchElementException();
+		}
+		T value = valueAt(0);
+		removeAt(0);
+		return value;
+	}
+
+	/**
+	 * Recalculate the priorities of some values, then restore the heap order in O(n) time. This is faster than
+	 * changing priorities one by one when many of them change.
+	 *
+	 * @param needsUpdate selects the values whose priority may have changed
+	 * @param priority calculates the new priority of a value
+	 */
+	public void updatePriorities(Predicate<? super T> needsUpdate, ToDoubleFunction<? super T> priority) {
+		boolean changed = false;
+		for (int i = 0; i < size; i++) {
+			T value = valueAt(i);
+			if (needsUpdate.test(value)) {
+				double newPriority = priority.applyAsDouble(value);
+				changed |= newPriority != priorities[i];
+				priorities[i] = newPriority;
+			}
+		}
+		if (changed) {
+			for (int i = size/2 - 1; i >= 0; i--) {
+				siftDown(i);
+			}
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	private void removeAt(int index) {
+		indices.remove(valueAt(index));
+		size--;
+		if (index == size) {
+			values[size] = null;
+			return;
+		}
+		// move the last value into the hole, it may need to go either way
+		set(index, valueAt(size), priorities[size]);
+		values[size] = null;
+		siftDown(index);
+		siftUp(index);
+	}
+
+	private void siftUp(int index) {
+		T value = valueAt(index);
+		double priority = priorities[index];
+		while (index > 0) {
+			int parent = (index - 1) >>> 1;
+			if (priorities[parent] <= priority) {
+				break;
+			}
+			set(index, valueAt(parent), priorities[parent]);
+			index = parent;
+		}
+		set(index, value, priority);
+	}
+
+	private void siftDown(int index) {
+		T value = valueAt(index);
+		double priority = priorities[index];
+		int half = size >>> 1;
+		while (index < half) {
+			int child = 2*index + 1;
+			if (child + 1 < size && priorities[child + 1] < priorities[child]) {
+				child++;
+			}
+			if (priority <= priorities[child]) {
+				break;
+			}
+			set(index, valueAt(child), priorities[child]);
+			index = child;
+		}
+		set(index, value, priority);
+	}
+
+	private void set(int index, T value, double priority) {
+		values[index] = value;
+		priorities[index] = priority;
+		indices.put(value, index);
+	}
+
+	@SuppressWarnings("unchecked")
+	private T valueAt(int index) {
+		return (T) values[index];
+	}
+}
@@ -27,10 +27,22 @@ import com.google.common.collect.Lists;
 
 import java.util.List;
 
+import javax.annotation.Nullable;
+
 public class TicketList {
 
 	private int tickRefs = 0;
 	private List<ITicket> tickets = Lists.newArrayListWithCapacity(1);
+	@Nullable private Runnable onEmpty;
+
+	/**
+	 * Sets the action to run when the last ticket is removed from this ticket list
+	 *
+	 * @param onEmpty the action to run, or {@code null} to do nothing
+	 */
+	public void setOnEmpty(@Nullable Runnable onEmpty) {
+		this.onEmpty = onEmpty;
+	}
 
 	/**
 	 * Removes a ticket form this ticket list if present
@@ -38,9 +50,15 @@ public class TicketList {
 	 * @param ticket the ticket to remove
 	 */
 	public void remove(ITicket ticket) {
-		if (tickets.remove(ticket) && ticket.shouldTick()) {
+		if (!tickets.remove(ticket)) {
+			return;
+		}
+		if (ticket.shouldTick()) {
 			tickRefs--;
 		}
+		if (tickets.isEmpty() && onEmpty != null) {
+			onEmpty.run();
+		}
 	}
 
 	/**
@@ -56,6 +56,18 @@ public interface IProviderExtras {
 	@Nullable
 	Cube getCube(int cubeX, int cubeY, int cubeZ, Requirement req);
 
+	/**
+	 * Load all cubes in a box that exist but aren't loaded yet, in one batch. Nothing is generated, this only makes
+	 * retrieving many cubes that are close together cheaper than loading them one by one.
+	 *
+	 * @param minX minimum cube x coordinate
+	 * @param minY minimum cube y coordinate
+	 * @param minZ minimum cube z coordinate
+	 * @param maxX maximum cube x coordinate
+	 * @param maxY maximum cube y coordinate
+	 * @param maxZ maximum cube z coordinate
+	 */
+	void loadCubes(int minX, int minY, int minZ, int maxX, int maxY, int maxZ);
 
 	/**
 	 * The effort made to retrieve a cube or column. Any further work should not be done, and returning
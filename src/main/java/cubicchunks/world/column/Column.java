@@ -72,6 +72,7 @@ public class Column extends Chunk {
 
 	private ICubeProvider provider;
 	private ICubicWorld world;
+	@Nullable private Listener listener;
 
 	public Column(ICubeProvider provider, ICubicWorld world, int x, int z) {
 		// NOTE: this constructor is called by the chunk loader
@@ -518,6 +519,20 @@ public class Column extends Chunk {
 		return this.isModified;
 	}
 
+	@Override
+	public void setChunkModified() {
+		setModified(true);
+	}
+
+	@Override
+	public void setModified(boolean modified) {
+		boolean wasModified = this.isModified;
+		super.setModified(modified);
+		if (modified && !wasModified && listener != null) {
+			listener.onModified(this);
+		}
+	}
+
 	//getRandomWithSeed(seed) doesn't need changes
 
 	//isEmpty() doesn't need changes
@@ -831,7 +846,11 @@ public class Column extends Chunk {
 	 * @return the removed cube if it existed, otherwise <code>null</code>
 	 */
 	public Cube removeCube(int cubeY) {
-		return this.cubeMap.remove(cubeY);
+		Cube cube = this.cubeMap.remove(cubeY);
+		if (cube != null && this.cubeMap.isEmpty() && listener != null) {
+			listener.onEmpty(this);
+		}
+		return cube;
 	}
 
 	/**
@@ -846,6 +865,15 @@ public class Column extends Chunk {
 	// ======= end cube cache like methods =======
 	// ===========================================
 
+	/**
+	 * Set the listener notified when this column becomes modified or loses its last loaded cube
+	 *
+	 * @param listener the listener, or {@code null} for none
+	 */
+	public void setListener(@Nullable Listener listener) {
+		this.listener = listener;
+	}
+
 	/**
 	 * Notify this column that it has been saved
 	 */
@@ -871,4 +899,24 @@ public class Column extends Chunk {
 	public ICubicWorld getCubicWorld() {
 		return world;
 	}
+
+	/**
+	 * Lets the provider track columns that need saving or unloading without checking all loaded columns
+	 */
+	public interface Listener {
+
+		/**
+		 * Called when the column changes from not modified to modified
+		 *
+		 * @param column the column
+		 */
+		void onModified(Column column);
+
+		/**
+		 * Called when the last loaded cube is removed from the column
+		 *
+		 * @param column the column
+		 */
+		void onEmpty(Column column);
+	}
 }
@@ -40,6 +40,7 @@ import net.minecraft.util.math.MathHelper;
 import net.minecraft.world.EnumSkyBlock;
 import net.minecraft.world.World;
 import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.NibbleArray;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.event.entity.EntityEvent;
@@ -49,6 +50,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nullable;
 
@@ -113,9 +115,23 @@ public class Cube implements XYZAddressable {
 	 */
 	private CubePos coords;
 	/**
-	 * Blocks in this cube
+	 * Blocks in this cube. When null, the cube is either empty or uniform, see {@link #uniformState}
 	 */
 	private ExtendedBlockStorage storage;
+	/**
+	 * If there is no storage and this isn't null, every block in this cube is this block state, with no block light
+	 * and {@link #uniformSkylight} sky light. The storage is created on the first write.
+	 */
+	@Nullable private IBlockState uniformState;
+	/**
+	 * Sky light of every block in a uniform cube
+	 */
+	private int uniformSkylight;
+	/**
+	 * Number of unreleased {@link SharedStorage} references to the current storage. While it's not zero, the storage
+	 * is copied before it's modified. A new counter is used for each storage instance.
+	 */
+	private AtomicInteger storageReaders = new AtomicInteger();
 	/**
 	 * Entities in this cube
 	 */
@@ -167,6 +183,17 @@ public class Cube implements XYZAddressable {
 		int miny = Coords.cubeToMinBlock(cubeY);
 		IHeightMap opindex = column.getOpacityIndex();
 
+		IBlockState uniformState = primer.getUniformState();
+		if (uniformState != null && uniformState.getMaterial() == Material.AIR) {
+			// nothing to copy, and no storage needed
+			isModified = true;
+			return;
+		}
+		if (uniformState != null && canBeUniform(uniformState)) {
+			// a freshly generated cube has no light yet
+			setUniform(uniformState, 0);
+		}
+
 		for (int x = 0; x < 16; x++) {
 			for (int z = 0; z < 16; z++) {
 
@@ -174,10 +201,10 @@ public class Cube implements XYZAddressable {
 					IBlockState newstate = primer.getBlockState(x, y, z);
 
 					if (newstate.getMaterial() != Material.AIR) {
-						if (storage == null) {
-							newStorage();
+						if (this.uniformState == null) {
+							prepareStorageForWrite();
+							storage.set(x, y, z, newstate);
 						}
-						storage.set(x, y, z, newstate);
 
 						if (newstate.getLightOpacity() != 0) {
 							column.setModified(true); //TODO: this is a bit of am abstraction leak... maybe ServerHeightMap needs its own isModified
@@ -236,7 +263,7 @@ public class Cube implements XYZAddressable {
 	public IBlockState getBlockState(int blockX, int blockY, int blockZ) {
 		try {
 			if (storage == null) {
-				return Blocks.AIR.getDefaultState();
+				return uniformState == null ? Blocks.AIR.getDefaultState() : uniformState;
 			}
 			return storage.get(Coords.blockToLocal(blockX),
 				Coords.blockToLocal(blockY),
@@ -275,9 +302,7 @@ public class Cube implements XYZAddressable {
 		Block oldblock = oldstate.getBlock();
 		Block newblock = newstate.getBlock();
 
-		if (storage == null) {
-			newStorage();
-		}
+		prepareStorageForWrite();
 
 		storage.set(localX, localY, localZ, newstate); // set the block state!
 
@@ -327,7 +352,7 @@ public class Cube implements XYZAddressable {
 			}
 		}
 
-		this.isModified = true; // a block state changes, so we will need saving
+		markModified(); // a block state changes, so we will need saving
 		return oldstate;
 	}
 
@@ -373,7 +398,7 @@ public class Cube implements XYZAddressable {
 	 * @param light the light level
 	 */
 	public void setLightFor(EnumSkyBlock lightType, BlockPos pos, int light) {
-		this.isModified = true;
+		markModified();
 
 		int x = Coords.blockToLocal(pos.getX());
 		int y = Coords.blockToLocal(pos.getY());
@@ -385,9 +410,10 @@ public class Cube implements XYZAddressable {
 				break;
 
 			case BLOCK:
-				if (storage == null) {
-					newStorage();
+				if (storage == null && uniformState != null && light == 0) {
+					break; // uniform cubes have no block light
 				}
+				prepareStorageForWrite();
 				this.storage.setExtBlocklightValue(x, y, z, light);
 				break;
 		}
@@ -403,10 +429,11 @@ public class Cube implements XYZAddressable {
 	 */
 	public void setSkylight(int localX, int localY, int localZ, int value) {
 		if (!this.world.getProvider().getHasNoSky()) {
-			if (storage == null) {
-				newStorage();
+			if (storage == null && uniformState != null && value == uniformSkylight) {
+				return;
 			}
-			this.isModified = true;
+			prepareStorageForWrite();
+			markModified();
 			this.storage.setExtSkylightValue(localX, localY, localZ, value);
 		}
 	}
@@ -425,7 +452,7 @@ public class Cube implements XYZAddressable {
 			return 0;
 		}
 		if (storage == null) {
-			return EnumSkyBlock.SKY.defaultLightValue;
+			return uniformState == null ? EnumSkyBlock.SKY.defaultLightValue : uniformSkylight;
 		}
 		return this.storage.getExtSkylightValue(localX, localY, localZ);
 	}
@@ -497,7 +524,7 @@ public class Cube implements XYZAddressable {
 		entity.chunkCoordZ = this.coords.getZ();
 
 		this.entities.addEntity(entity);
-		this.isModified = true;
+		markModified();
 	}
 
 	/**
@@ -508,7 +535,7 @@ public class Cube implements XYZAddressable {
 	public boolean removeEntity(Entity entity) {
 		boolean wasRemoved = this.entities.remove(entity);
 		if (wasRemoved) {
-			this.isModified = true;
+			markModified();
 		}
 		return wasRemoved;
 	}
@@ -577,7 +604,7 @@ public class Cube implements XYZAddressable {
 			// install the new tile entity
 			tileEntity.validate();
 			this.tileEntityMap.put(pos, tileEntity);
-			this.isModified = true;
+			markModified();
 			tileEntity.onLoad();
 		}
 	}
@@ -593,7 +620,7 @@ public class Cube implements XYZAddressable {
 			TileEntity tileEntity = this.tileEntityMap.remove(pos);
 			if (tileEntity != null) {
 				tileEntity.invalidate();
-				this.isModified = true;
+				markModified();
 			}
 		}
 	}
@@ -676,7 +703,7 @@ public class Cube implements XYZAddressable {
 	 * @return <code>true</code> if this cube contains only air blocks, <code>false</code> otherwise
 	 */
 	public boolean isEmpty() {
-		return storage == null || this.storage.isEmpty();
+		return storage == null ? uniformState == null : this.storage.isEmpty();
 	}
 
 	/**
@@ -770,11 +797,140 @@ public class Cube implements XYZAddressable {
 	}
 
 	public ExtendedBlockStorage setStorage(ExtendedBlockStorage ebs) {
-		return this.storage = ebs;
+		ExtendedBlockStorage old = this.storage;
+		this.storageReaders = new AtomicInteger();
+		this.uniformState = null;
+		this.storage = ebs;
+		onStorageChanged(old);
+		return ebs;
+	}
+
+	/**
+	 * Check if this cube is stored as a single block state with constant light, without block storage
+	 *
+	 * @return <code>true</code> if this cube is uniform, <code>false</code> otherwise
+	 */
+	public boolean isUniform() {
+		return storage == null && uniformState != null;
+	}
+
+	/**
+	 * @return the block state of every block in this cube if it's uniform, null otherwise
+	 */
+	@Nullable
+	public IBlockState getUniformState() {
+		return storage == null ? uniformState : null;
+	}
+
+	/**
+	 * @return sky light of every block in this cube if it's uniform
+	 */
+	public int getUniformSkylight() {
+		return uniformSkylight;
+	}
+
+	/**
+	 * Replace all blocks in this cube with a single block state and drop the block storage. Block storage is created
+	 * again on the first write to this cube. Air makes this cube empty.
+	 *
+	 * @param state the block state of every block
+	 * @param skylight sky light of every block, block light is always 0
+	 */
+	public void setUniform(IBlockState state, int skylight) {
+		ExtendedBlockStorage old = this.storage;
+		this.storage = null;
+		onStorageChanged(old);
+		this.storageReaders = new AtomicInteger();
+		this.uniformState = state.getMaterial() == Material.AIR ? null : state;
+		this.uniformSkylight = skylight;
+	}
+
+	/**
+	 * Check if a cube filled with the given block state can be stored without block storage. Blocks that tick randomly
+	 * or have tile entities need the storage.
+	 *
+	 * @param state the block state
+	 *
+	 * @return <code>true</code> if a uniform cube of that state doesn't need block storage
+	 */
+	public static boolean canBeUniform(IBlockState state) {
+		return !state.getBlock().getTickRandomly() && !state.getBlock().hasTileEntity(state);
+	}
+
+	/**
+	 * Share the block storage of this cube with another thread. Until the returned reference is released, this cube
+	 * won't modify that storage instance, and makes a copy of it instead on the first modification.
+	 *
+	 * @return reference to the current block storage that has to be released when it's no longer needed
+	 */
+	public SharedStorage shareStorage() {
+		this.storageReaders.incrementAndGet();
+		return new SharedStorage(this.storage, this.storageReaders);
 	}
 
 	private void newStorage() {
+		ExtendedBlockStorage old = storage;
 		storage = new ExtendedBlockStorage(Coords.cubeToMinBlock(getY()), !world.getProvider().getHasNoSky());
+		storageReaders = new AtomicInteger();
+		onStorageChanged(old);
+	}
+
+	/**
+	 * Tell the provider when block storage is allocated or dropped, it keeps an estimate of the memory used by cubes
+	 */
+	private void onStorageChanged(@Nullable ExtendedBlockStorage old) {
+		// a cube that isn't loaded yet is counted when it's loaded
+		if ((old == null) != (this.storage == null) && this.isCubeLoaded && !this.world.isRemote()) {
+			((ICubicWorldServer) this.world).getCubeCache().onCubeStorageChanged(this.storage != null);
+		}
+	}
+
+	/**
+	 * Make sure the storage exists and isn't shared with other threads before modifying it
+	 */
+	private void prepareStorageForWrite() {
+		if (storage == null) {
+			newStorage();
+			if (uniformState != null) {
+				inflateUniform();
+			}
+		} else if (storageReaders.get() != 0) {
+			copyStorage();
+		}
+	}
+
+	private void inflateUniform() {
+		IBlockState state = this.uniformState;
+		this.uniformState = null;
+		for (int x = 0; x < SIZE; x++) {
+			for (int y = 0; y < SIZE; y++) {
+				for (int z = 0; z < SIZE; z++) {
+					storage.set(x, y, z, state);
+				}
+			}
+		}
+		if (storage.getSkylightArray() != null) {
+			Arrays.fill(storage.getSkylightArray().getData(), (byte) (uniformSkylight | uniformSkylight << 4));
+		}
+	}
+
+	private void copyStorage() {
+		ExtendedBlockStorage old = this.storage;
+		ExtendedBlockStorage copy = new ExtendedBlockStorage(old.getYLocation(), old.getSkylightArray() != null);
+
+		byte[] blocks = new byte[SIZE*SIZE*SIZE];
+		NibbleArray data = new NibbleArray();
+		NibbleArray add = old.getData().getDataForNBT(blocks, data);
+		copy.getData().setDataFromNBT(blocks, data, add);
+
+		copy.setBlocklightArray(new NibbleArray(old.getBlocklightArray().getData().clone()));
+		if (old.getSkylightArray() != null) {
+			copy.setSkylightArray(new NibbleArray(old.getSkylightArray().getData().clone()));
+		}
+		copy.removeInvalidBlocks(); // recalculates block and tick counts
+
+		this.storage = copy;
+		this.storageReaders = new AtomicInteger();
 	}
 
 	/**
@@ -839,6 +995,20 @@ public class Cube implements XYZAddressable {
 		return this.entities.needsSaving(true, this.world.getTotalWorldTime(), this.isModified);
 	}
 
+	/**
+	 * Mark this cube as modified, so that it's saved on the next save
+	 */
+	private void markModified() {
+		if (this.isModified) {
+			return;
+		}
+		this.isModified = true;
+		// a cube that isn't loaded yet is checked when it's loaded
+		if (this.isCubeLoaded && !this.world.isRemote()) {
+			((ICubicWorldServer) this.world).getCubeCache().onCubeModified(this);
+		}
+	}
+
 	/**
 	 * Mark this cube as saved to disk
 	 */
@@ -911,7 +1081,7 @@ public class Cube implements XYZAddressable {
 	 */
 	public void setPopulated(boolean populated) {
 		this.isPopulated = populated;
-		this.isModified = true;
+		markModified();
 	}
 
 	/**
@@ -934,7 +1104,7 @@ public class Cube implements XYZAddressable {
 	 */
 	public void setFullyPopulated(boolean populated) {
 		this.isFullyPopulated = populated;
-		this.isModified = true;
+		markModified();
 	}
 
 	/**
@@ -951,7 +1121,42 @@ public class Cube implements XYZAddressable {
 	 */
 	public void setInitialLightingDone(boolean initialLightingDone) {
 		this.isInitialLightingDone = initialLightingDone;
-		this.isModified = true;
+		markModified();
+	}
+
+	/**
+	 * A reference to the block storage of a cube that can be read from other threads, see {@link #shareStorage()}
+	 */
+	public static class SharedStorage {
+		@Nullable private final ExtendedBlockStorage storage;
+		private final AtomicInteger readers;
+		private volatile boolean released = false;
+
+		private SharedStorage(@Nullable ExtendedBlockStorage storage, AtomicInteger readers) {
+			this.storage = storage;
+			this.readers = readers;
+		}
+
+		/**
+		 * @return the shared storage, it must not be modified
+		 */
+		@Nullable
+		public ExtendedBlockStorage getStorage() {
+			if (released) {
+				throw new IllegalStateException("Shared storage already released");
+			}
+			return storage;
+		}
+
+		/**
+		 * Allow the cube to modify the storage again. The storage can't be accessed through this reference after that.
+		 */
+		public synchronized void release() {
+			if (!released) {
+				released = true;
+				readers.decrementAndGet();
+			}
+		}
 	}
 
 	public static class LightUpdateData {
@@ -26,9 +26,12 @@ package cubicchunks.world.type;
 import net.minecraft.world.WorldProvider;
 import net.minecraft.world.WorldType;
 
+import java.util.concurrent.Callable;
+
 import cubicchunks.util.Box;
 import cubicchunks.util.CubePos;
 import cubicchunks.world.ICubicWorld;
+import cubicchunks.world.column.Column;
 import cubicchunks.world.cube.Cube;
 import cubicchunks.worldgen.generator.BasicCubeGenerator;
 import cubicchunks.worldgen.generator.CubePrimer;
@@ -36,6 +39,7 @@ import cubicchunks.worldgen.generator.ICubeGenerator;
 import cubicchunks.worldgen.generator.ICubePrimer;
 import cubicchunks.worldgen.generator.custom.CustomFeatureProcessor;
 import cubicchunks.worldgen.generator.custom.CustomPopulationProcessor;
+import cubicchunks.worldgen.generator.custom.CustomTerrainGenerator;
 import cubicchunks.worldgen.generator.custom.CustomTerrainProcessor;
 
 public class CustomCubicWorldType extends WorldType implements ICubicWorldType {
@@ -56,17 +60,29 @@ public class CustomCubicWorldType extends WorldType implements ICubicWorldType {
 	@Override
 	public ICubeGenerator createCubeGenerator(ICubicWorld world) {
 		CustomTerrainProcessor terrain = new CustomTerrainProcessor(world);
-		CustomFeatureProcessor features = new CustomFeatureProcessor();
+		// structure generators keep state while generating, so each generator thread needs it's own
+		ThreadLocal<CustomFeatureProcessor> features = ThreadLocal.withInitial(CustomFeatureProcessor::new);
 		CustomPopulationProcessor population = new CustomPopulationProcessor(world);
 
 		//TODO: this is mostly a hack to get the old system working
 		return new BasicCubeGenerator(world) {
 			@Override
 			public ICubePrimer generateCube(int cubeX, int cubeY, int cubeZ) {
+				return generateCube(terrain.getColumnData(cubeX, cubeZ), cubeX, cubeY, cubeZ);
+			}
+
+			@Override
+			public Callable<ICubePrimer> prepareCube(int cubeX, int cubeY, int cubeZ) {
+				// biomes have to be retrieved on the main thread, everything else can be done in parallel
+				CustomTerrainGenerator.ColumnData column = terrain.getColumnData(cubeX, cubeZ);
+				return () -> generateCube(column, cubeX, cubeY, cubeZ);
+			}
+
+			private ICubePrimer generateCube(CustomTerrainGenerator.ColumnData column, int cubeX, int cubeY, int cubeZ) {
 				ICubePrimer primer = new CubePrimer();
 
-				terrain.calculate(primer, cubeX, cubeY, cubeZ);
-				features.generate(world, primer, new CubePos(cubeX, cubeY, cubeZ));
+				terrain.calculate(primer, column, cubeX, cubeY, cubeZ);
+				features.get().generate(world, primer, new CubePos(cubeX, cubeY, cubeZ));
 
 				return primer;
 			}
@@ -80,6 +96,11 @@ public class CustomCubicWorldType extends WorldType implements ICubicWorldType {
 			public Box getPopulationRequirement(Cube cube) {
 				return RECOMMENDED_POPULATOR_REQUIREMENT;
 			}
+
+			@Override
+			public void onColumnUnload(Column column) {
+				terrain.onColumnUnload(column.getX(), column.getZ());
+			}
 		};
 	}
 }
@@ -0,0 +1,112 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.worldgen;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cubicchunks.CubicChunks;
+import cubicchunks.IConfigUpdateListener;
+import cubicchunks.worldgen.generator.ICubeGenerator;
+
+/**
+ * Runs cube generation tasks prepared by {@link ICubeGenerator#prepareCube(int, int, int)} on a pool of threads
+ * shared by all worlds.
+ */
+public class CubeGeneratorExecutor {
+
+	private static final AtomicInteger threadCounter = new AtomicInteger();
+	private static final ThreadPoolExecutor pool = new ThreadPoolExecutor(threadsFor(CubicChunks.Config.DEFAULT_GENERATION_THREADS),
+		threadsFor(CubicChunks.Config.DEFAULT_GENERATION_THREADS), 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+		r -> {
+			Thread thread = new Thread(r, "Cube Generation Thread #" + threadCounter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	);
+
+	// config listeners are weakly referenced, keep this one alive
+	private static final IConfigUpdateListener configListener = config -> setThreads(threadsFor(config.getGenerationThreads()));
+
+	static {
+		pool.allowCoreThreadTimeOut(true);
+		CubicChunks.addConfigChangeListener(configListener);
+	}
+
+	/**
+	 * Run a generation task on one of the generator threads
+	 *
+	 * @param task The task, usually returned by {@link ICubeGenerator#prepareCube(int, int, int)}
+	 *
+	 * @return the future result of the task
+	 */
+	public static <T> Future<T> submit(Callable<T> task) {
+		return pool.submit(task);
+	}
+
+	/**
+	 * Run a generation task on one of the generator threads
+	 *
+	 * @param task The task, usually returned by {@link ICubeGenerator#prepareCube(int, int, int)}
+	 *
+	 * @return a future completed with the result of the task, on the generator thread
+	 */
+	public static <T> CompletableFuture<T> supply(Callable<T> task) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		pool.execute(() -> {
+			try {
+				future.complete(task.call());
+			} catch (Throwable t) {
+				future.completeExceptionally(t);
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * @return the number of generator threads
+	 */
+	public static int getThreads() {
+		return pool.getMaximumPoolSize();
+	}
+
+	private static synchronized void setThreads(int threads) {
+		if (threads > pool.getMaximumPoolSize()) {
+			pool.setMaximumPoolSize(threads);
+			pool.setCorePoolSize(threads);
+		} else {
+			pool.setCorePoolSize(threads);
+			pool.setMaximumPoolSize(threads);
+		}
+	}
+
+	private static int threadsFor(int configured) {
+		return configured > 0 ? configured : Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+	}
+}
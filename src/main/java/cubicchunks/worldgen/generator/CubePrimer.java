@@ -26,6 +26,10 @@ package cubicchunks.worldgen.generator;
 import net.minecraft.block.Block;
 import net.minecraft.block.state.IBlockState;
 
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
 @SuppressWarnings("deprecation") // Block.BLOCK_STATE_IDS
 public class CubePrimer implements ICubePrimer {
 
@@ -42,6 +46,30 @@ public class CubePrimer implements ICubePrimer {
 		this.data[getBlockIndex(x, y, z)] = (char) Block.BLOCK_STATE_IDS.get(state);
 	}
 
+	@Override
+	public void fillBox(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, IBlockState state) {
+		char id = (char) Block.BLOCK_STATE_IDS.get(state);
+		for (int x = minX; x <= maxX; x++) {
+			for (int z = minZ; z <= maxZ; z++) {
+				// y is the lowest part of the index, so each column of blocks is one range
+				Arrays.fill(this.data, getBlockIndex(x, minY, z), getBlockIndex(x, maxY, z) + 1, id);
+			}
+		}
+	}
+
+	@Override
+	@Nullable
+	public IBlockState getUniformState() {
+		char id = this.data[0];
+		for (char c : this.data) {
+			if (c != id) {
+				return null;
+			}
+		}
+		IBlockState state = Block.BLOCK_STATE_IDS.getByValue(id);
+		return state == null ? DEFAULT_STATE : state;
+	}
+
 	@Override
 	public int findGroundHeight(int x, int z) {
 		int i = (x << 8 | z << 4) + 15;
@@ -28,6 +28,7 @@ import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.biome.Biome;
 
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import javax.annotation.Nullable;
 
@@ -58,6 +59,25 @@ public interface ICubeGenerator {
 	 */
 	ICubePrimer generateCube(int cubeX, int cubeY, int cubeZ);
 
+	/**
+	 * Prepare generating a new cube on another thread. This is called on the server thread and may do anything that
+	 * needs the world, such as reading biomes. The returned task can then be run on any thread, at the same time as
+	 * other tasks returned by this method, and must not access the world.
+	 * <p>
+	 * Generators that can't generate off the server thread return <code>null</code>, the cube is then generated using
+	 * {@link #generateCube(int, int, int)}.
+	 *
+	 * @param cubeX the cube's X coordinate
+	 * @param cubeY the cube's Y coordinate
+	 * @param cubeZ the cube's Z coordinate
+	 *
+	 * @return A task returning an ICubePrimer with the generated blocks, or <code>null</code>
+	 */
+	@Nullable
+	default Callable<ICubePrimer> prepareCube(int cubeX, int cubeY, int cubeZ) {
+		return null;
+	}
+
 	/**
 	 * Generate column-global information such as biome data
 	 *
@@ -132,6 +152,21 @@ public interface ICubeGenerator {
 	 */
 	Box getPopulationRequirement(Cube cube);
 
+	/**
+	 * Get the bounding box of all cubes that {@link ICubeGenerator#populate(Cube)} may write to when called for
+	 * {@code cube}. This is the inverse of {@link ICubeGenerator#getPopulationRequirement(Cube)}, these cubes are
+	 * generated before population so that it never has to generate them one by one.
+	 * <p>
+	 * The default implementation assumes that the population requirement is the same for all cubes.
+	 *
+	 * @param cube The cube being populated
+	 *
+	 * @return The bounding box of all cubes {@code cube} may write to, relative to {@code cube}
+	 */
+	default Box getPopulationTargets(Cube cube) {
+		return getPopulationRequirement(cube).negate();
+	}
+
 	/**
 	 * Called to reload structures that apply to {@code cube}. Mostly used to prepare calls to {@link
 	 * ICubeGenerator#getPossibleCreatures(EnumCreatureType, BlockPos))} <br>
@@ -152,6 +187,14 @@ public interface ICubeGenerator {
 	 */
 	void recreateStructures(Column column);
 
+	/**
+	 * Called when a column is unloaded, so that anything cached for it can be released.
+	 *
+	 * @param column the column that is being unloaded
+	 */
+	default void onColumnUnload(Column column) {
+	}
+
 	/**
 	 * Retrieve a list of creature classes eligible for spawning at the specified location.
 	 *
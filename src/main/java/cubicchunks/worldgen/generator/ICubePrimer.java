@@ -26,6 +26,8 @@ package cubicchunks.worldgen.generator;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.init.Blocks;
 
+import javax.annotation.Nullable;
+
 public interface ICubePrimer {
 
 	IBlockState DEFAULT_STATE = Blocks.AIR.getDefaultState();
@@ -51,6 +53,48 @@ public interface ICubePrimer {
 	 */
 	void setBlockState(int x, int y, int z, IBlockState state);
 
+	/**
+	 * Set all blocks in the given box to the same block state. Both corners are inclusive.
+	 *
+	 * @param minX minimum cube local x
+	 * @param minY minimum cube local y
+	 * @param minZ minimum cube local z
+	 * @param maxX maximum cube local x
+	 * @param maxY maximum cube local y
+	 * @param maxZ maximum cube local z
+	 * @param state the block state
+	 */
+	default void fillBox(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, IBlockState state) {
+		for (int x = minX; x <= maxX; x++) {
+			for (int z = minZ; z <= maxZ; z++) {
+				for (int y = minY; y <= maxY; y++) {
+					setBlockState(x, y, z, state);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Check if all blocks in this primer are the same. Used to skip block by block processing of cubes that are
+	 * entirely air or entirely one solid block.
+	 *
+	 * @return the block state of all blocks, or <code>null</code> if the blocks are not all the same
+	 */
+	@Nullable
+	default IBlockState getUniformState() {
+		IBlockState state = getBlockState(0, 0, 0);
+		for (int x = 0; x < 16; x++) {
+			for (int z = 0; z < 16; z++) {
+				for (int y = 0; y < 16; y++) {
+					if (getBlockState(x, y, z) != state) {
+						return null;
+					}
+				}
+			}
+		}
+		return state;
+	}
+
 	/**
 	 * Counting down from the highest block in the cube, find the first non-air block for the given location.<br> <br>
 	 * NOTE: This will return -1 if there were no blocks under this location<br> WARNING: Does not check for blocks
@@ -0,0 +1,59 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.worldgen.generator;
+
+import net.minecraft.block.state.IBlockState;
+
+/**
+ * A cube primer where every block is the same block state. It can't be modified, so a single instance can be shared
+ * by any number of generated cubes.
+ */
+public class UniformCubePrimer implements ICubePrimer {
+
+	private final IBlockState state;
+
+	public UniformCubePrimer(IBlockState state) {
+		this.state = state;
+	}
+
+	@Override
+	public IBlockState getBlockState(int x, int y, int z) {
+		return state;
+	}
+
+	@Override
+	public void setBlockState(int x, int y, int z, IBlockState state) {
+		throw new UnsupportedOperationException("Uniform cube primers can't be modified");
+	}
+
+	@Override
+	public IBlockState getUniformState() {
+		return state;
+	}
+
+	@Override
+	public int findGroundHeight(int x, int z) {
+		return state == DEFAULT_STATE ? -1 : 15;
+	}
+}
@@ -25,12 +25,14 @@ package cubicchunks.worldgen.generator.custom;
 
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.init.Blocks;
+import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.biome.Biome;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Random;
 
 import cubicchunks.world.ICubicWorld;
-import cubicchunks.world.cube.Cube;
 import cubicchunks.worldgen.generator.GlobalGeneratorConfig;
 import cubicchunks.worldgen.generator.ICubePrimer;
 import cubicchunks.worldgen.generator.custom.builder.BasicBuilder;
@@ -52,27 +54,32 @@ import static cubicchunks.worldgen.generator.GlobalGeneratorConfig.Z_SECTION_SIZ
 public class CustomTerrainGenerator {
 	// Number of octaves for the noise function
 	private static final int OCTAVES = 16;
+	// Columns are evicted when they unload, this only limits memory use if they don't
+	private static final int MAX_CACHED_COLUMNS = 1024;
+	// Depth of dirt below grass, in density units
+	private static final double DIRT_DEPTH = 4;
+	// Margin for rounding errors when checking density bounds of a whole noise section
+	private static final double DENSITY_EPSILON = 1e-6;
 
 	private final ICubicWorld world;
 	private final long seed;
 	private final Random rand;
-	private final double[][][] noiseArrayHigh;
-	private final double[][][] noiseArrayLow;
-	private final double[][][] noiseArrayAlpha;
-	private final double[][][] rawDensity;
-	private final double[][][] expandedDensity;
+	// generate() can run on several threads at once, each of them uses it's own buffers
+	private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+	// biomes and biome parameters of recently generated columns, only accessed from the main thread
+	private final Map<Long, ColumnData> columnCache = new LinkedHashMap<Long, ColumnData>(16, 0.75f, true) {
+		@Override protected boolean removeEldestEntry(Map.Entry<Long, ColumnData> eldest) {
+			return size() > MAX_CACHED_COLUMNS;
+		}
+	};
 	private final IBuilder builderHigh;
 	private final IBuilder builderLow;
 	private final IBuilder builderAlpha;
 	private final int maxSmoothRadius;
 	private final int maxSmoothDiameter;
-	private final double[][] noiseArrayHeight;
 	private final double[] nearBiomeWeightArray;
 	private final BasicBuilder builderHeight;
 	private final boolean needsScaling = true;
-	private Biome[] biomes;
-	private double biomeVolatility;
-	private double biomeHeight;
 
 	public CustomTerrainGenerator(ICubicWorld world, final long seed) {
 
@@ -84,19 +91,10 @@ public class CustomTerrainGenerator {
 
 		this.world = world;
 
-		this.noiseArrayHigh = new double[X_SECTIONS][Y_SECTIONS][Z_SECTIONS];
-		this.noiseArrayLow = new double[X_SECTIONS][Y_SECTIONS][Z_SECTIONS];
-		this.noiseArrayAlpha = new double[X_SECTIONS][Y_SECTIONS][Z_SECTIONS];
-
-		this.rawDensity = new double[X_SECTIONS][Y_SECTIONS][Z_SECTIONS];
-		this.expandedDensity = new double[Cube.SIZE][Cube.SIZE][Cube.SIZE];
-
 		this.builderHigh = createHighBuilder();
 		this.builderLow = createLowBuilder();
 		this.builderAlpha = createAlphaBuilder();
 
-		this.noiseArrayHeight = new double[X_SECTIONS][Z_SECTIONS];
-
 		this.nearBiomeWeightArray = new double[this.maxSmoothDiameter*this.maxSmoothDiameter];
 
 		for (int x = -this.maxSmoothRadius; x <= this.maxSmoothRadius; x++) {
@@ -118,7 +116,7 @@ public class CustomTerrainGenerator {
 	}
 
 	/**
-	 * Generate the cube as the specified location
+	 * Generate the cube as the specified location. Must be called from the main thread.
 	 *
 	 * @param cube cube primer to use
 	 * @param cubeX cube x location
@@ -126,16 +124,83 @@ public class CustomTerrainGenerator {
 	 * @param cubeZ cube z location
 	 */
 	public void generate(final ICubePrimer cube, int cubeX, int cubeY, int cubeZ) {
-		generateNoiseArrays(cubeX, cubeY, cubeZ);
-		generateTerrainArray(cube, cubeX, cubeY, cubeZ);
+		generate(cube, getColumnData(cubeX, cubeZ), cubeX, cubeY, cubeZ);
+	}
+
+	/**
+	 * Generate the cube as the specified location, using column data from {@link #getColumnData(int, int)}. Can be
+	 * called from any thread.
+	 *
+	 * @param cube cube primer to use
+	 * @param column data of the cube's column
+	 * @param cubeX cube x location
+	 * @param cubeY cube y location
+	 * @param cubeZ cube z location
+	 */
+	public void generate(final ICubePrimer cube, ColumnData column, int cubeX, int cubeY, int cubeZ) {
+		Scratch s = this.scratch.get();
+		calculateBiomeParams(column);
+		generateNoiseArrays(s, cubeX, cubeY, cubeZ);
+		generateTerrainArray(s, column, cubeY);
+
+		generateTerrain(cube, s.rawDensity, cubeX, cubeY, cubeZ);
+	}
+
+	/**
+	 * Retrieve the data shared by all cubes of a column, from the cache if possible. The biome provider isn't thread
+	 * safe, so this must be called from the main thread.
+	 *
+	 * @param cubeX column x
+	 * @param cubeZ column z
+	 *
+	 * @return data of that column
+	 */
+	public ColumnData getColumnData(int cubeX, int cubeZ) {
+		long key = ChunkPos.asLong(cubeX, cubeZ);
+		ColumnData column = columnCache.get(key);
+		if (column == null) {
+			column = new ColumnData(cubeX, cubeZ, getBiomes(cubeX, cubeZ));
+			columnCache.put(key, column);
+		}
+		return column;
+	}
 
-		generateTerrain(cube, this.rawDensity, cubeX, cubeY, cubeZ);
+	/**
+	 * Remove cached data of an unloaded column. Must be called from the main thread.
+	 *
+	 * @param cubeX column x
+	 * @param cubeZ column z
+	 */
+	public void onColumnUnload(int cubeX, int cubeZ) {
+		columnCache.remove(ChunkPos.asLong(cubeX, cubeZ));
+	}
+
+	/**
+	 * Calculate smoothed biome height and volatility of a column, if not done yet. They only depend on the column, so
+	 * each column does this once no matter how many cubes are generated in it.
+	 */
+	private void calculateBiomeParams(ColumnData column) {
+		synchronized (column) {
+			if (column.biomeParamsDone) {
+				return;
+			}
+			double[][] noiseArrayHeight = new double[X_SECTIONS][Z_SECTIONS];
+			fillHeightArray(noiseArrayHeight, column.cubeX, column.cubeZ);
+			for (int x = 0; x < X_SECTIONS; x++) {
+				for (int z = 0; z < Z_SECTIONS; z++) {
+					// TODO: Remove addHeight?
+					double addHeight = getAddHeight(noiseArrayHeight, x, z);
+					biomeFactor(column, x, z, addHeight);
+				}
+			}
+			column.biomeParamsDone = true;
+		}
 	}
 
 	/**
 	 * Generate terrain at the specified location
 	 *
-	 * @param cube cube primer to use
+	 * @param cube cube primer to use, must be empty
 	 * @param input generated noise to use
 	 * @param cubeX cube x position
 	 * @param cubeY cube y position
@@ -161,6 +226,16 @@ public class CustomTerrainGenerator {
 					double x1y1z0 = input[noiseX + 1][noiseY + 1][noiseZ];
 					double x1y1z1 = input[noiseX + 1][noiseY + 1][noiseZ + 1];
 
+					// interpolated densities are always between the corner densities, so many sections (and most
+					// cubes far above or below the surface) can be filled without looking at each block
+					double min = Math.min(Math.min(Math.min(x0y0z0, x0y0z1), Math.min(x1y0z0, x1y0z1)),
+						Math.min(Math.min(x0y1z0, x0y1z1), Math.min(x1y1z0, x1y1z1)));
+					double max = Math.max(Math.max(Math.max(x0y0z0, x0y0z1), Math.max(x1y0z0, x1y0z1)),
+						Math.max(Math.max(x0y1z0, x0y1z1), Math.max(x1y1z0, x1y1z1)));
+					if (fillUniformSection(cube, cubeY, noiseX, noiseY, noiseZ, min, max)) {
+						continue;
+					}
+
 					for (int x = 0; x < xSteps; x++) {
 						int xRel = noiseX*xSteps + x;
 
@@ -216,6 +291,46 @@ public class CustomTerrainGenerator {
 		}
 	}
 
+	/**
+	 * Fill a noise section in bulk if it's density bounds are enough to know which blocks it contains, without
+	 * interpolating density for each block.
+	 *
+	 * @param cube cube primer to use, must be empty
+	 * @param cubeY cube y position
+	 * @param noiseX section x index
+	 * @param noiseY section y index
+	 * @param noiseZ section z index
+	 * @param min lowest density at the corners of the section
+	 * @param max highest density at the corners of the section
+	 *
+	 * @return <code>true</code> if the section has been filled
+	 */
+	private boolean fillUniformSection(ICubePrimer cube, int cubeY, int noiseX, int noiseY, int noiseZ, double min, double max) {
+		int xSteps = X_SECTION_SIZE - 1;
+		int ySteps = Y_SECTION_SIZE - 1;
+		int zSteps = Z_SECTION_SIZE - 1;
+		int minX = noiseX*xSteps, maxX = minX + xSteps - 1;
+		int minY = noiseY*ySteps, maxY = minY + ySteps - 1;
+		int minZ = noiseZ*zSteps, maxZ = minZ + zSteps - 1;
+
+		if (max < -DENSITY_EPSILON) {
+			// no solid blocks, the cube is already air so only water below sea level needs to be set
+			// TODO replace 64 with GlobalGeneratorConfig.SEA_LEVEL together with getBlockStateFor
+			int maxWaterY = Math.min(maxY, 63 - localToBlock(cubeY, 0));
+			if (maxWaterY >= minY) {
+				cube.fillBox(minX, minY, minZ, maxX, maxWaterY, maxZ, Blocks.WATER.getDefaultState());
+			}
+			return true;
+		}
+		// the gradient in y direction is at least (min - max)/ySteps, so if this holds there is no grass
+		// (density + yGrad <= 0) and no dirt (density < DIRT_DEPTH) in this section
+		if (min >= DIRT_DEPTH + DENSITY_EPSILON && min + (min - max)/ySteps > DENSITY_EPSILON) {
+			cube.fillBox(minX, minY, minZ, maxX, maxY, maxZ, Blocks.STONE.getDefaultState());
+			return true;
+		}
+		return false;
+	}
+
 	/**
 	 * Retrieve the blockstate appropriate for the specified noise parameters
 	 *
@@ -228,7 +343,6 @@ public class CustomTerrainGenerator {
 	 * @return The block state
 	 */
 	private IBlockState getBlockStateFor(int height, double density, double xGrad, double yGrad, double zGrad) {
-		final double dirtDepth = 4;
 		IBlockState state = Blocks.AIR.getDefaultState();
 		if (density > 0) {
 			state = Blocks.STONE.getDefaultState();
@@ -236,7 +350,7 @@ public class CustomTerrainGenerator {
 			if (density + yGrad <= 0) {
 				state = Blocks.GRASS.getDefaultState();
 				//if density decreases as we go up && density < dirtDepth
-			} else if (yGrad < 0 && density < dirtDepth) {
+			} else if (yGrad < 0 && density < DIRT_DEPTH) {
 				state = Blocks.DIRT.getDefaultState();
 			}
 		} else if (height < 64) {
@@ -300,52 +414,33 @@ public class CustomTerrainGenerator {
 	 * (non-Javadoc)
 	 * @see cubicchunks.worldgen.generator.ITerrainGenerator#generateNoiseArrays(cubicchunks.world.cube.Cube)
 	 */
-	private void generateNoiseArrays(int cubeX, int cubeY, int cubeZ) {
+	private void generateNoiseArrays(Scratch s, int cubeX, int cubeY, int cubeZ) {
 		int cubeXMin = cubeX*(X_SECTIONS - 1);
 		int cubeYMin = cubeY*(Y_SECTIONS - 1);
 		int cubeZMin = cubeZ*(Z_SECTIONS - 1);
 
-		for (int x = 0; x < X_SECTIONS; x++) {
-			int xPos = cubeXMin + x;
-
-			for (int z = 0; z < Z_SECTIONS; z++) {
-				int zPos = cubeZMin + z;
-
-				for (int y = 0; y < Y_SECTIONS; y++) {
-					int yPos = cubeYMin + y;
-
-					this.noiseArrayHigh[x][y][z] = this.builderHigh.getValue(xPos, yPos, zPos);
-					this.noiseArrayLow[x][y][z] = this.builderLow.getValue(xPos, yPos, zPos);
-					this.noiseArrayAlpha[x][y][z] = this.builderAlpha.getValue(xPos, yPos, zPos);
-				}
-			}
-		}
+		this.builderHigh.getValues(s.noiseArrayHigh, cubeXMin, cubeYMin, cubeZMin);
+		this.builderLow.getValues(s.noiseArrayLow, cubeXMin, cubeYMin, cubeZMin);
+		this.builderAlpha.getValues(s.noiseArrayAlpha, cubeXMin, cubeYMin, cubeZMin);
 	}
 
 	/*
 	 * (non-Javadoc)
 	 * @see cubicchunks.worldgen.generator.ITerrainGenerator#generateTerrainArray(cubicchunks.world.cube.Cube)
 	 */
-	private void generateTerrainArray(final ICubePrimer cube, int cubeX, int cubeY, int cubeZ) {
-		this.biomes = getBiomeMap(cubeX, cubeZ);
-
-		fillHeightArray(cubeX, cubeZ);
+	private void generateTerrainArray(Scratch s, ColumnData column, int cubeY) {
 		for (int x = 0; x < X_SECTIONS; x++) {
 			for (int z = 0; z < Z_SECTIONS; z++) {
-				// TODO: Remove addHeight?
-				double addHeight = getAddHeight(x, z);
-				biomeFactor(x, z, addHeight);
-
 				for (int y = 0; y < Y_SECTIONS; y++) {
-					final double vol1Low = this.noiseArrayLow[x][y][z];
-					final double vol2High = this.noiseArrayHigh[x][y][z];
+					final double vol1Low = s.noiseArrayLow[x][y][z];
+					final double vol2High = s.noiseArrayHigh[x][y][z];
 
-					final double noiseAlpha = this.noiseArrayAlpha[x][y][z];
+					final double noiseAlpha = s.noiseArrayAlpha[x][y][z];
 
 					double output = lerp(noiseAlpha, vol1Low, vol2High);
 
-					double heightModifier = this.biomeHeight;
-					double volatilityModifier = this.biomeVolatility;
+					double heightModifier = column.biomeHeight[x][z];
+					double volatilityModifier = column.biomeVolatility[x][z];
 
 					final double yAbs = (cubeY*16.0 + y*8.0)/MAX_ELEV;
 					if (yAbs < heightModifier) {
@@ -368,22 +463,22 @@ public class CustomTerrainGenerator {
 						// final double a = ( yAbs - ( maxYSections - 4 ) ) / 3.0F;
 						// output = output * ( 1.0D - a ) - 10.0D * a;
 					}
-					this.rawDensity[x][y][z] = output*GlobalGeneratorConfig.MAX_ELEV + 64 - yAbs*MAX_ELEV;
+					s.rawDensity[x][y][z] = output*GlobalGeneratorConfig.MAX_ELEV + 64 - yAbs*MAX_ELEV;
 				}
 			}
 		}
 	}
 
 	/**
-	 * Retrieve biomes at the specified column location
+	 * Retrieve the biomes needed to generate cubes in the specified column
 	 *
 	 * @param cubeX column x
 	 * @param cubeZ column z
 	 *
-	 * @return biomes in that column
+	 * @return biomes in and around that column
 	 */
-	private Biome[] getBiomeMap(int cubeX, int cubeZ) {
-		return world.getProvider().getBiomeProvider().getBiomesForGeneration(this.biomes,
+	private Biome[] getBiomes(int cubeX, int cubeZ) {
+		return world.getProvider().getBiomeProvider().getBiomesForGeneration(null,
 			cubeX*4 - this.maxSmoothRadius, cubeZ*4 - this.maxSmoothRadius,
 			X_SECTION_SIZE + this.maxSmoothDiameter, Z_SECTION_SIZE + this.maxSmoothDiameter);
 	}
@@ -405,18 +500,18 @@ public class CustomTerrainGenerator {
 	 * Volatility Note: Terrain below biome height has volatility divided by 4, probably to add some flat generator to
 	 * mountanious biomes
 	 */
-	private void biomeFactor(final int x, final int z, final double addHeight) {
+	private void biomeFactor(ColumnData column, final int x, final int z, final double addHeight) {
 		// Calculate weighted average of nearby biomes height and volatility
 		float smoothVolatility = 0.0F;
 		float smoothHeight = 0.0F;
 
 		float biomeWeightSum = 0.0F;
-		final Biome centerBiomeConfig = getCenterBiome(x, z);
+		final Biome centerBiomeConfig = getCenterBiome(column.biomes, x, z);
 		final int lookRadius = this.maxSmoothRadius;
 
 		for (int nextX = -lookRadius; nextX <= lookRadius; nextX++) {
 			for (int nextZ = -lookRadius; nextZ <= lookRadius; nextZ++) {
-				final Biome biome = getOffsetBiome(x, z, nextX, nextZ);
+				final Biome biome = getOffsetBiome(column.biomes, x, z, nextX, nextZ);
 				final float biomeHeight = biome.getBaseHeight();
 				final float biomeVolatility = biome.getHeightVariation();
 
@@ -439,26 +534,29 @@ public class CustomTerrainGenerator {
 
 		// Convert from vanilla height/volatility format
 		// to something easier to predict
-		this.biomeVolatility = smoothVolatility*0.9 + 0.1;
-		this.biomeVolatility *= 4.0/3.0;
+		double volatility = smoothVolatility*0.9 + 0.1;
+		volatility *= 4.0/3.0;
 
 		// divide everything by 64, then it will be multpllied by maxElev
 		// vanilla sea level: 63.75 / 64.00
 
 		// sea level 0.75/64 of height above sea level (63.75 = 63+0.75)
-		this.biomeHeight = 0.75/64.0;
-		this.biomeHeight += smoothHeight*17.0/64.0;
+		double height = 0.75/64.0;
+		height += smoothHeight*17.0/64.0;
 		// TODO: Remove addHeight? it changes the result by at most 1 block
-		this.biomeHeight += 0.2*addHeight*17.0/64.0;
+		height += 0.2*addHeight*17.0/64.0;
+
+		column.biomeVolatility[x][z] = volatility;
+		column.biomeHeight[x][z] = height;
 	}
 
-	private Biome getCenterBiome(final int x, final int z) {
-		return this.biomes[x + this.maxSmoothRadius + (z + this.maxSmoothRadius)
+	private Biome getCenterBiome(Biome[] biomes, final int x, final int z) {
+		return biomes[x + this.maxSmoothRadius + (z + this.maxSmoothRadius)
 			*(X_SECTION_SIZE + this.maxSmoothDiameter)];
 	}
 
-	private Biome getOffsetBiome(final int x, final int z, int nextX, int nextZ) {
-		return this.biomes[x + nextX + this.maxSmoothRadius + (z + nextZ + this.maxSmoothRadius)
+	private Biome getOffsetBiome(Biome[] biomes, final int x, final int z, int nextX, int nextZ) {
+		return biomes[x + nextX + this.maxSmoothRadius + (z + nextZ + this.maxSmoothRadius)
 			*(X_SECTION_SIZE + this.maxSmoothDiameter)];
 	}
 
@@ -468,7 +566,7 @@ public class CustomTerrainGenerator {
 			/(biomeHeight + 2.0F);
 	}
 
-	private void fillHeightArray(int cubeX, int cubeZ) {
+	private void fillHeightArray(double[][] noiseArrayHeight, int cubeX, int cubeZ) {
 		int cubeXMin = cubeX*(X_SECTION_SIZE - 1);
 		int cubeZMin = cubeZ*(Z_SECTION_SIZE - 1);
 
@@ -478,7 +576,7 @@ public class CustomTerrainGenerator {
 			for (int z = 0; z < Z_SECTIONS; z++) {
 				int zPos = cubeZMin + z;
 
-				this.noiseArrayHeight[x][z] = this.builderHeight.getValue(xPos, 0, zPos);
+				noiseArrayHeight[x][z] = this.builderHeight.getValue(xPos, 0, zPos);
 
 			}
 		}
@@ -489,8 +587,8 @@ public class CustomTerrainGenerator {
 	 * (+/-0.425 blocks). In Minecraft beta it was base generator height, but as of beta 1.8 it doesn't have any
 	 * significant effect. It's multiplied 0.2 before it's used.
 	 */
-	private double getAddHeight(final int x, final int z) {
-		double noiseHeight = this.noiseArrayHeight[x][z];
+	private double getAddHeight(double[][] noiseArrayHeight, final int x, final int z) {
+		double noiseHeight = noiseArrayHeight[x][z];
 
 		assert noiseHeight <= 8 && noiseHeight >= -8;
 
@@ -517,4 +615,32 @@ public class CustomTerrainGenerator {
 		}
 		return noiseHeight;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Buffers used while generating a single cube
+	 */
+	private static final class Scratch {
+		final double[][][] noiseArrayHigh = new double[X_SECTIONS][Y_SECTIONS][Z_SECTIONS];
+		final double[][][] noiseArrayLow = new double[X_SECTIONS][Y_SECTIONS][Z_SECTIONS];
+		final double[][][] noiseArrayAlpha = new double[X_SECTIONS][Y_SECTIONS][Z_SECTIONS];
+		final double[][][] rawDensity = new double[X_SECTIONS][Y_SECTIONS][Z_SECTIONS];
+	}
+
+	/**
+	 * Biomes and smoothed biome parameters of a column, shared by all cubes generated in it
+	 */
+	public static final class ColumnData {
+		private final int cubeX, cubeZ;
+		private final Biome[] biomes;
+		// calculated by the first generator thread that needs them
+		private final double[][] biomeHeight = new double[X_SECTIONS][Z_SECTIONS];
+		private final double[][] biomeVolatility = new double[X_SECTIONS][Z_SECTIONS];
+		private boolean biomeParamsDone;
+
+		private ColumnData(int cubeX, int cubeZ, Biome[] biomes) {
+			this.cubeX = cubeX;
+			this.cubeZ = cubeZ;
+			this.biomes = biomes;
+		}
+	}
+}
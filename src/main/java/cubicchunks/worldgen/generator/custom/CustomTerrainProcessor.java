@@ -37,4 +37,16 @@ public final class CustomTerrainProcessor {
 	public void calculate(final ICubePrimer cube, int cubeX, int cubeY, int cubeZ) {
 		this.terrainGenerator.generate(cube, cubeX, cubeY, cubeZ);
 	}
+
+	public void calculate(final ICubePrimer cube, CustomTerrainGenerator.ColumnData column, int cubeX, int cubeY, int cubeZ) {
+		this.terrainGenerator.generate(cube, column, cubeX, cubeY, cubeZ);
+	}
+
+	public CustomTerrainGenerator.ColumnData getColumnData(int cubeX, int cubeZ) {
+		return this.terrainGenerator.getColumnData(cubeX, cubeZ);
+	}
+
+	public void onColumnUnload(int cubeX, int cubeZ) {
+		this.terrainGenerator.onColumnUnload(cubeX, cubeZ);
+	}
 }
@@ -23,12 +23,15 @@
  */
 package cubicchunks.worldgen.generator.custom.builder;
 
+import com.flowpowered.noise.Utils;
 import com.flowpowered.noise.module.Module;
 import com.flowpowered.noise.module.modifier.Clamp;
 import com.flowpowered.noise.module.modifier.ScaleBias;
 import com.flowpowered.noise.module.modifier.ScalePoint;
 import com.flowpowered.noise.module.source.Perlin;
 
+import java.util.Arrays;
+
 @SuppressWarnings("unused")
 public class BasicBuilder implements IBuilder {
 	protected Module finalModule;
@@ -54,6 +57,18 @@ public class BasicBuilder implements IBuilder {
 	double lacunarity = 2;
 	private double scaleOctaves;
 
+	// the same values as in the module chain, used by getValues
+	private double scale;
+	private double bias;
+	private double[] octavePersistance;
+
+	// constants used by flow-noise to pick gradient vectors
+	private static final int X_NOISE_GEN = 1619;
+	private static final int Y_NOISE_GEN = 31337;
+	private static final int Z_NOISE_GEN = 6971;
+	private static final int SEED_NOISE_GEN = 1013;
+	private static final int SHIFT_NOISE_GEN = 8;
+
 	@Override
 	public void setSeed(int seed) {
 		this.SEED = seed;
@@ -120,8 +135,10 @@ public class BasicBuilder implements IBuilder {
 		// 1 + 1/p + 1/(p^2) + ... + 1/(p^(N-1))
 		// It's equal to (1 - p^N) / (1 - p)
 		// Divide result by it to make sure that result is between -1 and 1
-		scaleBias.setScale(MAX_ELEV*(1 - persistance)/(1 - Math.pow(persistance, NUM_OCTAVES)));
-		scaleBias.setBias(SEA_LEVEL);
+		this.scale = MAX_ELEV*(1 - persistance)/(1 - Math.pow(persistance, NUM_OCTAVES));
+		this.bias = SEA_LEVEL;
+		scaleBias.setScale(scale);
+		scaleBias.setBias(bias);
 
 		Clamp clamp = new Clamp();
 		clamp.setSourceModule(0, scaleBias);
@@ -129,10 +146,125 @@ public class BasicBuilder implements IBuilder {
 		clamp.setUpperBound(clampMax);
 
 		finalModule = clamp;
+
+		octavePersistance = new double[NUM_OCTAVES];
+		double curPersistance = 1.0;
+		for (int i = 0; i < NUM_OCTAVES; i++) {
+			octavePersistance[i] = curPersistance;
+			curPersistance *= persistance;
+		}
 	}
 
 	@Override
 	public double getValue(double x, double y, double z) {
 		return finalModule.getValue(x, y, z);
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Same as calling {@link #getValue(double, double, double)} for each point, but everything that only depends on
+	 * one coordinate is computed once per row instead of once per point, and the module chain is skipped entirely.
+	 * The results are exactly the same.
+	 */
+	@Override
+	public void getValues(double[][][] out, int minX, int minY, int minZ) {
+		int sizeX = out.length;
+		int sizeY = out[0].length;
+		int sizeZ = out[0][0].length;
+		int octaves = NUM_OCTAVES;
+
+		// indexed by [octave*size + i], the hashed lattice cell, interpolation factor and offsets from both lattice points
+		int[] hashX = new int[octaves*sizeX], hashY = new int[octaves*sizeY], hashZ = new int[octaves*sizeZ];
+		double[] curveX = new double[octaves*sizeX], curveY = new double[octaves*sizeY], curveZ = new double[octaves*sizeZ];
+		double[] offX0 = new double[octaves*sizeX], offY0 = new double[octaves*sizeY], offZ0 = new double[octaves*sizeZ];
+		double[] offX1 = new double[octaves*sizeX], offY1 = new double[octaves*sizeY], offZ1 = new double[octaves*sizeZ];
+		fillAxis(hashX, curveX, offX0, offX1, minX, sizeX, SCALE_X, X_NOISE_GEN);
+		fillAxis(hashY, curveY, offY0, offY1, minY, sizeY, SCALE_Y, Y_NOISE_GEN);
+		fillAxis(hashZ, curveZ, offZ0, offZ1, minZ, sizeZ, SCALE_Z, Z_NOISE_GEN);
+
+		double[] vectors = Utils.RANDOM_VECTORS;
+		for (int x = 0; x < sizeX; x++) {
+			for (int y = 0; y < sizeY; y++) {
+				Arrays.fill(out[x][y], 0);
+			}
+		}
+		// octaves are summed in the same order as in Perlin, one octave at a time so that values depending on one
+		// coordinate are loaded once per row
+		for (int o = 0; o < octaves; o++) {
+			int seed = SEED_NOISE_GEN*(SEED + o);
+			double persistance = octavePersistance[o];
+			for (int x = 0; x < sizeX; x++) {
+				int ix = o*sizeX + x;
+				int hx0 = hashX[ix] + seed, hx1 = hx0 + X_NOISE_GEN;
+				double vx0 = offX0[ix], vx1 = offX1[ix], xs = curveX[ix];
+				double[][] outX = out[x];
+				for (int y = 0; y < sizeY; y++) {
+					int iy = o*sizeY + y;
+					int hy0 = hashY[iy], hy1 = hy0 + Y_NOISE_GEN;
+					double vy0 = offY0[iy], vy1 = offY1[iy], ys = curveY[iy];
+					int h00 = hx0 + hy0, h10 = hx1 + hy0, h01 = hx0 + hy1, h11 = hx1 + hy1;
+					double[] outXY = outX[y];
+					for (int z = 0; z < sizeZ; z++) {
+						int iz = o*sizeZ + z;
+						int hz0 = hashZ[iz], hz1 = hz0 + Z_NOISE_GEN;
+						double vz0 = offZ0[iz], vz1 = offZ1[iz], zs = curveZ[iz];
+
+						// same order of operations as Noise.gradientCoherentNoise3D
+						double n0 = gradient(vectors, h00 + hz0, vx0, vy0, vz0);
+						double n1 = gradient(vectors, h10 + hz0, vx1, vy0, vz0);
+						double ix0 = lerp(n0, n1, xs);
+						n0 = gradient(vectors, h01 + hz0, vx0, vy1, vz0);
+						n1 = gradient(vectors, h11 + hz0, vx1, vy1, vz0);
+						double ix1 = lerp(n0, n1, xs);
+						double iy0 = lerp(ix0, ix1, ys);
+						n0 = gradient(vectors, h00 + hz1, vx0, vy0, vz1);
+						n1 = gradient(vectors, h10 + hz1, vx1, vy0, vz1);
+						ix0 = lerp(n0, n1, xs);
+						n0 = gradient(vectors, h01 + hz1, vx0, vy1, vz1);
+						n1 = gradient(vectors, h11 + hz1, vx1, vy1, vz1);
+						ix1 = lerp(n0, n1, xs);
+						double iy1 = lerp(ix0, ix1, ys);
+
+						outXY[z] += lerp(iy0, iy1, zs)*persistance;
+					}
+				}
+			}
+		}
+		for (int x = 0; x < sizeX; x++) {
+			for (int y = 0; y < sizeY; y++) {
+				double[] outXY = out[x][y];
+				for (int z = 0; z < sizeZ; z++) {
+					double value = outXY[z]*scale + bias;
+					outXY[z] = value < clampMin ? clampMin : value > clampMax ? clampMax : value;
+				}
+			}
+		}
+	}
+
+	private void fillAxis(int[] hash, double[] curve, double[] offset0, double[] offset1, int min, int size, double scale, int noiseGen) {
+		for (int i = 0; i < size; i++) {
+			// same as ScalePoint and Perlin with frequency 1
+			double pos = (min + i)*scale*1.0;
+			for (int o = 0; o < NUM_OCTAVES; o++) {
+				double n = Utils.makeInt32Range(pos);
+				int n0 = n > 0.0 ? (int) n : (int) n - 1;
+				int idx = o*size + i;
+				hash[idx] = noiseGen*n0;
+				offset0[idx] = n - n0;
+				offset1[idx] = n - (n0 + 1);
+				curve[idx] = Utils.sCurve3(n - n0);
+				pos *= lacunarity;
+			}
+		}
+	}
+
+	private static double gradient(double[] vectors, int vectorIndex, double xv, double yv, double zv) {
+		vectorIndex ^= (vectorIndex >> SHIFT_NOISE_GEN);
+		vectorIndex &= 0xff;
+		int i = vectorIndex << 2;
+		return (vectors[i]*xv + vectors[i + 1]*yv + vectors[i + 2]*zv)*2.12;
+	}
+
+	private static double lerp(double n0, double n1, double a) {
+		return ((1.0 - a)*n0) + (a*n1);
+	}
+}
@@ -32,4 +32,23 @@ public interface IBuilder {
 	void build() throws IllegalArgumentException;
 
 	double getValue(double x, double y, double z);
+
+	/**
+	 * Fill {@code out} with values at integer coordinates, {@code out[x][y][z]} is set to
+	 * {@code getValue(minX + x, minY + y, minZ + z)}.
+	 *
+	 * @param out the array to fill
+	 * @param minX x coordinate of {@code out[0][y][z]}
+	 * @param minY y coordinate of {@code out[x][0][z]}
+	 * @param minZ z coordinate of {@code out[x][y][0]}
+	 */
+	default void getValues(double[][][] out, int minX, int minY, int minZ) {
+		for (int x = 0; x < out.length; x++) {
+			for (int y = 0; y < out[x].length; y++) {
+				for (int z = 0; z < out[x][y].length; z++) {
+					out[x][y][z] = getValue(minX + x, minY + y, minZ + z);
+				}
+			}
+		}
+	}
 }
\ No newline at end of file
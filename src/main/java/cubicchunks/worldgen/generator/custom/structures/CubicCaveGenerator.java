@@ -27,12 +27,13 @@ import net.minecraft.block.state.IBlockState;
 import net.minecraft.init.Blocks;
 import net.minecraft.world.gen.structure.StructureBoundingBox;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 import java.util.function.Predicate;
 
 import cubicchunks.util.CubePos;
 import cubicchunks.util.StructureGenUtil;
-import cubicchunks.world.ICubicWorld;
 import cubicchunks.world.cube.Cube;
 import cubicchunks.worldgen.generator.ICubePrimer;
 
@@ -49,7 +50,7 @@ import static net.minecraft.util.math.MathHelper.sin;
  * Modified Minecraft cave generation code. Based on Robinton's cave generation implementation.
  */
 //TODO: Fix code duplication beterrn cave and cave generators
-public class CubicCaveGenerator extends CubicStructureGenerator {
+public class CubicCaveGenerator extends CubicTunnelGenerator {
 
 	//=============================================
 	//Possibly configurable values
@@ -147,11 +148,13 @@ public class CubicCaveGenerator extends CubicStructureGenerator {
 
 
 	@Override
-	protected void generate(ICubicWorld world, ICubePrimer cube,
-	                        int cubeXOrigin, int cubeYOrigin, int cubeZOrigin, CubePos generatedCubePos) {
-		if (this.rand.nextInt(CAVE_RARITY) != 0) {
-			return;
-		}
+	protected boolean hasTunnels(int structureX, int structureY, int structureZ) {
+		return this.rand.nextInt(CAVE_RARITY) == 0;
+	}
+
+	@Override
+	protected List<TunnelBranch> generateTunnels(int cubeXOrigin, int cubeYOrigin, int cubeZOrigin) {
+		List<TunnelBranch> tunnels = new ArrayList<>();
 		//very low probability of generating high number
 		int nodes = this.rand.nextInt(this.rand.nextInt(this.rand.nextInt(MAX_INIT_NODES + 1) + 1) + 1);
 
@@ -162,8 +165,8 @@ public class CubicCaveGenerator extends CubicStructureGenerator {
 			int subBranches = 1;
 
 			if (this.rand.nextInt(LARGE_NODE_RARITY) == 0) {
-				this.generateLargeNode(cube, this.rand.nextLong(), generatedCubePos,
-					branchStartX, branchStartY, branchStartZ);
+				tunnels.add(this.generateLargeNode(this.rand.nextLong(),
+					branchStartX, branchStartY, branchStartZ));
 				subBranches += this.rand.nextInt(LARGE_NODE_MAX_BRANCHES);
 			}
 
@@ -180,19 +183,19 @@ public class CubicCaveGenerator extends CubicStructureGenerator {
 				int maxWalkedDistance = 0;
 				double vertCaveSizeMod = 1.0;
 
-				this.generateNode(cube, this.rand.nextLong(), generatedCubePos,
+				tunnels.add(this.generateNode(this.rand.nextLong(),
 					branchStartX, branchStartY, branchStartZ,
 					baseHorizSize, horizDirAngle, vertDirAngle,
-					startWalkedDistance, maxWalkedDistance, vertCaveSizeMod);
+					startWalkedDistance, maxWalkedDistance, vertCaveSizeMod));
 			}
 		}
+		return tunnels;
 	}
 
 	/**
 	 * Generates a flattened cave "room", usually more caves split off it
 	 */
-	protected void generateLargeNode(ICubePrimer cube, long seed, CubePos generatedCubePos,
-	                                 double x, double y, double z) {
+	protected TunnelBranch generateLargeNode(long seed, double x, double y, double z) {
 		float baseHorizSize = 1.0F + this.rand.nextFloat()*6.0F;
 		float horizDirAngle = 0;
 		float vertDirAngle = 0;
@@ -200,7 +203,7 @@ public class CubicCaveGenerator extends CubicStructureGenerator {
 		int startWalkedDistance = -1;
 		int maxWalkedDistance = -1;
 		double vertCaveSizeMod = 0.5;
-		this.generateNode(cube, seed, generatedCubePos, x, y, z,
+		return this.generateNode(seed, x, y, z,
 			baseHorizSize, horizDirAngle, vertDirAngle,
 			startWalkedDistance, maxWalkedDistance, vertCaveSizeMod);
 	}
@@ -208,9 +211,7 @@ public class CubicCaveGenerator extends CubicStructureGenerator {
 	/**
 	 * Recursively generates a node in the current cave system tree.
 	 *
-	 * @param cube block buffer to modify
 	 * @param seed random seed to use
-	 * @param generatedCubePos position of the cube to modify
 	 * @param caveX starting x coordinate of the cave
 	 * @param caveY starting Y coordinate of the cave
 	 * @param caveZ starting Z coordinate of the cave
@@ -222,14 +223,18 @@ public class CubicCaveGenerator extends CubicStructureGenerator {
 	 * @param maxWalkedDistance maximum distance the cave can go forwards, <= 0 to use default
 	 * @param vertDirAngle changes vertical size of the cave, values < 1 result in flattened caves, > 1 result in
 	 * vertically stretched caves
+	 *
+	 * @return the carving steps of this node, and the nodes it splits into
 	 */
-	protected void generateNode(ICubePrimer cube, long seed,
-	                            CubePos generatedCubePos,
-	                            double caveX, double caveY, double caveZ,
-	                            float baseCaveSize, float horizDirAngle, float vertDirAngle,
-	                            int startWalkedDistance, int maxWalkedDistance, double vertCaveSizeMod) {
+	protected TunnelBranch generateNode(long seed,
+	                                    double caveX, double caveY, double caveZ,
+	                                    float baseCaveSize, float horizDirAngle, float vertDirAngle,
+	                                    int startWalkedDistance, int maxWalkedDistance, double vertCaveSizeMod) {
 		Random rand = new Random(seed);
 
+		//CHANGE: multiply max(1, vertCaveSizeMod)
+		TunnelBranch branch = new TunnelBranch(baseCaveSize*max(1, vertCaveSizeMod) + CAVE_SIZE_ADD + Cube.SIZE);
+
 		//store by how much the horizontal and vertical direction angles will change each step
 		float horizDirChange = 0.0F;
 		float vertDirChange = 0.0F;
@@ -293,18 +298,19 @@ public class CubicCaveGenerator extends CubicStructureGenerator {
 			//if we reached split point - try to split
 			//can split only if it's not final branch and the cave is still big enough (>1 block radius)
 			if (!finalStep && walkedDistance == splitPoint && baseCaveSize > 1.0F) {
-				this.generateNode(cube, rand.nextLong(),
-					generatedCubePos, caveX, caveY, caveZ,
+				TunnelBranch splitA = this.generateNode(rand.nextLong(),
+					caveX, caveY, caveZ,
 					rand.nextFloat()*0.5F + 0.5F,//base cave size
 					horizDirAngle - ((float) Math.PI/2F),//horiz. angle - subtract 90 degrees
 					vertDirAngle/3.0F, walkedDistance, maxWalkedDistance,
 					1.0D);
-				this.generateNode(cube, rand.nextLong(), generatedCubePos, caveX, caveY, caveZ,
+				TunnelBranch splitB = this.generateNode(rand.nextLong(), caveX, caveY, caveZ,
 					rand.nextFloat()*0.5F + 0.5F,//base cave size
 					horizDirAngle + ((float) Math.PI/2F),//horiz. angle - add 90 degrees
 					vertDirAngle/3.0F, walkedDistance, maxWalkedDistance,
 					1.0D);
-				return;
+				branch.split(splitA, splitB);
+				return branch;
 			}
 
 			//carve blocks only on some percentage of steps, unless this is the final branch
@@ -312,27 +318,33 @@ public class CubicCaveGenerator extends CubicStructureGenerator {
 				continue;
 			}
 
-			double xDist = caveX - generatedCubePos.getXCenter();
-			double yDist = caveY - generatedCubePos.getYCenter();
-			double zDist = caveZ - generatedCubePos.getZCenter();
-			double maxStepsDist = maxWalkedDistance - walkedDistance;
-			//CHANGE: multiply max(1, vertCaveSizeMod)
-			double maxDistToCube = baseCaveSize*max(1, vertCaveSizeMod) + CAVE_SIZE_ADD + Cube.SIZE;
-
-			//can this cube be reached at all?
-			//if even after going max distance allowed by remaining steps, it's still too far - stop
-			//TODO: does it make any performance difference?
-			if (xDist*xDist + yDist*yDist + zDist*zDist - maxStepsDist*maxStepsDist > maxDistToCube*maxDistToCube) {
-				return;
-			}
-
-			tryCarveBlocks(cube, generatedCubePos,
-				caveX, caveY, caveZ,
-				caveSizeHoriz, caveSizeVert);
+			branch.addStep(caveX, caveY, caveZ,
+				caveSizeHoriz, caveSizeVert,
+				maxWalkedDistance - walkedDistance);
 			if (finalStep) {
-				return;
+				return branch;
 			}
 		}
+		return branch;
+	}
+
+	@Override
+	protected boolean canReachCube(TunnelBranch branch, int step, CubePos generatedCubePos) {
+		double xDist = branch.getX(step) - generatedCubePos.getXCenter();
+		double yDist = branch.getY(step) - generatedCubePos.getYCenter();
+		double zDist = branch.getZ(step) - generatedCubePos.getZCenter();
+		double maxStepsDist = branch.getMaxStepsDist(step);
+		double maxDistToCube = branch.maxDistToCube;
+
+		//can this cube be reached at all?
+		return xDist*xDist + yDist*yDist + zDist*zDist - maxStepsDist*maxStepsDist <= maxDistToCube*maxDistToCube;
+	}
+
+	@Override
+	protected void carveStep(ICubePrimer cube, TunnelBranch branch, int step, CubePos generatedCubePos) {
+		tryCarveBlocks(cube, generatedCubePos,
+			branch.getX(step), branch.getY(step), branch.getZ(step),
+			branch.getSizeHoriz(step), branch.getSizeVert(step));
 	}
 
 	//returns true if cave generation should be continued
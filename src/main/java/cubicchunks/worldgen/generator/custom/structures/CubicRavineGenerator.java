@@ -27,12 +27,13 @@ import net.minecraft.block.state.IBlockState;
 import net.minecraft.init.Blocks;
 import net.minecraft.world.gen.structure.StructureBoundingBox;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
 import java.util.function.Predicate;
 
 import cubicchunks.util.CubePos;
 import cubicchunks.util.StructureGenUtil;
-import cubicchunks.world.ICubicWorld;
 import cubicchunks.world.cube.Cube;
 import cubicchunks.worldgen.generator.ICubePrimer;
 
@@ -42,7 +43,7 @@ import static net.minecraft.util.math.MathHelper.cos;
 import static net.minecraft.util.math.MathHelper.floor_double;
 import static net.minecraft.util.math.MathHelper.sin;
 
-public class CubicRavineGenerator extends CubicStructureGenerator {
+public class CubicRavineGenerator extends CubicTunnelGenerator {
 
 	private static final int RAVINE_RARITY = 50*16;
 
@@ -99,19 +100,13 @@ public class CubicRavineGenerator extends CubicStructureGenerator {
 	private static final Predicate<IBlockState> isBlockReplaceable = (state ->
 		state.getBlock() == Blocks.STONE || state.getBlock() == Blocks.DIRT || state.getBlock() == Blocks.GRASS);
 
-	/**
-	 * Contains values of ravine widths at each height.
-	 * <p>
-	 * For cubic chunks the height value used wraps around.
-	 */
-	private float[] widthDecreaseFactors = new float[1024];
+	@Override
+	protected boolean hasTunnels(int structureX, int structureY, int structureZ) {
+		return rand.nextInt(RAVINE_RARITY) == 0 && structureY <= MAX_CUBE_Y;
+	}
 
 	@Override
-	protected void generate(ICubicWorld world, ICubePrimer cube, int structureX, int structureY, int structureZ,
-	                        CubePos generatedCubePos) {
-		if (rand.nextInt(RAVINE_RARITY) != 0 || structureY > MAX_CUBE_Y) {
-			return;
-		}
+	protected List<TunnelBranch> generateTunnels(int structureX, int structureY, int structureZ) {
 		double startX = localToBlock(structureX, rand.nextInt(Cube.SIZE));
 		double startY = localToBlock(structureY, rand.nextInt(Cube.SIZE));
 		double startZ = localToBlock(structureZ, rand.nextInt(Cube.SIZE));
@@ -123,15 +118,15 @@ public class CubicRavineGenerator extends CubicStructureGenerator {
 		int startWalkedDistance = 0;
 		int maxWalkedDistance = 0;//choose value automatically
 
-		this.generateNode(cube, rand.nextLong(), generatedCubePos, startX, startY, startZ,
+		return Collections.singletonList(this.generateNode(rand.nextLong(), startX, startY, startZ,
 			baseRavineSize, vertDirectionAngle, horizDirectionAngle,
-			startWalkedDistance, maxWalkedDistance, VERT_SIZE_FACTOR);
+			startWalkedDistance, maxWalkedDistance, VERT_SIZE_FACTOR));
 	}
 
-	protected void generateNode(ICubePrimer cube, long seed, CubePos generatedCubePos,
-	                            double ravineX, double ravineY, double ravineZ,
-	                            float baseRavineSize, float horizDirAngle, float vertDirAngle,
-	                            int startWalkedDistance, int maxWalkedDistance, double vertRavineSizeMod) {
+	protected TunnelBranch generateNode(long seed,
+	                                    double ravineX, double ravineY, double ravineZ,
+	                                    float baseRavineSize, float horizDirAngle, float vertDirAngle,
+	                                    int startWalkedDistance, int maxWalkedDistance, double vertRavineSizeMod) {
 		Random rand = new Random(seed);
 
 		//store by how much the horizontal and vertical(?) direction angles will change each step
@@ -156,7 +151,8 @@ public class CubicRavineGenerator extends CubicStructureGenerator {
 			walkedDistance = startWalkedDistance;
 		}
 
-		this.widthDecreaseFactors = generateRavineWidthFactors(rand);
+		RavineBranch branch = new RavineBranch(baseRavineSize + RAVINE_SIZE_ADD + Cube.SIZE,
+			generateRavineWidthFactors(rand));
 
 		for (; walkedDistance < maxWalkedDistance; ++walkedDistance) {
 			float fractionWalked = walkedDistance/(float) maxWalkedDistance;
@@ -195,33 +191,41 @@ public class CubicRavineGenerator extends CubicStructureGenerator {
 				continue;
 			}
 
-			double xDist = ravineX - generatedCubePos.getXCenter();
-			double zDist = ravineZ - generatedCubePos.getZCenter();
-			double maxStepsDist = maxWalkedDistance - walkedDistance;
-
-			double maxDistToCube = baseRavineSize + RAVINE_SIZE_ADD + Cube.SIZE;
-			//can this cube be reached at all?
-			//if even after going max distance allowed by remaining steps, it's still too far - stop
-			//NOTE: don't check yDist, this is optimization and with Y scale stretched as much as with ravines
-			//the check would be useless
-			//TODO: does it make any performance difference?
-			if (xDist*xDist + zDist*zDist - maxStepsDist*maxStepsDist > maxDistToCube*maxDistToCube) {
-				return;
-			}
-
-			tryCarveBlocks(cube, generatedCubePos,
-				ravineX, ravineY, ravineZ,
-				ravineSizeHoriz, ravineSizeVert);
+			branch.addStep(ravineX, ravineY, ravineZ,
+				ravineSizeHoriz, ravineSizeVert,
+				maxWalkedDistance - walkedDistance);
 
 			if (finalStep) {
-				return;
+				return branch;
 			}
 		}
+		return branch;
+	}
+
+	@Override
+	protected boolean canReachCube(TunnelBranch branch, int step, CubePos generatedCubePos) {
+		double xDist = branch.getX(step) - generatedCubePos.getXCenter();
+		double zDist = branch.getZ(step) - generatedCubePos.getZCenter();
+		double maxStepsDist = branch.getMaxStepsDist(step);
+		double maxDistToCube = branch.maxDistToCube;
+
+		//can this cube be reached at all?
+		//NOTE: don't check yDist, this is optimization and with Y scale stretched as much as with ravines
+		//the check would be useless
+		return xDist*xDist + zDist*zDist - maxStepsDist*maxStepsDist <= maxDistToCube*maxDistToCube;
+	}
+
+	@Override
+	protected void carveStep(ICubePrimer cube, TunnelBranch branch, int step, CubePos generatedCubePos) {
+		tryCarveBlocks(cube, generatedCubePos,
+			branch.getX(step), branch.getY(step), branch.getZ(step),
+			branch.getSizeHoriz(step), branch.getSizeVert(step),
+			((RavineBranch) branch).widthDecreaseFactors);
 	}
 
 	private void tryCarveBlocks(ICubePrimer cube, CubePos generatedCubePos,
 	                            double ravineX, double ravineY, double ravineZ,
-	                            double ravineSizeHoriz, double ravineSizeVert) {
+	                            double ravineSizeHoriz, double ravineSizeVert, float[] widthDecreaseFactors) {
 		double genCubeCenterX = generatedCubePos.getXCenter();
 		double genCubeCenterY = generatedCubePos.getYCenter();
 		double genCubeCenterZ = generatedCubePos.getZCenter();
@@ -254,13 +258,15 @@ public class CubicRavineGenerator extends CubicStructureGenerator {
 			(b) -> b.getBlock() == Blocks.WATER || b.getBlock() == Blocks.FLOWING_WATER);
 
 		if (!hitLiquid) {
-			carveBlocks(cube, generatedCubePos, ravineX, ravineY, ravineZ, ravineSizeHoriz, ravineSizeVert, boundingBox);
+			carveBlocks(cube, generatedCubePos, ravineX, ravineY, ravineZ, ravineSizeHoriz, ravineSizeVert,
+				widthDecreaseFactors, boundingBox);
 		}
 	}
 
 	private void carveBlocks(ICubePrimer cube, CubePos generatedCubePos,
 	                         double ravineX, double ravineY, double ravineZ,
-	                         double ravineSizeHoriz, double ravineSizeVert, StructureBoundingBox boundingBox) {
+	                         double ravineSizeHoriz, double ravineSizeVert, float[] widthDecreaseFactors,
+	                         StructureBoundingBox boundingBox) {
 		int generatedCubeX = generatedCubePos.getX();
 		int generatedCubeY = generatedCubePos.getY();
 		int generatedCubeZ = generatedCubePos.getZ();
@@ -289,7 +295,7 @@ public class CubicRavineGenerator extends CubicStructureGenerator {
 					//most of these blocks beyond the not-stretched height range are never carved out
 					//the result is that instead the ravine isn't very small at the bottom,
 					//but ends with actual floor instead
-					double widthDecreaseFactor = this.widthDecreaseFactors[(localY + generatedCubeY*16) & 0xFF];
+					double widthDecreaseFactor = widthDecreaseFactors[(localY + generatedCubeY*16) & 0xFF];
 					if ((distX*distX + distZ*distZ)*widthDecreaseFactor + distY*distY/6.0D >= 1.0D) {
 						continue;
 					}
@@ -327,4 +333,18 @@ public class CubicRavineGenerator extends CubicStructureGenerator {
 
 		return values;
 	}
-}
\ No newline at end of file
+
+	private static class RavineBranch extends TunnelBranch {
+		/**
+		 * Contains values of ravine widths at each height.
+		 * <p>
+		 * For cubic chunks the height value used wraps around.
+		 */
+		final float[] widthDecreaseFactors;
+
+		RavineBranch(double maxDistToCube, float[] widthDecreaseFactors) {
+			super(maxDistToCube);
+			this.widthDecreaseFactors = widthDecreaseFactors;
+		}
+	}
+}
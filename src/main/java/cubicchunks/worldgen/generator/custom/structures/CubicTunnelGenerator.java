@@ -0,0 +1,265 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.worldgen.generator.custom.structures;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import cubicchunks.util.CubePos;
+import cubicchunks.world.ICubicWorld;
+import cubicchunks.worldgen.generator.ICubePrimer;
+
+/**
+ * Base class for cave-like structures made of branching tunnels.
+ * <p>
+ * Neither the structure origins that have tunnels nor the tunnels themselves depend on the generated cube, so both
+ * are cached and shared by all cubes generated with this generator. Generating a cube only visits the origins that
+ * have tunnels, and only replays the branches that can reach it.
+ */
+public abstract class CubicTunnelGenerator extends CubicStructureGenerator {
+
+	/**
+	 * Origins are grouped into cubic regions of this size (as a power of 2) to remember which ones have tunnels
+	 */
+	private static final int REGION_BITS = 4;
+	private static final int REGION_SIZE = 1 << REGION_BITS;
+
+	private static final int MAX_CACHED_REGIONS = 256;
+	/**
+	 * Maximum amount of structure origins to keep the tunnels for
+	 */
+	private static final int MAX_CACHED_ORIGINS = 512;
+
+	/**
+	 * Coordinates of origins that have tunnels in each region, as x, y, z triples in generation order
+	 */
+	private final Map<CubePos, int[]> regionCache = new LinkedHashMap<CubePos, int[]>(
+		MAX_CACHED_REGIONS, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<CubePos, int[]> eldest) {
+			return size() > MAX_CACHED_REGIONS;
+		}
+	};
+	private final Map<CubePos, List<TunnelBranch>> tunnelCache = new LinkedHashMap<CubePos, List<TunnelBranch>>(
+		MAX_CACHED_ORIGINS, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<CubePos, List<TunnelBranch>> eldest) {
+			return size() > MAX_CACHED_ORIGINS;
+		}
+	};
+
+	private boolean seedInitialized;
+	private long cachedSeed;
+	private long randX, randY, randZ;
+
+	@Override
+	public void generate(ICubicWorld world, ICubePrimer cube, CubePos cubePos) {
+		this.world = world;
+		checkSeed(world);
+		int radius = this.range;
+		int minX = cubePos.getX() - radius, maxX = cubePos.getX() + radius;
+		int minY = cubePos.getY() - radius, maxY = cubePos.getY() + radius;
+		int minZ = cubePos.getZ() - radius, maxZ = cubePos.getZ() + radius;
+
+		// origins are visited in the same order as in CubicStructureGenerator, it affects the result
+		// when tunnels overlap
+		int[] origins = new int[48];
+		int count = 0;
+		for (int regionX = minX >> REGION_BITS; regionX <= maxX >> REGION_BITS; regionX++) {
+			for (int regionY = minY >> REGION_BITS; regionY <= maxY >> REGION_BITS; regionY++) {
+				for (int regionZ = minZ >> REGION_BITS; regionZ <= maxZ >> REGION_BITS; regionZ++) {
+					int[] regionOrigins = getRegionOrigins(regionX, regionY, regionZ);
+					for (int i = 0; i < regionOrigins.length; i += 3) {
+						int x = regionOrigins[i], y = regionOrigins[i + 1], z = regionOrigins[i + 2];
+						if (x < minX || x > maxX || y < minY || y > maxY || z < minZ || z > maxZ) {
+							continue;
+						}
+						if (count + 3 > origins.length) {
+							origins = Arrays.copyOf(origins, origins.length*2);
+						}
+						origins[count++] = x;
+						origins[count++] = y;
+						origins[count++] = z;
+					}
+				}
+			}
+		}
+		sortOrigins(origins, count);
+
+		for (int i = 0; i < count; i += 3) {
+			for (TunnelBranch branch : getTunnels(origins[i], origins[i + 1], origins[i + 2])) {
+				generateBranch(cube, branch, cubePos);
+			}
+		}
+	}
+
+	@Override
+	protected void generate(ICubicWorld world, ICubePrimer cube,
+	                        int structureX, int structureY, int structureZ,
+	                        CubePos generatedCubePos) {
+		checkSeed(world);
+		seedForOrigin(structureX, structureY, structureZ);
+		if (!hasTunnels(structureX, structureY, structureZ)) {
+			return;
+		}
+		for (TunnelBranch branch : getTunnels(structureX, structureY, structureZ)) {
+			generateBranch(cube, branch, generatedCubePos);
+		}
+	}
+
+	private void checkSeed(ICubicWorld world) {
+		long seed = world.getSeed();
+		if (seedInitialized && seed == cachedSeed) {
+			return;
+		}
+		regionCache.clear();
+		tunnelCache.clear();
+		seedInitialized = true;
+		cachedSeed = seed;
+		//same as in CubicStructureGenerator
+		this.rand.setSeed(seed);
+		randX = this.rand.nextLong();
+		randY = this.rand.nextLong();
+		randZ = this.rand.nextLong();
+	}
+
+	private void seedForOrigin(int x, int y, int z) {
+		this.rand.setSeed(x*randX ^ y*randY ^ z*randZ ^ cachedSeed);
+	}
+
+	private int[] getRegionOrigins(int regionX, int regionY, int regionZ) {
+		CubePos key = new CubePos(regionX, regionY, regionZ);
+		int[] origins = regionCache.get(key);
+		if (origins != null) {
+			return origins;
+		}
+		origins = new int[0];
+		int count = 0;
+		for (int localX = 0; localX < REGION_SIZE; localX++) {
+			for (int localY = 0; localY < REGION_SIZE; localY++) {
+				for (int localZ = 0; localZ < REGION_SIZE; localZ++) {
+					int x = (regionX << REGION_BITS) + localX;
+					int y = (regionY << REGION_BITS) + localY;
+					int z = (regionZ << REGION_BITS) + localZ;
+					seedForOrigin(x, y, z);
+					if (hasTunnels(x, y, z)) {
+						if (count + 3 > origins.length) {
+							origins = Arrays.copyOf(origins, Math.max(12, origins.length*2));
+						}
+						origins[count++] = x;
+						origins[count++] = y;
+						origins[count++] = z;
+					}
+				}
+			}
+		}
+		origins = Arrays.copyOf(origins, count);
+		regionCache.put(key, origins);
+		return origins;
+	}
+
+	private List<TunnelBranch> getTunnels(int x, int y, int z) {
+		CubePos origin = new CubePos(x, y, z);
+		List<TunnelBranch> branches = tunnelCache.get(origin);
+		if (branches == null) {
+			seedForOrigin(x, y, z);
+			hasTunnels(x, y, z); // the tunnels are generated with the random state after this check
+			branches = generateTunnels(x, y, z);
+			tunnelCache.put(origin, branches);
+		}
+		return branches;
+	}
+
+	/**
+	 * Sort x, y, z triples by x, then y, then z
+	 */
+	private static void sortOrigins(int[] origins, int count) {
+		for (int i = 3; i < count; i += 3) {
+			int x = origins[i], y = origins[i + 1], z = origins[i + 2];
+			int j = i - 3;
+			while (j >= 0 && compareOrigins(origins[j], origins[j + 1], origins[j + 2], x, y, z) > 0) {
+				origins[j + 3] = origins[j];
+				origins[j + 4] = origins[j + 1];
+				origins[j + 5] = origins[j + 2];
+				j -= 3;
+			}
+			origins[j + 3] = x;
+			origins[j + 4] = y;
+			origins[j + 5] = z;
+		}
+	}
+
+	private static int compareOrigins(int x1, int y1, int z1, int x2, int y2, int z2) {
+		if (x1 != x2) {
+			return Integer.compare(x1, x2);
+		}
+		if (y1 != y2) {
+			return Integer.compare(y1, y2);
+		}
+		return Integer.compare(z1, z2);
+	}
+
+	private void generateBranch(ICubePrimer cube, TunnelBranch branch, CubePos generatedCubePos) {
+		if (!branch.intersects(generatedCubePos)) {
+			return;
+		}
+		for (int step = 0; step < branch.getStepCount(); step++) {
+			//if even after going max distance allowed by remaining steps, it's still too far - stop
+			if (!canReachCube(branch, step, generatedCubePos)) {
+				return;
+			}
+			carveStep(cube, branch, step, generatedCubePos);
+		}
+		if (branch.splitA != null) {
+			generateBranch(cube, branch.splitA, generatedCubePos);
+		}
+		if (branch.splitB != null) {
+			generateBranch(cube, branch.splitB, generatedCubePos);
+		}
+	}
+
+	/**
+	 * Check if there are any tunnels starting at the given origin, using {@link #rand} seeded for that origin
+	 */
+	protected abstract boolean hasTunnels(int structureX, int structureY, int structureZ);
+
+	/**
+	 * Generate all tunnels starting at the given origin, continuing to use {@link #rand} after
+	 * {@link #hasTunnels(int, int, int)}. Branches are carved in the order of the returned list.
+	 */
+	protected abstract List<TunnelBranch> generateTunnels(int structureX, int structureY, int structureZ);
+
+	/**
+	 * Check if the given step or any later step of the branch may still reach the generated cube. Once it returns
+	 * false, the rest of the branch is skipped for that cube.
+	 */
+	protected abstract boolean canReachCube(TunnelBranch branch, int step, CubePos generatedCubePos);
+
+	/**
+	 * Carve blocks of the given step that are in the generated cube
+	 */
+	protected abstract void carveStep(ICubePrimer cube, TunnelBranch branch, int step, CubePos generatedCubePos);
+}
@@ -0,0 +1,142 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.worldgen.generator.custom.structures;
+
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+import cubicchunks.util.CubePos;
+
+/**
+ * Carving steps of a single cave or ravine branch. Each step is a point on the path of the branch, the size of the
+ * tunnel at that point, and the remaining walk distance used to tell if the branch can still reach a cube.
+ * <p>
+ * Branches only depend on the structure origin, so they are generated once and then replayed for each cube they
+ * can reach. The bounds include all steps of this branch and of the branches it splits into.
+ */
+class TunnelBranch {
+
+	private static final int STEP_SIZE = 6;
+
+	/**
+	 * Distance from tunnel center to the edge of the area changed by a carving step, in addition to tunnel size
+	 */
+	private static final double CARVE_MARGIN = 2;
+
+	private double[] steps = new double[16*STEP_SIZE];
+	private int stepCount;
+
+	/**
+	 * Maximum distance from a carving step to the center of a cube it can still change
+	 */
+	final double maxDistToCube;
+
+	@Nullable TunnelBranch splitA;
+	@Nullable TunnelBranch splitB;
+
+	private double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+	private double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+
+	TunnelBranch(double maxDistToCube) {
+		this.maxDistToCube = maxDistToCube;
+	}
+
+	void addStep(double x, double y, double z, double sizeHoriz, double sizeVert, double maxStepsDist) {
+		if ((stepCount + 1)*STEP_SIZE > steps.length) {
+			steps = Arrays.copyOf(steps, steps.length*2);
+		}
+		int i = stepCount*STEP_SIZE;
+		steps[i] = x;
+		steps[i + 1] = y;
+		steps[i + 2] = z;
+		steps[i + 3] = sizeHoriz;
+		steps[i + 4] = sizeVert;
+		steps[i + 5] = maxStepsDist;
+		stepCount++;
+
+		minX = Math.min(minX, x - sizeHoriz - CARVE_MARGIN);
+		minY = Math.min(minY, y - sizeVert - CARVE_MARGIN);
+		minZ = Math.min(minZ, z - sizeHoriz - CARVE_MARGIN);
+		maxX = Math.max(maxX, x + sizeHoriz + CARVE_MARGIN);
+		maxY = Math.max(maxY, y + sizeVert + CARVE_MARGIN);
+		maxZ = Math.max(maxZ, z + sizeHoriz + CARVE_MARGIN);
+	}
+
+	/**
+	 * Set the branches this branch splits into after it's last step. Both branches must be complete.
+	 */
+	void split(TunnelBranch a, TunnelBranch b) {
+		this.splitA = a;
+		this.splitB = b;
+		include(a);
+		include(b);
+	}
+
+	private void include(TunnelBranch branch) {
+		minX = Math.min(minX, branch.minX);
+		minY = Math.min(minY, branch.minY);
+		minZ = Math.min(minZ, branch.minZ);
+		maxX = Math.max(maxX, branch.maxX);
+		maxY = Math.max(maxY, branch.maxY);
+		maxZ = Math.max(maxZ, branch.maxZ);
+	}
+
+	/**
+	 * Check if any step of this branch or the branches it splits into can change blocks in the given cube
+	 */
+	boolean intersects(CubePos cubePos) {
+		return maxX >= cubePos.getMinBlockX() && minX <= cubePos.getMaxBlockX() + 1 &&
+			maxY >= cubePos.getMinBlockY() && minY <= cubePos.getMaxBlockY() + 1 &&
+			maxZ >= cubePos.getMinBlockZ() && minZ <= cubePos.getMaxBlockZ() + 1;
+	}
+
+	int getStepCount() {
+		return stepCount;
+	}
+
+	double getX(int step) {
+		return steps[step*STEP_SIZE];
+	}
+
+	double getY(int step) {
+		return steps[step*STEP_SIZE + 1];
+	}
+
+	double getZ(int step) {
+		return steps[step*STEP_SIZE + 2];
+	}
+
+	double getSizeHoriz(int step) {
+		return steps[step*STEP_SIZE + 3];
+	}
+
+	double getSizeVert(int step) {
+		return steps[step*STEP_SIZE + 4];
+	}
+
+	double getMaxStepsDist(int step) {
+		return steps[step*STEP_SIZE + 5];
+	}
+}
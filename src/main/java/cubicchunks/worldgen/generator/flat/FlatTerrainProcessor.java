@@ -26,6 +26,8 @@ package cubicchunks.worldgen.generator.flat;
 import net.minecraft.init.Blocks;
 import net.minecraft.util.math.BlockPos;
 
+import java.util.concurrent.Callable;
+
 import cubicchunks.util.Box;
 import cubicchunks.world.ICubicWorld;
 import cubicchunks.world.cube.Cube;
@@ -75,6 +77,12 @@ public class FlatTerrainProcessor extends BasicCubeGenerator {
 		return primer;
 	}
 
+	@Override
+	public Callable<ICubePrimer> prepareCube(int cubeX, int cubeY, int cubeZ) {
+		// only depends on the position
+		return () -> generateCube(cubeX, cubeY, cubeZ);
+	}
+
 	@Override
 	public void populate(Cube cube) {
 	}
@@ -27,6 +27,7 @@ import net.minecraft.block.state.IBlockState;
 import net.minecraft.entity.EnumCreatureType;
 import net.minecraft.init.Blocks;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
 import net.minecraft.world.World;
 import net.minecraft.world.biome.Biome;
 import net.minecraft.world.biome.Biome.SpawnListEntry;
@@ -35,9 +36,12 @@ import net.minecraft.world.chunk.IChunkGenerator;
 import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import net.minecraftforge.fml.common.registry.GameRegistry;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 import cubicchunks.CubicChunks;
 import cubicchunks.util.Box;
@@ -48,6 +52,7 @@ import cubicchunks.world.cube.Cube;
 import cubicchunks.worldgen.generator.CubePrimer;
 import cubicchunks.worldgen.generator.ICubeGenerator;
 import cubicchunks.worldgen.generator.ICubePrimer;
+import cubicchunks.worldgen.generator.UniformCubePrimer;
 
 /**
  * A cube generator that tries to mirror vanilla world generation. Cubes in the normal world range will be copied from a
@@ -56,18 +61,26 @@ import cubicchunks.worldgen.generator.ICubePrimer;
  */
 public class VanillaCompatibilityGenerator implements ICubeGenerator {
 
+	/**
+	 * Maximum amount of vanilla chunks to keep until all of their cubes are generated
+	 */
+	private static final int MAX_CACHED_CHUNKS = 64;
+
 	private final int worldHeightBlocks;
 	private final int worldHeightCubes;
 	private IChunkGenerator vanilla;
 	private ICubicWorld world;
 	/**
-	 * Last chunk that was generated from the vanilla world gen
+	 * Cubes in the vanilla range that were copied from a vanilla chunk, but weren't generated yet. Vanilla generates
+	 * whole chunks, so all cubes of a chunk are copied at once. Only accessed from the server thread.
 	 */
-	private Chunk lastChunk;
-	/**
-	 * We generate all the chunks in the vanilla range at once. This variable prevents infinite recursion
-	 */
-	private boolean optimizationHack;
+	private final Map<Long, CubePrimer[]> vanillaCubes = new LinkedHashMap<Long, CubePrimer[]>(
+		MAX_CACHED_CHUNKS, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, CubePrimer[]> eldest) {
+			return size() > MAX_CACHED_CHUNKS;
+		}
+	};
 	private Biome[] biomes;
 	/**
 	 * Detected block for filling cubes below the world
@@ -77,6 +90,10 @@ public class VanillaCompatibilityGenerator implements ICubeGenerator {
 	 * Detected block for filling cubes above the world
 	 */
 	private IBlockState extensionBlockTop = Blocks.AIR.getDefaultState();
+	/**
+	 * Shared primers for all cubes below and above the vanilla range
+	 */
+	private final ICubePrimer fillerBottom, fillerTop;
 
 	/**
 	 * Create a new VanillaCompatibilityGenerator
@@ -89,7 +106,7 @@ public class VanillaCompatibilityGenerator implements ICubeGenerator {
 		this.world = world;
 
 		// heuristics TODO: add a config that overrides this
-		lastChunk = vanilla.provideChunk(0, 0); // lets scan the chunk at 0, 0
+		Chunk lastChunk = vanilla.provideChunk(0, 0); // lets scan the chunk at 0, 0
 
 		worldHeightBlocks = world.getActualHeight();
 		worldHeightCubes = worldHeightBlocks/Cube.SIZE;
@@ -138,6 +155,9 @@ public class VanillaCompatibilityGenerator implements ICubeGenerator {
 		}
 		CubicChunks.LOGGER.info("Detected filler block " + extensionBlockTop.getBlock().getUnlocalizedName() + " from" +
 			" layers [" + (worldHeightBlocks - 3) + ", " + (worldHeightBlocks - 1) + "]");
+
+		fillerBottom = new UniformCubePrimer(extensionBlockBottom);
+		fillerTop = new UniformCubePrimer(extensionBlockTop);
 	}
 
 	@Override
@@ -162,67 +182,59 @@ public class VanillaCompatibilityGenerator implements ICubeGenerator {
 
 	@Override
 	public ICubePrimer generateCube(int cubeX, int cubeY, int cubeZ) {
-		CubePrimer primer = new CubePrimer();
-
 		if (cubeY < 0) {
-			// Fill with bottom block
-			for (int x = 0; x < Cube.SIZE; x++) {
-				for (int y = 0; y < Cube.SIZE; y++) {
-					for (int z = 0; z < Cube.SIZE; z++) {
-						primer.setBlockState(x, y, z, extensionBlockBottom);
-					}
-				}
+			return fillerBottom;
+		}
+		if (cubeY >= worldHeightCubes) {
+			return fillerTop;
+		}
+		long key = ChunkPos.asLong(cubeX, cubeZ);
+		CubePrimer[] cubes = vanillaCubes.get(key);
+		if (cubes == null || cubes[cubeY] == null) {
+			// Make vanilla generate a chunk for us to copy. If this cube was already taken from the cached chunk
+			// it's generated again, so the chunk has to be generated again too
+			cubes = copyVanillaChunk(vanilla.provideChunk(cubeX, cubeZ));
+			vanillaCubes.put(key, cubes);
+		}
+		CubePrimer primer = cubes[cubeY];
+		cubes[cubeY] = null;
+		if (Arrays.stream(cubes).allMatch(Objects::isNull)) {
+			vanillaCubes.remove(key);
+		}
+		return primer;
+	}
+
+	/**
+	 * Copy all cubes in the vanilla range from a vanilla chunk, replacing bedrock as appropriate
+	 */
+	private CubePrimer[] copyVanillaChunk(Chunk chunk) {
+		CubePrimer[] cubes = new CubePrimer[worldHeightCubes];
+		for (int cubeY = 0; cubeY < worldHeightCubes; cubeY++) {
+			CubePrimer primer = new CubePrimer();
+			cubes[cubeY] = primer;
+
+			ExtendedBlockStorage storage = chunk.getBlockStorageArray()[cubeY];
+			if (storage == null || storage.isEmpty()) {
+				continue;
 			}
-		} else if (cubeY >= worldHeightCubes) {
-			// Fill with top block
 			for (int x = 0; x < Cube.SIZE; x++) {
 				for (int y = 0; y < Cube.SIZE; y++) {
 					for (int z = 0; z < Cube.SIZE; z++) {
-						primer.setBlockState(x, y, z, extensionBlockTop);
-					}
-				}
-			}
-		} else {
-			// Make vanilla generate a chunk for us to copy
-			if (lastChunk.xPosition != cubeX || lastChunk.zPosition != cubeZ) {
-				lastChunk = vanilla.provideChunk(cubeX, cubeZ);
-			}
-
-			if (!optimizationHack) {
-				optimizationHack = true;
-				// Recusrive generation
-				for (int y = worldHeightCubes - 1; y >= 0; y--) {
-					if (y == cubeY) {
-						continue;
-					}
-					world.getCubeFromCubeCoords(cubeX, y, cubeZ);
-				}
-				optimizationHack = false;
-			}
-
-			// Copy from vanilla, replacing bedrock as appropriate
-			ExtendedBlockStorage storage = lastChunk.getBlockStorageArray()[cubeY];
-			if (storage != null && !storage.isEmpty()) {
-				for (int x = 0; x < Cube.SIZE; x++) {
-					for (int y = 0; y < Cube.SIZE; y++) {
-						for (int z = 0; z < Cube.SIZE; z++) {
-							IBlockState state = storage.get(x, y, z);
-							if (state == Blocks.BEDROCK.getDefaultState()) {
-								if (y < Cube.SIZE/2) {
-									primer.setBlockState(x, y, z, extensionBlockBottom);
-								} else {
-									primer.setBlockState(x, y, z, extensionBlockTop);
-								}
+						IBlockState state = storage.get(x, y, z);
+						if (state == Blocks.BEDROCK.getDefaultState()) {
+							if (y < Cube.SIZE/2) {
+								primer.setBlockState(x, y, z, extensionBlockBottom);
 							} else {
-								primer.setBlockState(x, y, z, state);
+								primer.setBlockState(x, y, z, extensionBlockTop);
 							}
+						} else {
+							primer.setBlockState(x, y, z, state);
 						}
 					}
 				}
 			}
 		}
-
-		return primer;
+		return cubes;
 	}
 
 	@Override
@@ -259,6 +271,17 @@ public class VanillaCompatibilityGenerator implements ICubeGenerator {
 		return NO_POPULATOR_REQUIREMENT;
 	}
 
+	@Override
+	public Box getPopulationTargets(Cube cube) {
+		if (cube.getY() >= 0 && cube.getY() < worldHeightCubes) {
+			return new Box(
+				0, 0 - cube.getY(), 0,
+				1, worldHeightCubes - cube.getY() - 1, 1
+			);
+		}
+		return NO_POPULATOR_REQUIREMENT;
+	}
+
 	@Override
 	public void recreateStructures(Cube cube) {
 	}
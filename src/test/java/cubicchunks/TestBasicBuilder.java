@@ -0,0 +1,90 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import org.junit.Test;
+
+import cubicchunks.worldgen.generator.custom.builder.BasicBuilder;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestBasicBuilder {
+
+	@Test
+	public void testGetValuesEqualsGetValue() {
+		double freq = 684.412D/Math.pow(2, 16);
+		BasicBuilder builder = new BasicBuilder();
+		builder.setSeed(42);
+		builder.setOctaves(16);
+		builder.setPersistance(0.5);
+		builder.setMaxElev(2);
+		builder.setClamp(-1, 1);
+		builder.setFreq(freq, freq, freq);
+		builder.build();
+
+		assertGetValuesEqualsGetValue(builder, 0, 0, 0);
+		assertGetValuesEqualsGetValue(builder, -12, -3, 7);
+		assertGetValuesEqualsGetValue(builder, 123456, -98765, 4321);
+	}
+
+	@Test
+	public void testGetValuesEqualsGetValueNonUniformScaleAndBias() {
+		double freq = 8.55515/Math.pow(2, 8);
+		BasicBuilder builder = new BasicBuilder();
+		builder.setSeed(-7);
+		builder.setOctaves(8);
+		builder.setPersistance(0.5);
+		builder.setMaxElev(25.6);
+		builder.setSeaLevel(0.5);
+		builder.setClamp(0, 1);
+		builder.setFreq(freq, freq*2, freq);
+		builder.build();
+
+		assertGetValuesEqualsGetValue(builder, -5, 17, -300);
+	}
+
+	@Test
+	public void testGetValuesEqualsGetValueLargeCoordinates() {
+		// high enough to be wrapped into 32-bit int range in the last octaves
+		BasicBuilder builder = new BasicBuilder();
+		builder.setSeed(1);
+		builder.setOctaves(16);
+		builder.setFreq(1);
+		builder.build();
+
+		assertGetValuesEqualsGetValue(builder, 40000, -40000, 1 << 20);
+	}
+
+	private static void assertGetValuesEqualsGetValue(BasicBuilder builder, int minX, int minY, int minZ) {
+		double[][][] values = new double[5][3][5];
+		builder.getValues(values, minX, minY, minZ);
+		for (int x = 0; x < 5; x++) {
+			for (int y = 0; y < 3; y++) {
+				for (int z = 0; z < 5; z++) {
+					assertEquals(builder.getValue(minX + x, minY + y, minZ + z), values[x][y][z], 0);
+				}
+			}
+		}
+	}
+}
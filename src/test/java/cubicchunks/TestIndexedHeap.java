@@ -0,0 +1,143 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import cubicchunks.util.IndexedHeap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestIndexedHeap {
+	@Test
+	public void testPollInPriorityOrder() {
+		IndexedHeap<Value> heap = new IndexedHeap<>();
+		//set seed so that tests are predictable
+		Random rand = new Random(42);
+		List<Value> values = randomValues(heap, rand, 500);
+
+		Collections.sort(values);
+		for (Value value : values) {
+			assertEquals(value.priority, heap.peekPriority(), 0);
+			assertSame(value, heap.poll());
+		}
+		assertTrue(heap.isEmpty());
+		assertNull(heap.peek());
+	}
+
+	@Test
+	public void testRemove() {
+		IndexedHeap<Value> heap = new IndexedHeap<>();
+		Random rand = new Random(42);
+		List<Value> values = randomValues(heap, rand, 500);
+
+		List<Value> removed = new ArrayList<>();
+		for (int i = 0; i < 250; i++) {
+			removed.add(values.remove(rand.nextInt(values.size())));
+		}
+		for (Value value : removed) {
+			assertTrue(heap.remove(value));
+			assertFalse(heap.contains(value));
+			assertFalse(heap.remove(value));
+		}
+		assertEquals(values.size(), heap.size());
+
+		Collections.sort(values);
+		for (Value value : values) {
+			assertSame(value, heap.poll());
+		}
+	}
+
+	@Test
+	public void testChangePriority() {
+		IndexedHeap<Value> heap = new IndexedHeap<>();
+		Random rand = new Random(42);
+		List<Value> values = randomValues(heap, rand, 500);
+
+		for (Value value : values) {
+			value.priority = rand.nextDouble();
+			heap.add(value, value.priority);
+		}
+		assertEquals(values.size(), heap.size());
+
+		Collections.sort(values);
+		for (Value value : values) {
+			assertSame(value, heap.poll());
+		}
+	}
+
+	@Test
+	public void testUpdatePriorities() {
+		IndexedHeap<Value> heap = new IndexedHeap<>();
+		Random rand = new Random(42);
+		List<Value> values = randomValues(heap, rand, 500);
+
+		for (Value value : values) {
+			if (rand.nextBoolean()) {
+				value.priority = rand.nextDouble();
+				value.changed = true;
+			}
+		}
+		heap.updatePriorities(value -> value.changed, value -> value.priority);
+
+		Collections.sort(values);
+		for (Value value : values) {
+			assertSame(value, heap.poll());
+		}
+	}
+
+	private List<Value> randomValues(IndexedHeap<Value> heap, Random rand, int count) {
+		List<Value> values = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			Value value = new Value(rand.nextDouble());
+			values.add(value);
+			heap.add(value, value.priority);
+			assertTrue(heap.contains(value));
+		}
+		assertEquals(count, heap.size());
+		return values;
+	}
+
+	private static class Value implements Comparable<Value> {
+		double priority;
+		boolean changed;
+
+		Value(double priority) {
+			this.priority = priority;
+		}
+
+		@Override public int compareTo(Value o) {
+			return Double.compare(priority, o.priority);
+		}
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+import cubicchunks.server.chunkio.region.RegionFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestRegionFile {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testReadMissing() throws IOException {
+		try (RegionFile region = new RegionFile(file(), 64)) {
+			assertFalse(region.hasEntry(0));
+			assertNull(region.read(0));
+			assertNull(region.read(63));
+		}
+	}
+
+	@Test
+	public void testWriteRead() throws IOException {
+		Random rand = new Random(42);
+		byte[][] data = new byte[64][];
+		try (RegionFile region = new RegionFile(file(), 64)) {
+			for (int i = 0; i < data.length; i++) {
+				data[i] = randomBytes(rand, 1 + rand.nextInt(3000));
+				region.write(i, data[i]);
+			}
+			for (int i = 0; i < data.length; i++) {
+				assertArrayEquals(data[i], region.read(i));
+			}
+		}
+	}
+
+	@Test
+	public void testReopen() throws IOException {
+		Path path = file();
+		Random rand = new Random(42);
+		byte[] first = randomBytes(rand, 1000);
+		byte[] second = randomBytes(rand, 5000);
+		try (RegionFile region = new RegionFile(path, 64)) {
+			region.write(3, first);
+			region.write(60, second);
+		}
+		try (RegionFile region = new RegionFile(path, 64)) {
+			assertTrue(region.hasEntry(3));
+			assertArrayEquals(first, region.read(3));
+			assertArrayEquals(second, region.read(60));
+			assertNull(region.read(4));
+		}
+	}
+
+	@Test
+	public void testOverwriteReusesSpace() throws IOException {
+		Path path = file();
+		Random rand = new Random(42);
+		try (RegionFile region = new RegionFile(path, 64)) {
+			for (int i = 0; i < 100; i++) {
+				region.write(i%4, randomBytes(rand, 1 + rand.nextInt(RegionFile.SECTOR_SIZE*4)));
+				// replaced sectors can only be reused after a flush
+				region.flush();
+			}
+			byte[] last = randomBytes(rand, 100);
+			region.write(0, last);
+			assertArrayEquals(last, region.read(0));
+		}
+		// header + 4 entries of at most 4 sectors, and at most one extra copy of each while rewriting
+		assertTrue(Files.size(path) <= RegionFile.SECTOR_SIZE*(1 + 4*4*2));
+	}
+
+	@Test
+	public void testUnflushedWritesKeepOldData() throws IOException {
+		Path path = file();
+		Path crashed = folder.newFile().toPath();
+		Random rand = new Random(42);
+		byte[] first = randomBytes(rand, 1000);
+		byte[] second = randomBytes(rand, 3000);
+		byte[] other = randomBytes(rand, 500);
+		try (RegionFile region = new RegionFile(path, 64)) {
+			region.write(0, first);
+			region.flush();
+			region.write(0, second);
+			// fits in the sectors of the first version, which must not be reused before a flush
+			region.write(1, other);
+			assertArrayEquals(second, region.read(0));
+
+			// what the file looks like if the server crashes now
+			Files.copy(path, crashed, StandardCopyOption.REPLACE_EXISTING);
+		}
+		try (RegionFile region = new RegionFile(crashed, 64)) {
+			assertArrayEquals(first, region.read(0));
+			assertFalse(region.hasEntry(1));
+		}
+		try (RegionFile region = new RegionFile(path, 64)) {
+			assertArrayEquals(second, region.read(0));
+			assertArrayEquals(other, region.read(1));
+		}
+	}
+
+	@Test
+	public void testRemove() throws IOException {
+		Path path = file();
+		try (RegionFile region = new RegionFile(path, 64)) {
+			region.write(5, new byte[]{1, 2, 3});
+			region.remove(5);
+			assertNull(region.read(5));
+		}
+		try (RegionFile region = new RegionFile(path, 64)) {
+			assertFalse(region.hasEntry(5));
+		}
+	}
+
+	private Path file() throws IOException {
+		return folder.newFile().toPath();
+	}
+
+	private static byte[] randomBytes(Random rand, int length) {
+		byte[] data = new byte[length];
+		rand.nextBytes(data);
+		return data;
+	}
+}
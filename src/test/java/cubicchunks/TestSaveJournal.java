@@ -0,0 +1,121 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import cubicchunks.server.chunkio.SaveJournal;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestSaveJournal {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testReplay() throws IOException {
+		Path path = file();
+		try (SaveJournal journal = new SaveJournal(path)) {
+			journal.append(SaveJournal.TYPE_CUBE, 1, new byte[]{1, 2, 3});
+			journal.append(SaveJournal.TYPE_COLUMN, 2, new byte[]{4});
+			journal.append(SaveJournal.TYPE_CUBE, 1, new byte[]{5, 6});
+		}
+		List<String> records = replay(path);
+		assertEquals(Arrays.asList("1:1:[1, 2, 3]", "0:2:[4]", "1:1:[5, 6]"), records);
+	}
+
+	@Test
+	public void testCorruptedTail() throws IOException {
+		Path path = file();
+		try (SaveJournal journal = new SaveJournal(path)) {
+			journal.append(SaveJournal.TYPE_CUBE, 1, new byte[]{1, 2, 3});
+			journal.append(SaveJournal.TYPE_CUBE, 2, new byte[]{4, 5, 6});
+		}
+		// damage the last byte of the second record
+		try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+			file.seek(file.length() - 1);
+			file.write(7);
+		}
+		assertEquals(Collections.singletonList("1:1:[1, 2, 3]"), replay(path));
+
+		// the corrupted record has been cut off, so new records can be read after the good ones
+		try (SaveJournal journal = new SaveJournal(path)) {
+			journal.append(SaveJournal.TYPE_CUBE, 3, new byte[]{8});
+		}
+		assertEquals(Arrays.asList("1:1:[1, 2, 3]", "1:3:[8]"), replay(path));
+	}
+
+	@Test
+	public void testIncompleteRecord() throws IOException {
+		Path path = file();
+		try (SaveJournal journal = new SaveJournal(path)) {
+			journal.append(SaveJournal.TYPE_CUBE, 1, new byte[]{1, 2, 3});
+			journal.append(SaveJournal.TYPE_CUBE, 2, new byte[100]);
+		}
+		try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+			file.setLength(file.length() - 50);
+		}
+		assertEquals(Collections.singletonList("1:1:[1, 2, 3]"), replay(path));
+	}
+
+	@Test
+	public void testClearAndRewrite() throws IOException {
+		Path path = file();
+		try (SaveJournal journal = new SaveJournal(path)) {
+			journal.append(SaveJournal.TYPE_CUBE, 1, new byte[]{1});
+			journal.clear();
+			assertEquals(0, journal.size());
+			journal.append(SaveJournal.TYPE_CUBE, 2, new byte[]{2});
+			journal.append(SaveJournal.TYPE_CUBE, 3, new byte[]{3});
+			journal.rewrite(Collections.singletonList(new SaveJournal.Record(SaveJournal.TYPE_COLUMN, 4, new byte[]{4})));
+			journal.append(SaveJournal.TYPE_CUBE, 5, new byte[]{5});
+		}
+		assertEquals(Arrays.asList("0:4:[4]", "1:5:[5]"), replay(path));
+		assertEquals(1, Files.list(folder.getRoot().toPath()).count());
+	}
+
+	private static List<String> replay(Path path) throws IOException {
+		List<String> records = new ArrayList<>();
+		try (SaveJournal journal = new SaveJournal(path)) {
+			journal.replay((type, address, data) -> records.add(type + ":" + address + ":" + Arrays.toString(data)));
+		}
+		return records;
+	}
+
+	private Path file() throws IOException {
+		return folder.newFile().toPath();
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ *  This file is part of Cubic Chunks Mod, licensed under the MIT License (MIT).
+ *
+ *  Copyright (c) 2015 contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package cubicchunks.server;
+
+import net.minecraft.profiler.Profiler;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.datafix.DataFixer;
+import net.minecraft.world.GameType;
+import net.minecraft.world.WorldServer;
+import net.minecraft.world.WorldSettings;
+import net.minecraft.world.WorldType;
+import net.minecraft.world.chunk.storage.AnvilSaveHandler;
+import net.minecraft.world.storage.ISaveHandler;
+import net.minecraft.world.storage.WorldInfo;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.spongepowered.test.launch.LaunchWrapperTestRunner;
+
+import java.io.IOException;
+
+import cubicchunks.testutil.MinecraftEnvironment;
+import cubicchunks.util.ticket.ITicket;
+import cubicchunks.world.ICubicWorldServer;
+import cubicchunks.world.column.Column;
+import cubicchunks.world.cube.Cube;
+import cubicchunks.world.type.FlatCubicWorldType;
+
+import static cubicchunks.world.IProviderExtras.Requirement.GENERATE;
+import static cubicchunks.world.IProviderExtras.Requirement.LOAD;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+@RunWith(LaunchWrapperTestRunner.class)
+public class TestCubeProviderServer {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private CubeProviderServer provider;
+
+	@Before
+	public void setUp() throws IOException {
+		MinecraftEnvironment.init();
+		MinecraftServer server = MinecraftEnvironment.createFakeServer();
+
+		ISaveHandler saveHandler = new AnvilSaveHandler(folder.newFolder("save"), "world", false, new DataFixer(512));
+		WorldType cubicChunksType = new FlatCubicWorldType();
+		WorldSettings settings = new WorldSettings(0, GameType.SURVIVAL, false, false, cubicChunksType);
+		WorldInfo worldInfo = new WorldInfo(settings, "test");
+		ICubicWorldServer world = (ICubicWorldServer) new WorldServer(server, saveHandler, worldInfo, 0, new Profiler());
+		world.initCubicWorld();
+		this.provider = world.getCubeCache();
+	}
+
+	@Test
+	public void testColumnSavedAndUnloadedWithItsCubes() {
+		ITicket ticket = () -> false;
+		Cube cube = provider.getCube(0, 0, 0, GENERATE);
+		assertNotNull(cube);
+		Column column = cube.getColumn();
+		cube.getTickets().add(ticket);
+
+		// the ticket keeps the cube loaded, and the cube keeps the column loaded
+		provider.unloadUnused(0, Long.MAX_VALUE);
+		assertSame(cube, provider.getLoadedCube(0, 0, 0));
+		assertSame(column, provider.getLoadedColumn(0, 0));
+
+		column.setModified(true);
+		provider.saveChunks(true);
+		assertFalse(column.needsSaving(true));
+
+		column.setModified(true);
+		cube.getTickets().remove(ticket);
+		provider.unloadUnused(0, Long.MAX_VALUE);
+		assertNull(provider.getLoadedCube(0, 0, 0));
+		assertNull(provider.getLoadedColumn(0, 0));
+		assertFalse(column.needsSaving(true));
+
+		// both were saved when they were unloaded
+		assertNotNull(provider.getColumn(0, 0, LOAD));
+		assertNotNull(provider.getCube(0, 0, 0, LOAD));
+	}
+}